@@ -0,0 +1,38 @@
+package sqlmapping;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * An in-memory H2 database for the benchmarks, with an {@code item} table of {@code rows} rows.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Every instance is a database of its own, on a single connection, so that the benchmarks measure the mapping and not
+ *   the pool. Each item belongs to one of {@code rows / 10} orders.
+ * </p>
+ */
+class BenchmarkDatabase {
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  final NamedParameterJdbcTemplate template;
+  private final SingleConnectionDataSource dataSource;
+
+  BenchmarkDatabase(int rows){
+    dataSource = new SingleConnectionDataSource("jdbc:h2:mem:bench" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "", true);
+    template = new NamedParameterJdbcTemplate(dataSource);
+    JdbcTemplate jdbc = template.getJdbcTemplate();
+    jdbc.execute("create table item (id int primary key, order_id int, name varchar(64), qty int, price decimal(10, 2), created date, active char(1))");
+    jdbc.execute(
+      "insert into item select x, x / 10, 'item ' || x, mod(x, 7), mod(x, 1000) / 10.0, dateadd('DAY', mod(x, 3650), date '2000-01-01'), case when mod(x, 3) = 0 then 'N' else 'Y' end "
+      + "from system_range(1, " + rows + ")"
+    );
+  }
+
+  void close(){
+    template.getJdbcTemplate().execute("shutdown");
+    dataSource.destroy();
+  }
+}
@@ -0,0 +1,112 @@
+package sqlmapping;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import maptree.MapTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures joining child rows onto parent rows: the hash join, the sort-merge join, and the spilling join with a budget
+ * too small for the children. The same number of children is spread over fewer parents as the fan-out grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class JoinBenchmark {
+  @Param({"1000", "100000", "1000000"})
+  int childCount;
+
+  @Param({"1", "10", "100"})
+  int childrenPerParent;
+
+  private List<MapTree> parents;
+  private List<MapTree> children;
+  private List<JoinMapping> joinMappings;
+  private Path spillDirectory;
+
+  @Setup
+  public void setUp() throws IOException {
+    int parentCount = childCount / childrenPerParent;
+    parents = new ArrayList<>(parentCount);
+    for(int p = 0; p < parentCount; p++){
+      MapTree parent = new MapTree();
+      parent.put("id", p);
+      parent.put("name", "order " + p);
+      parents.add(parent);
+    }
+    children = new ArrayList<>(childCount);
+    for(int p = 0; p < parentCount; p++){
+      for(int c = 0; c < childrenPerParent; c++){
+        MapTree child = new MapTree();
+        child.put("id", p * childrenPerParent + c);
+        child.put("order_id", p);
+        child.put("name", "item " + c);
+        children.add(child);
+      }
+    }
+    joinMappings = Collections.singletonList(new JoinMapping("id", "order_id", "items"));
+    spillDirectory = Files.createTempDirectory("join-benchmark");
+  }
+
+  /**
+   * Empties the lists joined into the parents by the previous invocation.
+   */
+  @Setup(Level.Invocation)
+  public void clearChildren(){
+    for(MapTree parent : parents){
+      joinMappings.get(0).childList(parent).clear();
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(spillDirectory);
+  }
+
+  @Benchmark
+  public List<MapTree> hashJoin(){
+    JoinEngine.join(parents, children, joinMappings, false);
+    return parents;
+  }
+
+  @Benchmark
+  public List<MapTree> mergeJoin(){
+    JoinEngine.join(parents, children, joinMappings, true);
+    return parents;
+  }
+
+  @Benchmark
+  public List<MapTree> spillingJoin(){
+    // About a tenth of the children fit in the budget, so most of them go to disk.
+    SpillingJoin join = new SpillingJoin(joinMappings, SpillingJoin.estimate(children.get(0)) * children.size() / 10, spillDirectory);
+    try {
+      for(MapTree child : children){
+        join.accept(child);
+      }
+      join.join(parents, false);
+    }finally{
+      join.close();
+    }
+    return parents;
+  }
+}
@@ -0,0 +1,71 @@
+package sqlmapping;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import maptree.MapTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures querying a list and mapping its rows, flat and into nested paths with transformers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MappingBenchmark {
+  private static final String SQL = "select id, order_id, name, qty, price, created, active from item";
+
+  @Param({"1000", "100000", "1000000"})
+  int rows;
+
+  private BenchmarkDatabase database;
+
+  @Setup
+  public void setUp(){
+    database = new BenchmarkDatabase(rows);
+  }
+
+  @TearDown
+  public void tearDown(){
+    database.close();
+  }
+
+  @Benchmark
+  public List<MapTree> flat(){
+    return new SqlSelector(database.template)
+      .map("id")
+      .map("order_id")
+      .map("name")
+      .map("qty")
+      .map("price")
+      .map("created")
+      .map("active")
+      .queryForList(SQL);
+  }
+
+  @Benchmark
+  public List<MapTree> nested(){
+    return new SqlSelector(database.template)
+      .map("id", "item.id")
+      .map("order_id", "item.order.id")
+      .map("name", "item.name")
+      .map("qty", "item.stock.qty", Transformer.TO_INT)
+      .map("price", "item.stock.price", Transformer.TO_DOUBLE)
+      .map("created", "item.created", Transformer.FORMAT_DATE)
+      .map("active", "item.active", Transformer.STR_TO_BOOL)
+      .queryForList(SQL);
+  }
+}
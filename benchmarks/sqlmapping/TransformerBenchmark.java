@@ -0,0 +1,81 @@
+package sqlmapping;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the built-in transformers on typical values, boxed and typed, alone and chained.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+  private static final Map SIBLINGS = Collections.emptyMap();
+  private static final IntUnaryOperator TIMES_TEN = new IntUnaryOperator(){
+    public int applyAsInt(int value){
+      return value * 10;
+    }
+  };
+
+  private final Object intString = "123456";
+  private final Object yn = "Y";
+  private final Object date = new Date(1180569600000L);
+  private final Object intDate = 20070531;
+  private final Transformer.IntTransformer typedChain = Transformer.TO_INT.andThenInt(TIMES_TEN).andThenInt(TIMES_TEN);
+  private final Transformer boxedChain = Transformer.TO_INT.andThen(Transformer.TO_STR_OR_EMPTY).andThen(Transformer.TO_INT);
+
+  @Benchmark
+  public Object toInt(){
+    return Transformer.TO_INT.transform(intString, SIBLINGS);
+  }
+
+  @Benchmark
+  public int toIntTyped(){
+    return Transformer.TO_INT.transformInt(intString, 0);
+  }
+
+  @Benchmark
+  public Object strToBool(){
+    return Transformer.STR_TO_BOOL.transform(yn, SIBLINGS);
+  }
+
+  @Benchmark
+  public Object formatDate(){
+    return Transformer.FORMAT_DATE.transform(date, SIBLINGS);
+  }
+
+  @Benchmark
+  public Object formatIntDate(){
+    return Transformer.FORMAT_DATE.transform(intDate, SIBLINGS);
+  }
+
+  @Benchmark
+  public int toIntDate(){
+    return Transformer.Typed.TO_INTDATE.transformInt(date, 0);
+  }
+
+  @Benchmark
+  public Object boxedChain(){
+    return boxedChain.transform(intString, SIBLINGS);
+  }
+
+  @Benchmark
+  public int typedChain(){
+    return typedChain.transformInt(intString, 0);
+  }
+}
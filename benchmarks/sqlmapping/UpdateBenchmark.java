@@ -0,0 +1,74 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import maptree.MapTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures updating a list of items, one statement per item sent as JDBC batches. The items are flat, as SqlUpdater takes
+ * each mapped value from the item by its whole path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class UpdateBenchmark {
+  private static final String SQL = "update item set name = :name, qty = :qty where id = :id";
+
+  @Param({"1000", "100000", "1000000"})
+  int rows;
+
+  private BenchmarkDatabase database;
+  private List<Map> items;
+
+  @Setup
+  public void setUp(){
+    database = new BenchmarkDatabase(rows);
+    items = new ArrayList<>(rows);
+    for(int i = 1; i <= rows; i++){
+      MapTree item = new MapTree();
+      item.put("id", i);
+      item.put("name", "renamed " + i);
+      item.put("stock_qty", String.valueOf(i % 11));
+      items.add(item);
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    database.close();
+  }
+
+  @Benchmark
+  public boolean updateList(){
+    return updater().updateList(SQL, items);
+  }
+
+  @Benchmark
+  public BatchResult batchUpdateList(){
+    return updater().batchUpdateList(SQL, items);
+  }
+
+  private SqlUpdater updater(){
+    return new SqlUpdater(database.template)
+      .map("id")
+      .map("name")
+      .map("stock_qty", "qty", Transformer.TO_INT);
+  }
+}
@@ -0,0 +1,104 @@
+package sqlmapping;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a batched update (See {@link SqlUpdater#batchUpdateList(String, List)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Holds the update count of every row, in the order the rows were given, and a report of the rows that failed. A count of
+ *   {@link Statement#SUCCESS_NO_INFO} means the driver executed the row but didn't say how many rows it affected; a count of
+ *   {@link Statement#EXECUTE_FAILED} means the row failed or was never executed because an earlier batch failed.
+ * </p>
+ */
+public class BatchResult {
+  private final int[] updateCounts;
+  private final List<Failure> failures;
+
+  BatchResult(int[] updateCounts, List<Failure> failures){
+    this.updateCounts = updateCounts;
+    this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+  }
+
+  /**
+   * Returns the number of rows affected by each row of the batch.
+   *
+   * @return the update counts, one per row
+   */
+  public int[] getUpdateCounts(){
+    return updateCounts.clone();
+  }
+
+  /**
+   * Returns the rows that failed or were never executed.
+   *
+   * @return the failures, in row order
+   */
+  public List<Failure> getFailures(){
+    return failures;
+  }
+
+  /**
+   * Returns whether every row succeeded and affected {@code expectedRowCount} rows (a count of
+   * {@link Statement#SUCCESS_NO_INFO} is taken as a success).
+   *
+   * @param expectedRowCount the number of rows each row of the batch is expected to affect
+   * @return True if successful, otherwise False
+   */
+  public boolean isSuccess(int expectedRowCount){
+    if(!failures.isEmpty()){
+      return false;
+    }
+    for(int count : updateCounts){
+      if(count != expectedRowCount && count != Statement.SUCCESS_NO_INFO){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Describes a row of a batch that failed.
+   */
+  public static class Failure {
+    private final int index;
+    private final Map data;
+    private final Exception cause;
+
+    Failure(int index, Map data, Exception cause){
+      this.index = index;
+      this.data = data;
+      this.cause = cause;
+    }
+
+    /**
+     * @return the position of the row in the list passed to the update
+     */
+    public int getIndex(){
+      return index;
+    }
+
+    /**
+     * @return the data of the row
+     */
+    public Map getData(){
+      return data;
+    }
+
+    /**
+     * @return the exception that failed the row's batch
+     */
+    public Exception getCause(){
+      return cause;
+    }
+
+    public String toString(){
+      return "["+index+", "+cause+"]";
+    }
+  }
+}
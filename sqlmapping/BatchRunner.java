@@ -0,0 +1,141 @@
+package sqlmapping;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Runs one SQL statement for many rows as JDBC batches.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   The rows are sent in batches of {@code batchSize} on a single PreparedStatement, so the number of round trips is the
+ *   number of batches rather than the number of rows. The SQL is parsed and substituted once. If a batch fails and
+ *   failures are reported, its failed rows (and every row of the batches after it, which are not executed) are reported in
+ *   the {@link BatchResult} instead of being thrown; otherwise the BatchUpdateException is thrown, translated by Spring
+ *   like any other SQLException. Errors that aren't about a batch (a bad connection, say) are thrown as usual.
+ * </p>
+ */
+final class BatchRunner {
+  static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private BatchRunner(){}
+
+  /**
+   * @param jdbc the JdbcOperations to run the statement with
+   * @param sql the statement
+   * @param rows the data of each row; used for the failure report and, if {@code keyNames} is given, to write generated
+   *             keys back into
+   * @param params produces the parameters of the row at the given index
+   * @param batchSize the number of rows per batch
+   * @param keyNames the names of the auto-generated keys to retrieve, or null
+   * @param keyList collects the generated keys of each row (in row order) if not null
+   * @param reportFailures whether a failed batch is reported in the BatchResult rather than thrown
+   */
+  static BatchResult run(JdbcOperations jdbc, final NamedSql sql, final List<? extends Map> rows, final IntFunction<? extends SqlParameterSource> params, final int batchSize, final String[] keyNames, final List<Map<String, Object>> keyList, final boolean reportFailures){
+    final int[] counts = new int[rows.size()];
+    final List<BatchResult.Failure> failures = new ArrayList<>();
+    if(rows.isEmpty()){
+      return new BatchResult(counts, failures);
+    }
+    jdbc.execute(new ConnectionCallback<Void>(){
+      public Void doInConnection(Connection con) throws SQLException {
+        SqlParameterSource first = params.apply(0);
+        NamedSql.Binder binder = sql.binder(first);
+        PreparedStatement ps = keyNames != null
+          ? con.prepareStatement(binder.getSql(), keyNames)
+          : con.prepareStatement(binder.getSql());
+        try {
+          StatementCanceller.register(ps);
+          int size = Math.max(1, batchSize);
+          for(int start = 0; start < rows.size(); start += size){
+            int end = Math.min(rows.size(), start + size);
+            for(int i = start; i < end; i++){
+              binder.bind(ps, i == 0 ? first : params.apply(i));
+              ps.addBatch();
+            }
+            try {
+              int[] batchCounts = ps.executeBatch();
+              System.arraycopy(batchCounts, 0, counts, start, Math.min(batchCounts.length, end - start));
+              if(keyNames != null){
+                readKeys(ps, rows, start, end, keyNames, keyList);
+              }
+            }catch(BatchUpdateException e){
+              if(!reportFailures){
+                throw e;
+              }
+              int[] batchCounts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+              for(int i = start; i < end; i++){
+                int offset = i - start;
+                counts[i] = offset < batchCounts.length ? batchCounts[offset] : Statement.EXECUTE_FAILED;
+                if(counts[i] == Statement.EXECUTE_FAILED){
+                  failures.add(new BatchResult.Failure(i, rows.get(i), e));
+                }
+              }
+              Arrays.fill(counts, end, rows.size(), Statement.EXECUTE_FAILED);
+              SQLException skipped = new SQLException("Not executed: an earlier batch failed", e);
+              for(int i = end; i < rows.size(); i++){
+                failures.add(new BatchResult.Failure(i, rows.get(i), skipped));
+              }
+              return null;
+            }
+          }
+        }finally{
+          StatementCanceller.unregister();
+          JdbcUtils.closeStatement(ps);
+        }
+        return null;
+      }
+    });
+    return new BatchResult(counts, failures);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void readKeys(PreparedStatement ps, List<? extends Map> rows, int start, int end, String[] keyNames, List<Map<String, Object>> keyList) throws SQLException {
+    ResultSet rs = ps.getGeneratedKeys();
+    if(rs == null){
+      return;
+    }
+    try {
+      ResultSetMetaData metaData = rs.getMetaData();
+      int i = start;
+      while(rs.next() && i < end){
+        Map<String, Object> keys = new LinkedHashMap<>();
+        for(int c = 1; c <= metaData.getColumnCount(); c++){
+          keys.put(JdbcUtils.lookupColumnName(metaData, c), JdbcUtils.getResultSetValue(rs, c));
+        }
+        if(keyList != null){
+          keyList.add(keys);
+        }
+        Map row = rows.get(i++);
+        if(keys.size() == 1 && keyNames.length == 1){
+          row.put(keyNames[0], keys.values().iterator().next());
+        }else{
+          for(String keyName : keyNames){
+            for(Map.Entry<String, Object> key : keys.entrySet()){
+              if(key.getKey().equalsIgnoreCase(keyName)){
+                row.put(keyName, key.getValue());
+              }
+            }
+          }
+        }
+      }
+    }finally{
+      JdbcUtils.closeResultSet(rs);
+    }
+  }
+}
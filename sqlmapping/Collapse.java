@@ -0,0 +1,152 @@
+package sqlmapping;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import maptree.MapTree;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import sqlmapping.SqlExecutor.Mapping;
+
+/**
+ * Folds the flattened rows of a single JOIN query into nested lists (See {@link SqlSelector#groupBy(String)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Every level of the tree (the top-level records, their children, their grandchildren, ...) has its own mappings and an
+ *   identity column. Rows are read in a single pass: at each level, the identity of the row is looked up in a hash index of
+ *   the records already seen under the same parent; a record is only mapped the first time its identity turns up, and the
+ *   levels below it are then folded into that record. A row whose identity is null at some level (as the outer side of a
+ *   LEFT JOIN produces) adds nothing at that level or below it. A Collapse is immutable and can be run concurrently.
+ * </p>
+ */
+final class Collapse {
+  private final String path;
+  private final String idKey;
+  private final MappingPlan plan;
+  private final Collapse[] children;
+
+  private Collapse(String path, String idKey, MappingPlan plan, Collapse[] children){
+    this.path = path;
+    this.idKey = idKey;
+    this.plan = plan;
+    this.children = children;
+  }
+
+  static Collapse compile(Level level, MappingPlanCache cache){
+    Collapse[] children = new Collapse[level.children.size()];
+    for(int i = 0; i < children.length; i++){
+      children[i] = compile(level.children.get(i), cache);
+    }
+    MappingPlan plan = cache != null ? cache.get(level.mappings) : MappingPlan.compile(level.mappings);
+    return new Collapse(level.path, level.idKey, plan, children);
+  }
+
+  /**
+   * Returns a handler that folds the rows of the query into {@code list}, as top-level records.
+   */
+  RowCallbackHandler folder(final List<MapTree> list){
+    final Map<Object, Node> index = new HashMap<>();
+    final Binding binding = new Binding(this);
+    return new RowCallbackHandler(){
+      private int rowNum;
+      public void processRow(ResultSet rs) throws SQLException {
+        if(rowNum == 0){
+          binding.resolve(rs);
+        }
+        binding.fold(rs, rowNum++, index, list);
+      }
+    };
+  }
+
+  /**
+   * The declaration of a level, as it is built up by {@link SqlSelector#groupBy(String)},
+   * {@link SqlSelector#nest(String, String)} and {@link SqlSelector#endNest()}.
+   */
+  static class Level {
+    final Level parent;
+    final String path;
+    final String idKey;
+    final List<Level> children = new ArrayList<>();
+    List<Mapping> mappings;
+
+    Level(Level parent, String path, String idKey, List<Mapping> mappings){
+      this.parent = parent;
+      this.path = path;
+      this.idKey = idKey;
+      this.mappings = mappings;
+    }
+  }
+
+  /**
+   * A record already seen, with the indexes and lists of its children at each child level.
+   */
+  private static class Node {
+    final List<Map<Object, Node>> childIndexes;
+    final List<List<MapTree>> childLists;
+
+    Node(int childLevels){
+      childIndexes = new ArrayList<>(childLevels);
+      childLists = new ArrayList<>(childLevels);
+    }
+  }
+
+  /**
+   * A Collapse bound to the columns of one ResultSet.
+   */
+  private static class Binding {
+    final Collapse collapse;
+    final MappingRowMapper rowMapper;
+    final Binding[] children;
+    int idColumn;
+
+    Binding(Collapse collapse){
+      this.collapse = collapse;
+      this.rowMapper = new MappingRowMapper(collapse.plan);
+      this.children = new Binding[collapse.children.length];
+      for(int i = 0; i < children.length; i++){
+        children[i] = new Binding(collapse.children[i]);
+      }
+    }
+
+    void resolve(ResultSet rs) throws SQLException {
+      idColumn = MappingRowMapper.resolveColumns(rs.getMetaData(), new String[]{collapse.idKey})[0];
+      if(idColumn == 0){
+        throw new IllegalArgumentException("The identity column '" + collapse.idKey + "' is not in the results of the query");
+      }
+      for(Binding child : children){
+        child.resolve(rs);
+      }
+    }
+
+    void fold(ResultSet rs, int rowNum, Map<Object, Node> index, List<MapTree> list) throws SQLException {
+      Object id = JdbcUtils.getResultSetValue(rs, idColumn);
+      if(id == null){
+        return;
+      }
+      Node node = index.get(id);
+      if(node == null){
+        MapTree record = rowMapper.mapRow(rs, rowNum);
+        node = new Node(children.length);
+        for(Binding child : children){
+          List<MapTree> childList = new ArrayList<>();
+          if(child.collapse.path.indexOf('.') < 0){
+            record.put(child.collapse.path, childList);
+          }else{
+            record.putByPathUnique(child.collapse.path, childList);
+          }
+          node.childIndexes.add(new HashMap<Object, Node>());
+          node.childLists.add(childList);
+        }
+        index.put(id, node);
+        list.add(record);
+      }
+      for(int i = 0; i < children.length; i++){
+        children[i].fold(rs, rowNum, node.childIndexes.get(i), node.childLists.get(i));
+      }
+    }
+  }
+}
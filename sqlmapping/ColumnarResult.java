@@ -0,0 +1,1186 @@
+package sqlmapping;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import maptree.MapTree;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+/**
+ * The results of a query held column by column, in primitive arrays (See {@link SqlSelector#queryForColumns(String)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Each column is read into the narrowest array that holds it, according to its SQL type: integers up to INTEGER into
+ *   an {@link IntColumn}, BIGINT and whole-number DECIMALs of up to 18 digits into a {@link LongColumn}, floating point
+ *   numbers into a {@link DoubleColumn}, character strings into a {@link StringColumn} (dictionary-encoded unless they
+ *   have many distinct values), and anything else into an {@link ObjectColumn}. Nulls are kept in a BitSet per column,
+ *   and read as 0 from the arrays. Rows are selected with the {@code where} functions of the columns, which return a
+ *   BitSet of the matching rows; BitSets combine with {@link BitSet#and(BitSet)} and {@link BitSet#or(BitSet)}, and the
+ *   aggregates of the columns take one to aggregate the selected rows only (or null for every row). {@link #toRows()}
+ *   turns the results back into the MapTrees that {@link SqlSelector#queryForList(String)} would have returned.
+ * </p>
+ */
+public class ColumnarResult {
+  private final Column[] columns;
+  private final int rowCount;
+  private final MappingPlan plan;
+  private final Map<String, Integer> indexes = new LinkedCaseInsensitiveMap<>();
+  private int[] planColumns;
+
+  ColumnarResult(Column[] columns, int rowCount, MappingPlan plan){
+    this.columns = columns;
+    this.rowCount = rowCount;
+    this.plan = plan;
+    for(int i = 0; i < columns.length; i++){
+      indexes.put(columns[i].getName(), i);
+    }
+  }
+
+  public int getRowCount(){
+    return rowCount;
+  }
+
+  public int getColumnCount(){
+    return columns.length;
+  }
+
+  /**
+   * @return the names of the columns, in the order of the query
+   */
+  public List<String> getColumnNames(){
+    List<String> names = new ArrayList<>(columns.length);
+    for(Column column : columns){
+      names.add(column.getName());
+    }
+    return names;
+  }
+
+  /**
+   * @param index the index of the column (from 0)
+   * @return the column
+   */
+  public Column getColumn(int index){
+    return columns[index];
+  }
+
+  /**
+   * @param name the name of the column (case insensitive)
+   * @return the column
+   * @throws IllegalArgumentException if the query has no such column
+   */
+  public Column getColumn(String name){
+    Integer index = indexes.get(name);
+    if(index == null){
+      throw new IllegalArgumentException("The query has no column '" + name + "'");
+    }
+    return columns[index];
+  }
+
+  /**
+   * Returns an integer column. On empty results, which carry no columns, returns an empty column.
+   */
+  public IntColumn getIntColumn(String name){
+    return column(name, IntColumn.class);
+  }
+
+  /**
+   * Returns a long column. On empty results, which carry no columns, returns an empty column.
+   */
+  public LongColumn getLongColumn(String name){
+    return column(name, LongColumn.class);
+  }
+
+  /**
+   * Returns a floating point column. On empty results, which carry no columns, returns an empty column.
+   */
+  public DoubleColumn getDoubleColumn(String name){
+    return column(name, DoubleColumn.class);
+  }
+
+  /**
+   * Returns a string column. On empty results, which carry no columns, returns an empty column.
+   */
+  public StringColumn getStringColumn(String name){
+    return column(name, StringColumn.class);
+  }
+
+  private <C extends Column> C column(String name, Class<C> type){
+    if(rowCount == 0 && !indexes.containsKey(name)){
+      if(type == IntColumn.class){
+        return type.cast(new IntColumn(name, Types.INTEGER));
+      }else if(type == LongColumn.class){
+        return type.cast(new LongColumn(name, Types.BIGINT));
+      }else if(type == DoubleColumn.class){
+        return type.cast(new DoubleColumn(name, Types.DOUBLE));
+      }
+      return type.cast(new StringColumn(name, Types.VARCHAR));
+    }
+    Column column = getColumn(name);
+    if(!type.isInstance(column)){
+      throw new IllegalArgumentException("The column '" + name + "' is a " + column.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+    }
+    return type.cast(column);
+  }
+
+  /**
+   * Returns the selected rows only.
+   *
+   * @param rows the rows to keep
+   * @return a new ColumnarResult
+   */
+  public ColumnarResult filter(BitSet rows){
+    int count = Column.selected(rows, rowCount).cardinality();
+    Column[] selected = new Column[columns.length];
+    for(int i = 0; i < columns.length; i++){
+      selected[i] = columns[i].select(rows, count);
+    }
+    return new ColumnarResult(selected, count, plan);
+  }
+
+  /**
+   * Returns a row as a MapTree, mapped with the mappings of the SqlSelector (or keyed by column, if it had none).
+   *
+   * @param row the index of the row (from 0)
+   * @return the row
+   */
+  public MapTree getRow(int row){
+    if(row < 0 || row >= rowCount){
+      throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+    }
+    if(plan.isEmpty()){
+      MapTree map = new MapTree();
+      for(Column column : columns){
+        map.put(column.getName(), column.get(row));
+      }
+      return map;
+    }
+    if(planColumns == null){
+      int[] resolved = new int[plan.keys.length];
+      for(int i = 0; i < resolved.length; i++){
+        Integer index = plan.keys[i] == null ? null : indexes.get(plan.keys[i]);
+        resolved[i] = index == null ? -1 : index;
+      }
+      planColumns = resolved;
+    }
+    return plan.map(new ColumnRow(row));
+  }
+
+  /**
+   * Converts every row to a MapTree (See {@link #getRow(int)}).
+   *
+   * @return the rows
+   */
+  public List<MapTree> toRows(){
+    List<MapTree> rows = new ArrayList<>(rowCount);
+    for(int row = 0; row < rowCount; row++){
+      rows.add(getRow(row));
+    }
+    return rows;
+  }
+
+  public String toString(){
+    return "[rows=" + rowCount + ", columns=" + getColumnNames() + "]";
+  }
+
+  /**
+   * A row of the results, looked up by the index of the mapping its values belong to.
+   */
+  private class ColumnRow implements MappingPlan.Row {
+    private final int row;
+    private Map siblings;
+
+    ColumnRow(int row){
+      this.row = row;
+    }
+
+    @Override
+    public Object get(int mapping){
+      int column = planColumns[mapping];
+      return column < 0 ? null : columns[column].get(row);
+    }
+
+    @Override
+    public Map siblings(){
+      if(siblings == null){
+        Map<String, Object> map = new LinkedCaseInsensitiveMap<>(columns.length);
+        for(Column column : columns){
+          map.put(column.getName(), column.get(row));
+        }
+        siblings = map;
+      }
+      return siblings;
+    }
+  }
+
+  /**
+   * A column of the results.
+   */
+  public abstract static class Column {
+    static final int INITIAL_CAPACITY = 1024;
+
+    private final String name;
+    private final int sqlType;
+    BitSet nulls = new BitSet();
+    int size;
+
+    Column(String name, int sqlType){
+      this.name = name;
+      this.sqlType = sqlType;
+    }
+
+    public String getName(){
+      return name;
+    }
+
+    /**
+     * @return the SQL type of the column (See {@link Types})
+     */
+    public int getSqlType(){
+      return sqlType;
+    }
+
+    public int size(){
+      return size;
+    }
+
+    public boolean isNull(int row){
+      return nulls.get(row);
+    }
+
+    public int getNullCount(){
+      return nulls.cardinality();
+    }
+
+    /**
+     * @return the rows where the column is null
+     */
+    public BitSet whereNull(){
+      return (BitSet)nulls.clone();
+    }
+
+    /**
+     * @return the rows where the column isn't null
+     */
+    public BitSet whereNotNull(){
+      return selected(null);
+    }
+
+    /**
+     * Counts the selected rows where the column isn't null.
+     *
+     * @param rows the rows to count, or null for every row
+     * @return the number of rows
+     */
+    public int count(BitSet rows){
+      return selected(rows).cardinality();
+    }
+
+    /**
+     * Returns the value of a row, boxed as {@link JdbcUtils#getResultSetValue(ResultSet, int)} would have returned it.
+     */
+    public abstract Object get(int row);
+
+    /**
+     * Reads the value of the current row of the ResultSet into a new row of the column.
+     */
+    abstract void read(ResultSet rs, int index) throws SQLException;
+
+    /**
+     * Shrinks the arrays of the column to its size, once every row has been read.
+     */
+    abstract void trim();
+
+    /**
+     * Returns a new column with the selected rows only, of which there are {@code count}.
+     */
+    abstract Column select(BitSet rows, int count);
+
+    /**
+     * Returns the selected rows where the column isn't null.
+     */
+    BitSet selected(BitSet rows){
+      BitSet selected = selected(rows, size);
+      selected.andNot(nulls);
+      return selected;
+    }
+
+    /**
+     * Returns a copy of the selected rows, or every row of {@code size} if {@code rows} is null, without the rows beyond.
+     */
+    static BitSet selected(BitSet rows, int size){
+      BitSet selected;
+      if(rows == null){
+        selected = new BitSet(size);
+        selected.set(0, size);
+      }else{
+        selected = (BitSet)rows.clone();
+        if(selected.length() > size){
+          selected.clear(size, selected.length());
+        }
+      }
+      return selected;
+    }
+
+    /**
+     * Returns the capacity to grow an array of {@code capacity} to, to hold one more value.
+     */
+    static int grow(int capacity){
+      return Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+    }
+
+    /**
+     * Copies the null flags of the selected rows into {@code column}.
+     */
+    void selectNulls(BitSet rows, Column column){
+      BitSet selected = selected(rows, size);
+      int target = 0;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        if(nulls.get(row)){
+          column.nulls.set(target);
+        }
+        target++;
+      }
+      column.size = target;
+    }
+  }
+
+  /**
+   * A column of integers, up to INTEGER.
+   */
+  public static final class IntColumn extends Column {
+    int[] values = new int[0];
+
+    IntColumn(String name, int sqlType){
+      super(name, sqlType);
+    }
+
+    /**
+     * @return the value of a row, or 0 if it is null
+     */
+    public int getInt(int row){
+      return values[row];
+    }
+
+    /**
+     * @return the values of the column, with 0 in place of nulls (the array itself, not a copy)
+     */
+    public int[] getValues(){
+      return values;
+    }
+
+    @Override
+    public Object get(int row){
+      return nulls.get(row) ? null : Integer.valueOf(values[row]);
+    }
+
+    /**
+     * @return the rows where the column isn't null and matches {@code predicate}
+     */
+    public BitSet where(IntPredicate predicate){
+      BitSet matches = new BitSet(size);
+      for(int row = 0; row < size; row++){
+        if(!nulls.get(row) && predicate.test(values[row])){
+          matches.set(row);
+        }
+      }
+      return matches;
+    }
+
+    public long sum(){
+      return sum(null);
+    }
+
+    /**
+     * @param rows the rows to add up, or null for every row
+     * @return the sum of the values of the rows (nulls don't count)
+     */
+    public long sum(BitSet rows){
+      long sum = 0;
+      if(rows == null){
+        // Nulls are read as 0, so every row can be added up as it is.
+        for(int row = 0; row < size; row++){
+          sum += values[row];
+        }
+        return sum;
+      }
+      BitSet selected = selected(rows);
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        sum += values[row];
+      }
+      return sum;
+    }
+
+    /**
+     * @param rows the rows to average, or null for every row
+     * @return the average of the values of the rows that aren't null, if there are any
+     */
+    public OptionalDouble average(BitSet rows){
+      int count = count(rows);
+      return count == 0 ? OptionalDouble.empty() : OptionalDouble.of((double)sum(rows) / count);
+    }
+
+    /**
+     * @param rows the rows to look at, or null for every row
+     * @return the smallest value of the rows that aren't null, if there are any
+     */
+    public OptionalInt min(BitSet rows){
+      BitSet selected = selected(rows);
+      if(selected.isEmpty()){
+        return OptionalInt.empty();
+      }
+      int min = Integer.MAX_VALUE;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        min = Math.min(min, values[row]);
+      }
+      return OptionalInt.of(min);
+    }
+
+    /**
+     * @param rows the rows to look at, or null for every row
+     * @return the largest value of the rows that aren't null, if there are any
+     */
+    public OptionalInt max(BitSet rows){
+      BitSet selected = selected(rows);
+      if(selected.isEmpty()){
+        return OptionalInt.empty();
+      }
+      int max = Integer.MIN_VALUE;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        max = Math.max(max, values[row]);
+      }
+      return OptionalInt.of(max);
+    }
+
+    @Override
+    void read(ResultSet rs, int index) throws SQLException {
+      if(size == values.length){
+        values = Arrays.copyOf(values, grow(size));
+      }
+      values[size] = rs.getInt(index);
+      if(rs.wasNull()){
+        nulls.set(size);
+      }
+      size++;
+    }
+
+    @Override
+    void trim(){
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Column select(BitSet rows, int count){
+      IntColumn column = new IntColumn(getName(), getSqlType());
+      column.values = new int[count];
+      BitSet selected = selected(rows, size);
+      int target = 0;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        column.values[target++] = values[row];
+      }
+      selectNulls(rows, column);
+      return column;
+    }
+  }
+
+  /**
+   * A column of longs: BIGINT, and DECIMAL without decimals of up to 18 digits.
+   */
+  public static final class LongColumn extends Column {
+    long[] values = new long[0];
+
+    LongColumn(String name, int sqlType){
+      super(name, sqlType);
+    }
+
+    /**
+     * @return the value of a row, or 0 if it is null
+     */
+    public long getLong(int row){
+      return values[row];
+    }
+
+    /**
+     * @return the values of the column, with 0 in place of nulls (the array itself, not a copy)
+     */
+    public long[] getValues(){
+      return values;
+    }
+
+    @Override
+    public Object get(int row){
+      if(nulls.get(row)){
+        return null;
+      }
+      int type = getSqlType();
+      return type == Types.DECIMAL || type == Types.NUMERIC ? BigDecimal.valueOf(values[row]) : Long.valueOf(values[row]);
+    }
+
+    /**
+     * @return the rows where the column isn't null and matches {@code predicate}
+     */
+    public BitSet where(LongPredicate predicate){
+      BitSet matches = new BitSet(size);
+      for(int row = 0; row < size; row++){
+        if(!nulls.get(row) && predicate.test(values[row])){
+          matches.set(row);
+        }
+      }
+      return matches;
+    }
+
+    public long sum(){
+      return sum(null);
+    }
+
+    /**
+     * @param rows the rows to add up, or null for every row
+     * @return the sum of the values of the rows (nulls don't count)
+     */
+    public long sum(BitSet rows){
+      long sum = 0;
+      if(rows == null){
+        // Nulls are read as 0, so every row can be added up as it is.
+        for(int row = 0; row < size; row++){
+          sum += values[row];
+        }
+        return sum;
+      }
+      BitSet selected = selected(rows);
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        sum += values[row];
+      }
+      return sum;
+    }
+
+    /**
+     * @param rows the rows to average, or null for every row
+     * @return the average of the values of the rows that aren't null, if there are any
+     */
+    public OptionalDouble average(BitSet rows){
+      int count = count(rows);
+      return count == 0 ? OptionalDouble.empty() : OptionalDouble.of((double)sum(rows) / count);
+    }
+
+    /**
+     * @param rows the rows to look at, or null for every row
+     * @return the smallest value of the rows that aren't null, if there are any
+     */
+    public OptionalLong min(BitSet rows){
+      BitSet selected = selected(rows);
+      if(selected.isEmpty()){
+        return OptionalLong.empty();
+      }
+      long min = Long.MAX_VALUE;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        min = Math.min(min, values[row]);
+      }
+      return OptionalLong.of(min);
+    }
+
+    /**
+     * @param rows the rows to look at, or null for every row
+     * @return the largest value of the rows that aren't null, if there are any
+     */
+    public OptionalLong max(BitSet rows){
+      BitSet selected = selected(rows);
+      if(selected.isEmpty()){
+        return OptionalLong.empty();
+      }
+      long max = Long.MIN_VALUE;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        max = Math.max(max, values[row]);
+      }
+      return OptionalLong.of(max);
+    }
+
+    @Override
+    void read(ResultSet rs, int index) throws SQLException {
+      if(size == values.length){
+        values = Arrays.copyOf(values, grow(size));
+      }
+      values[size] = rs.getLong(index);
+      if(rs.wasNull()){
+        nulls.set(size);
+      }
+      size++;
+    }
+
+    @Override
+    void trim(){
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Column select(BitSet rows, int count){
+      LongColumn column = new LongColumn(getName(), getSqlType());
+      column.values = new long[count];
+      BitSet selected = selected(rows, size);
+      int target = 0;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        column.values[target++] = values[row];
+      }
+      selectNulls(rows, column);
+      return column;
+    }
+  }
+
+  /**
+   * A column of floating point numbers: REAL, FLOAT and DOUBLE.
+   */
+  public static final class DoubleColumn extends Column {
+    double[] values = new double[0];
+
+    DoubleColumn(String name, int sqlType){
+      super(name, sqlType);
+    }
+
+    /**
+     * @return the value of a row, or 0 if it is null
+     */
+    public double getDouble(int row){
+      return values[row];
+    }
+
+    /**
+     * @return the values of the column, with 0 in place of nulls (the array itself, not a copy)
+     */
+    public double[] getValues(){
+      return values;
+    }
+
+    @Override
+    public Object get(int row){
+      if(nulls.get(row)){
+        return null;
+      }
+      return getSqlType() == Types.REAL ? (Object)Float.valueOf((float)values[row]) : Double.valueOf(values[row]);
+    }
+
+    /**
+     * @return the rows where the column isn't null and matches {@code predicate}
+     */
+    public BitSet where(DoublePredicate predicate){
+      BitSet matches = new BitSet(size);
+      for(int row = 0; row < size; row++){
+        if(!nulls.get(row) && predicate.test(values[row])){
+          matches.set(row);
+        }
+      }
+      return matches;
+    }
+
+    public double sum(){
+      return sum(null);
+    }
+
+    /**
+     * @param rows the rows to add up, or null for every row
+     * @return the sum of the values of the rows (nulls don't count)
+     */
+    public double sum(BitSet rows){
+      double sum = 0;
+      if(rows == null){
+        // Nulls are read as 0, so every row can be added up as it is.
+        for(int row = 0; row < size; row++){
+          sum += values[row];
+        }
+        return sum;
+      }
+      BitSet selected = selected(rows);
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        sum += values[row];
+      }
+      return sum;
+    }
+
+    /**
+     * @param rows the rows to average, or null for every row
+     * @return the average of the values of the rows that aren't null, if there are any
+     */
+    public OptionalDouble average(BitSet rows){
+      int count = count(rows);
+      return count == 0 ? OptionalDouble.empty() : OptionalDouble.of(sum(rows) / count);
+    }
+
+    /**
+     * @param rows the rows to look at, or null for every row
+     * @return the smallest value of the rows that aren't null, if there are any
+     */
+    public OptionalDouble min(BitSet rows){
+      BitSet selected = selected(rows);
+      if(selected.isEmpty()){
+        return OptionalDouble.empty();
+      }
+      double min = Double.POSITIVE_INFINITY;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        min = Math.min(min, values[row]);
+      }
+      return OptionalDouble.of(min);
+    }
+
+    /**
+     * @param rows the rows to look at, or null for every row
+     * @return the largest value of the rows that aren't null, if there are any
+     */
+    public OptionalDouble max(BitSet rows){
+      BitSet selected = selected(rows);
+      if(selected.isEmpty()){
+        return OptionalDouble.empty();
+      }
+      double max = Double.NEGATIVE_INFINITY;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        max = Math.max(max, values[row]);
+      }
+      return OptionalDouble.of(max);
+    }
+
+    @Override
+    void read(ResultSet rs, int index) throws SQLException {
+      if(size == values.length){
+        values = Arrays.copyOf(values, grow(size));
+      }
+      values[size] = rs.getDouble(index);
+      if(rs.wasNull()){
+        nulls.set(size);
+      }
+      size++;
+    }
+
+    @Override
+    void trim(){
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Column select(BitSet rows, int count){
+      DoubleColumn column = new DoubleColumn(getName(), getSqlType());
+      column.values = new double[count];
+      BitSet selected = selected(rows, size);
+      int target = 0;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        column.values[target++] = values[row];
+      }
+      selectNulls(rows, column);
+      return column;
+    }
+  }
+
+  /**
+   * A column of character strings, dictionary-encoded: every distinct string is held once, in the dictionary, and each row
+   * holds the code of its string (its index in the dictionary), or -1 for null. Suits columns with few distinct values,
+   * such as categories, statuses or country codes.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Once a column has more than {@link #DICTIONARY_LIMIT} distinct strings, the dictionary would cost more than it
+   *   saves, so the column goes on holding the string of each row instead (See {@link #isDictionaryEncoded()}).
+   * </p>
+   */
+  public static final class StringColumn extends Column {
+    /**
+     * The number of distinct strings beyond which a column isn't dictionary-encoded.
+     */
+    public static final int DICTIONARY_LIMIT = 4096;
+
+    int[] codes = new int[0];
+    List<String> dictionary = new ArrayList<>();
+    // Only while the rows are read; dropped by trim().
+    Map<String, Integer> index = new HashMap<>();
+    // The strings of the rows, once the column isn't dictionary-encoded.
+    String[] values;
+
+    StringColumn(String name, int sqlType){
+      super(name, sqlType);
+    }
+
+    public String getString(int row){
+      if(values != null){
+        return values[row];
+      }
+      int code = codes[row];
+      return code < 0 ? null : dictionary.get(code);
+    }
+
+    /**
+     * @return whether the column holds codes into a dictionary, rather than a string for each row
+     */
+    public boolean isDictionaryEncoded(){
+      return values == null;
+    }
+
+    /**
+     * @return the code of the string of a row, or -1 if it is null
+     * @throws IllegalStateException if the column isn't dictionary-encoded
+     */
+    public int getCode(int row){
+      return requireCodes()[row];
+    }
+
+    /**
+     * @return the codes of the column, with -1 in place of nulls (the array itself, not a copy)
+     * @throws IllegalStateException if the column isn't dictionary-encoded
+     */
+    public int[] getCodes(){
+      return requireCodes();
+    }
+
+    /**
+     * @return the distinct strings of the column, by code
+     * @throws IllegalStateException if the column isn't dictionary-encoded
+     */
+    public List<String> getDictionary(){
+      requireCodes();
+      return Collections.unmodifiableList(dictionary);
+    }
+
+    @Override
+    public Object get(int row){
+      return getString(row);
+    }
+
+    /**
+     * @return the rows whose string equals {@code value}
+     */
+    public BitSet whereEquals(String value){
+      BitSet matches = new BitSet(size);
+      if(value == null){
+        return matches;
+      }
+      if(values != null){
+        for(int row = 0; row < size; row++){
+          if(value.equals(values[row])){
+            matches.set(row);
+          }
+        }
+        return matches;
+      }
+      // The dictionary is no longer than the column, so looking the value up in it costs less than the scan below.
+      int wanted = dictionary.indexOf(value);
+      if(wanted < 0){
+        return matches;
+      }
+      for(int row = 0; row < size; row++){
+        if(codes[row] == wanted){
+          matches.set(row);
+        }
+      }
+      return matches;
+    }
+
+    /**
+     * Returns the rows whose string matches {@code predicate}, which is only tested once for every distinct string of a
+     * dictionary-encoded column.
+     *
+     * @return the rows where the column isn't null and matches {@code predicate}
+     */
+    public BitSet where(Predicate<String> predicate){
+      BitSet matches = new BitSet(size);
+      if(values != null){
+        for(int row = 0; row < size; row++){
+          if(values[row] != null && predicate.test(values[row])){
+            matches.set(row);
+          }
+        }
+        return matches;
+      }
+      boolean[] matching = new boolean[dictionary.size()];
+      for(int code = 0; code < matching.length; code++){
+        matching[code] = predicate.test(dictionary.get(code));
+      }
+      for(int row = 0; row < size; row++){
+        int code = codes[row];
+        if(code >= 0 && matching[code]){
+          matches.set(row);
+        }
+      }
+      return matches;
+    }
+
+    /**
+     * Counts the selected rows by string, like {@code select value, count(*) ... group by value}.
+     *
+     * @param rows the rows to count, or null for every row
+     * @return the number of rows of every string that occurs in them (nulls don't count), in the order the strings first
+     *         occur in the column
+     */
+    public Map<String, Integer> countByValue(BitSet rows){
+      if(values != null){
+        Map<String, Integer> countsByValue = new LinkedHashMap<>();
+        BitSet selected = selected(rows);
+        for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+          Integer count = countsByValue.get(values[row]);
+          countsByValue.put(values[row], count == null ? 1 : count + 1);
+        }
+        return countsByValue;
+      }
+      int[] counts = new int[dictionary.size()];
+      if(rows == null){
+        for(int row = 0; row < size; row++){
+          if(codes[row] >= 0){
+            counts[codes[row]]++;
+          }
+        }
+      }else{
+        BitSet selected = selected(rows);
+        for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+          counts[codes[row]]++;
+        }
+      }
+      Map<String, Integer> countsByValue = new LinkedHashMap<>();
+      for(int code = 0; code < counts.length; code++){
+        if(counts[code] > 0){
+          countsByValue.put(dictionary.get(code), counts[code]);
+        }
+      }
+      return countsByValue;
+    }
+
+    @Override
+    void read(ResultSet rs, int column) throws SQLException {
+      String value = rs.getString(column);
+      Integer code = null;
+      if(values == null && value != null){
+        code = index.get(value);
+        if(code == null && dictionary.size() == DICTIONARY_LIMIT){
+          decode();
+        }
+      }
+      if(values != null){
+        if(size == values.length){
+          values = Arrays.copyOf(values, grow(size));
+        }
+        values[size] = value;
+      }else{
+        if(size == codes.length){
+          codes = Arrays.copyOf(codes, grow(size));
+        }
+        if(value != null && code == null){
+          code = dictionary.size();
+          dictionary.add(value);
+          index.put(value, code);
+        }
+        codes[size] = value == null ? -1 : code;
+      }
+      if(value == null){
+        nulls.set(size);
+      }
+      size++;
+    }
+
+    /**
+     * Replaces the codes with the strings they stand for, and drops the dictionary.
+     */
+    private void decode(){
+      values = new String[codes.length];
+      for(int row = 0; row < size; row++){
+        values[row] = codes[row] < 0 ? null : dictionary.get(codes[row]);
+      }
+      codes = null;
+      dictionary = null;
+      index = null;
+    }
+
+    private int[] requireCodes(){
+      if(values != null){
+        throw new IllegalStateException("The column '" + getName() + "' has more than " + DICTIONARY_LIMIT + " distinct strings, so it isn't dictionary-encoded");
+      }
+      return codes;
+    }
+
+    @Override
+    void trim(){
+      if(values != null){
+        values = Arrays.copyOf(values, size);
+        return;
+      }
+      codes = Arrays.copyOf(codes, size);
+      ((ArrayList<String>)dictionary).trimToSize();
+      index = null;
+    }
+
+    @Override
+    Column select(BitSet rows, int count){
+      StringColumn column = new StringColumn(getName(), getSqlType());
+      column.index = null;
+      BitSet selected = selected(rows, size);
+      int target = 0;
+      if(values != null){
+        column.codes = null;
+        column.dictionary = null;
+        column.values = new String[count];
+        for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+          column.values[target++] = values[row];
+        }
+      }else{
+        // The dictionary is shared, so it may hold strings that no selected row uses.
+        column.dictionary = dictionary;
+        column.codes = new int[count];
+        for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+          column.codes[target++] = codes[row];
+        }
+      }
+      selectNulls(rows, column);
+      return column;
+    }
+  }
+
+  /**
+   * A column of any other type (dates, decimals, binary data...), held as objects.
+   */
+  public static final class ObjectColumn extends Column {
+    Object[] values = new Object[0];
+
+    ObjectColumn(String name, int sqlType){
+      super(name, sqlType);
+    }
+
+    /**
+     * @return the values of the column, by row (an unmodifiable view)
+     */
+    public List<Object> getValues(){
+      return new AbstractList<Object>(){
+        public Object get(int row){
+          return values[row];
+        }
+        public int size(){
+          return size;
+        }
+      };
+    }
+
+    @Override
+    public Object get(int row){
+      return values[row];
+    }
+
+    @Override
+    void read(ResultSet rs, int index) throws SQLException {
+      if(size == values.length){
+        values = Arrays.copyOf(values, grow(size));
+      }
+      Object value = JdbcUtils.getResultSetValue(rs, index);
+      values[size] = value;
+      if(value == null){
+        nulls.set(size);
+      }
+      size++;
+    }
+
+    @Override
+    void trim(){
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Column select(BitSet rows, int count){
+      ObjectColumn column = new ObjectColumn(getName(), getSqlType());
+      column.values = new Object[count];
+      BitSet selected = selected(rows, size);
+      int target = 0;
+      for(int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)){
+        column.values[target++] = values[row];
+      }
+      selectNulls(rows, column);
+      return column;
+    }
+  }
+
+  /**
+   * Reads the rows of a query into columns.
+   */
+  static class Reader implements RowCallbackHandler {
+    private final MappingPlan plan;
+    private Column[] columns;
+    private int rowCount;
+
+    Reader(MappingPlan plan){
+      this.plan = plan;
+    }
+
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+      if(columns == null){
+        ResultSetMetaData metaData = rs.getMetaData();
+        columns = new Column[metaData.getColumnCount()];
+        for(int i = 0; i < columns.length; i++){
+          columns[i] = column(metaData, i + 1);
+        }
+      }
+      for(int i = 0; i < columns.length; i++){
+        columns[i].read(rs, i + 1);
+      }
+      rowCount++;
+    }
+
+    /**
+     * Returns the results, once every row has been read.
+     */
+    ColumnarResult result(){
+      if(columns == null){
+        return new ColumnarResult(new Column[]{}, 0, plan);
+      }
+      for(Column column : columns){
+        column.trim();
+      }
+      return new ColumnarResult(columns, rowCount, plan);
+    }
+
+    /**
+     * Creates the column that holds a column of the ResultSet, according to its type.
+     */
+    static Column column(ResultSetMetaData metaData, int index) throws SQLException {
+      String name = JdbcUtils.lookupColumnName(metaData, index);
+      int type = metaData.getColumnType(index);
+      switch(type){
+        case Types.TINYINT:
+        case Types.SMALLINT:
+          return new IntColumn(name, type);
+        case Types.INTEGER:
+          return metaData.isSigned(index) ? new IntColumn(name, type) : new LongColumn(name, type);
+        case Types.BIGINT:
+          return metaData.isSigned(index) ? new LongColumn(name, type) : new ObjectColumn(name, type);
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+          int precision = metaData.getPrecision(index);
+          if(metaData.getScale(index) == 0 && precision > 0 && precision <= 18){
+            return new LongColumn(name, type);
+          }
+          return new ObjectColumn(name, type);
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+          return new DoubleColumn(name, type);
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+          return new StringColumn(name, type);
+        default:
+          return new ObjectColumn(name, type);
+      }
+    }
+  }
+}
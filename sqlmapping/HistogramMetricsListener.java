@@ -0,0 +1,170 @@
+package sqlmapping;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps latency histograms, in memory, of the operations reported to it (See {@link SqlMetricsListener}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Events are grouped by operation and SQL fingerprint. Each group counts its operations, failures and rows, and keeps a
+ *   histogram of its total, execute, fetch, mapping and join times. The histograms have one bucket per power of two
+ *   nanoseconds, so recording is a few atomic increments and a percentile is accurate to within a factor of two, which is
+ *   plenty to tell a 2 ms query from a 200 ms one.
+ * </p>
+ */
+public class HistogramMetricsListener implements SqlMetricsListener {
+  private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+  @Override
+  public void onEvent(SqlEvent event){
+    String key = event.getOperation() + " " + event.getFingerprint();
+    Stats group = stats.get(key);
+    if(group == null){
+      Stats created = new Stats(event.getOperation(), event.getFingerprint());
+      group = stats.putIfAbsent(key, created);
+      if(group == null){
+        group = created;
+      }
+    }
+    group.record(event);
+  }
+
+  /**
+   * Returns the statistics of every group seen so far, keyed by operation and fingerprint (separated by a space).
+   *
+   * @return a live, unmodifiable view of the statistics
+   */
+  public Map<String, Stats> getStats(){
+    return Collections.unmodifiableMap(stats);
+  }
+
+  /**
+   * Discards all the statistics.
+   */
+  public void reset(){
+    stats.clear();
+  }
+
+  /**
+   * The times kept by a histogram of {@link Stats}.
+   */
+  public enum Phase { TOTAL, EXECUTE, FETCH, MAPPING, JOIN }
+
+  /**
+   * The statistics of the operations of one group.
+   */
+  public static class Stats {
+    private final String operation;
+    private final String fingerprint;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final Histogram[] histograms = new Histogram[Phase.values().length];
+
+    Stats(String operation, String fingerprint){
+      this.operation = operation;
+      this.fingerprint = fingerprint;
+      for(int i = 0; i < histograms.length; i++){
+        histograms[i] = new Histogram();
+      }
+    }
+
+    void record(SqlEvent event){
+      count.increment();
+      if(event.getFailure() != null){
+        failures.increment();
+      }
+      rows.add(event.getRows());
+      histograms[Phase.TOTAL.ordinal()].record(event.getTotalNanos());
+      histograms[Phase.EXECUTE.ordinal()].record(event.getExecuteNanos());
+      histograms[Phase.FETCH.ordinal()].record(event.getFetchNanos());
+      histograms[Phase.MAPPING.ordinal()].record(event.getMappingNanos());
+      histograms[Phase.JOIN.ordinal()].record(event.getJoinNanos());
+    }
+
+    public String getOperation(){
+      return operation;
+    }
+
+    public String getFingerprint(){
+      return fingerprint;
+    }
+
+    public long getCount(){
+      return count.sum();
+    }
+
+    public long getFailures(){
+      return failures.sum();
+    }
+
+    public long getRows(){
+      return rows.sum();
+    }
+
+    /**
+     * @param phase the time to look at
+     * @return the sum of that time over every operation, in nanoseconds
+     */
+    public long getTotalNanos(Phase phase){
+      return histograms[phase.ordinal()].sum.sum();
+    }
+
+    /**
+     * Estimates a percentile of one of the times.
+     *
+     * @param phase the time to look at
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound, in nanoseconds, of the bucket the percentile falls in (0 if nothing was recorded)
+     */
+    public long getPercentileNanos(Phase phase, double percentile){
+      return histograms[phase.ordinal()].percentile(percentile);
+    }
+
+    public String toString(){
+      return "["+operation+", "+fingerprint+", count="+getCount()+", failures="+getFailures()+", rows="+getRows()
+        +", p50="+getPercentileNanos(Phase.TOTAL, 50)+", p99="+getPercentileNanos(Phase.TOTAL, 99)+"]";
+    }
+  }
+
+  /**
+   * A histogram with one bucket per power of two: bucket {@code b} counts the values below {@code 2^b} (and not below
+   * {@code 2^(b-1)}).
+   */
+  static class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder sum = new LongAdder();
+
+    void record(long nanos){
+      long value = Math.max(0, nanos);
+      buckets.incrementAndGet(Math.min(63, 64 - Long.numberOfLeadingZeros(value)));
+      sum.add(value);
+    }
+
+    long percentile(double percentile){
+      long total = 0;
+      long[] counts = new long[buckets.length()];
+      for(int b = 0; b < counts.length; b++){
+        counts[b] = buckets.get(b);
+        total += counts[b];
+      }
+      if(total == 0){
+        return 0;
+      }
+      long rank = (long)Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+      long seen = 0;
+      for(int b = 0; b < counts.length; b++){
+        seen += counts[b];
+        if(seen >= Math.max(1, rank)){
+          return b == 0 ? 0 : b == 63 ? Long.MAX_VALUE : (1L << b) - 1;
+        }
+      }
+      return Long.MAX_VALUE;
+    }
+  }
+}
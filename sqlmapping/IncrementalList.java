@@ -0,0 +1,148 @@
+package sqlmapping;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import maptree.MapTree;
+
+/**
+ * Keeps a list of a SqlSelector up to date from the rows that changed since it was loaded (See
+ * {@link SqlSelector#incremental(String, String, String)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Holds the watermark of the list (the largest value of its watermark key) and an index of its rows by identity key, both
+ *   built from the list on the first refresh. A changed row whose identity is in the index is merged into the row that is
+ *   already there with {@link Map#putAll(Map)}, so the row stays the same object, in the same place, and keeps anything
+ *   joined into it; a row with a new identity is added at the end of the list; a tombstoned row is removed. The cost of a
+ *   refresh is proportional to the rows that changed, except that removing rows takes a pass over the list.
+ * </p>
+ */
+class IncrementalList {
+  final String watermarkKey;
+  final String identityKey;
+  final String tombstoneKey;
+  final MappingPlan plan;
+  // The query that loaded the list, run again to refresh it while it has no watermark.
+  final String sql;
+  private Object watermark;
+  private Map<Object, MapTree> index;
+  private List<MapTree> changed = new ArrayList<>();
+
+  IncrementalList(String watermarkKey, String identityKey, String tombstoneKey, MappingPlan plan, String sql){
+    this.watermarkKey = watermarkKey;
+    this.identityKey = identityKey;
+    this.tombstoneKey = tombstoneKey;
+    this.plan = plan;
+    this.sql = sql;
+  }
+
+  /**
+   * Returns the watermark of the list, indexing it first if it hasn't been yet.
+   */
+  Object watermark(List<MapTree> list){
+    if(index == null){
+      index = new HashMap<>(Math.max(16, list.size() * 4 / 3 + 1));
+      for(MapTree row : list){
+        Object identity = row.get(identityKey);
+        if(identity != null){
+          index.put(identity, row);
+        }
+        advance(row);
+      }
+    }
+    return watermark;
+  }
+
+  /**
+   * Merges the rows that changed into the list.
+   */
+  void merge(List<MapTree> list, List<MapTree> delta){
+    watermark(list);
+    Map<Object, MapTree> changedRows = new LinkedHashMap<>();
+    final Set<MapTree> removed = Collections.newSetFromMap(new IdentityHashMap<MapTree, Boolean>());
+    for(MapTree row : delta){
+      advance(row);
+      Object identity = row.get(identityKey);
+      if(identity == null){
+        throw new IllegalStateException("A changed row has no identity ('" + identityKey + "'): " + row);
+      }
+      MapTree existing = index.get(identity);
+      if(isTombstone(row)){
+        if(existing != null){
+          index.remove(identity);
+          removed.add(existing);
+          changedRows.remove(identity);
+        }
+      }else if(existing != null){
+        existing.putAll(row);
+        changedRows.put(identity, existing);
+      }else{
+        index.put(identity, row);
+        list.add(row);
+        changedRows.put(identity, row);
+      }
+    }
+    if(!removed.isEmpty()){
+      list.removeIf(new Predicate<MapTree>(){
+        public boolean test(MapTree row){
+          return removed.contains(row);
+        }
+      });
+    }
+    changed = new ArrayList<>(changedRows.values());
+  }
+
+  /**
+   * Returns the rows added or updated by the last refresh.
+   */
+  List<MapTree> changed(){
+    return changed;
+  }
+
+  private void advance(MapTree row){
+    Object value = row.get(watermarkKey);
+    if(value != null && (watermark == null || compare(value, watermark) > 0)){
+      watermark = value;
+    }
+  }
+
+  /**
+   * Returns whether a row marks a deletion: its tombstone is set, and isn't false or 0.
+   */
+  private boolean isTombstone(MapTree row){
+    if(tombstoneKey == null){
+      return false;
+    }
+    Object value = row.get(tombstoneKey);
+    if(value == null || Boolean.FALSE.equals(value)){
+      return false;
+    }
+    if(value instanceof Number){
+      return new BigDecimal(value.toString()).signum() != 0;
+    }
+    return !"N".equalsIgnoreCase(value.toString()) && !"false".equalsIgnoreCase(value.toString());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Object a, Object b){
+    if(a instanceof Number && b instanceof Number && a.getClass() != b.getClass()){
+      return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+    }
+    if(a instanceof java.util.Date && b instanceof java.util.Date){
+      // Timestamps and Dates don't compare with each other directly.
+      int byTime = Long.compare(((java.util.Date)a).getTime(), ((java.util.Date)b).getTime());
+      if(byTime != 0 || !(a instanceof java.sql.Timestamp) || !(b instanceof java.sql.Timestamp)){
+        return byTime;
+      }
+    }
+    return ((Comparable)a).compareTo(b);
+  }
+}
@@ -0,0 +1,79 @@
+package sqlmapping;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits a Java Flight Recorder event for every operation reported to it (See {@link SqlMetricsListener}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   The events are named {@code sqlmapping.Sql} and only cost anything while a recording has them enabled, so the
+ *   listener can stay registered in production. Needs Java 11 or later.
+ * </p>
+ */
+public class JfrMetricsListener implements SqlMetricsListener {
+  @Override
+  public void onEvent(SqlEvent event){
+    SqlJfrEvent jfr = new SqlJfrEvent();
+    if(!jfr.isEnabled()){
+      return;
+    }
+    jfr.operation = event.getOperation();
+    jfr.fingerprint = event.getFingerprint();
+    jfr.paramCount = event.getParamCount();
+    jfr.rows = event.getRows();
+    jfr.totalTime = event.getTotalNanos();
+    jfr.executeTime = event.getExecuteNanos();
+    jfr.fetchTime = event.getFetchNanos();
+    jfr.mappingTime = event.getMappingNanos();
+    jfr.joinTime = event.getJoinNanos();
+    jfr.failure = event.getFailure() == null ? null : event.getFailure().toString();
+    jfr.commit();
+  }
+
+  @Name("sqlmapping.Sql")
+  @Label("SQL Operation")
+  @Category("sqlmapping")
+  @Description("An operation of a SqlSelector or SqlUpdater")
+  static class SqlJfrEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("SQL Fingerprint")
+    String fingerprint;
+
+    @Label("Parameters")
+    int paramCount;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Total Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long totalTime;
+
+    @Label("Execute Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long executeTime;
+
+    @Label("Fetch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long fetchTime;
+
+    @Label("Mapping Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long mappingTime;
+
+    @Label("Join Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long joinTime;
+
+    @Label("Failure")
+    String failure;
+  }
+}
@@ -0,0 +1,189 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import maptree.MapTree;
+
+/**
+ * Joins child records onto parent records according to a list of {@link JoinMapping}s.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   For every parent and every mapping (in that order) the children whose key matches the parent's key are appended, in
+ *   child order, to the list at the mapping's child path. By default this is done with a hash join: the child records are
+ *   indexed once per distinct set of child keys and the index is probed once per parent. When both sides are known to be
+ *   ordered by the join key a sort-merge join can be used instead, which needs no index at all; if the data turns out not to
+ *   be ordered the hash join is used.
+ * </p>
+ */
+class JoinEngine {
+  private JoinEngine(){}
+
+  static void join(List<MapTree> parents, List<MapTree> children, List<JoinMapping> joinMappings, boolean sortMerge){
+    if(joinMappings == null || joinMappings.isEmpty()){
+      return;
+    }
+    if(sortMerge && mergeJoin(parents, children, joinMappings)){
+      return;
+    }
+    hashJoin(parents, children, joinMappings);
+  }
+
+  static void hashJoin(List<MapTree> parents, List<MapTree> children, List<JoinMapping> joinMappings){
+    Map<String, Map<Object, List<MapTree>>> indexesBySignature = new HashMap<>();
+    List<Map<Object, List<MapTree>>> indexes = new ArrayList<>(joinMappings.size());
+    for(JoinMapping mapping : joinMappings){
+      Map<Object, List<MapTree>> index = indexesBySignature.get(mapping.childSignature());
+      if(index == null){
+        index = index(children, mapping);
+        indexesBySignature.put(mapping.childSignature(), index);
+      }
+      indexes.add(index);
+    }
+    for(MapTree parent : parents){
+      for(int i = 0; i < joinMappings.size(); i++){
+        JoinMapping mapping = joinMappings.get(i);
+        List childList = mapping.childList(parent);
+        Object parentKey = mapping.parentKey(parent);
+        if(parentKey != null){
+          List<MapTree> matches = indexes.get(i).get(parentKey);
+          if(matches != null){
+            childList.addAll(matches);
+          }
+        }
+      }
+    }
+  }
+
+  static Map<Object, List<MapTree>> index(List<MapTree> children, JoinMapping mapping){
+    Map<Object, List<MapTree>> index = new HashMap<>();
+    for(MapTree child : children){
+      Object childKey = mapping.childKey(child);
+      if(childKey == null){
+        continue;
+      }
+      List<MapTree> matches = index.get(childKey);
+      if(matches == null){
+        matches = new ArrayList<>(1);
+        index.put(childKey, matches);
+      }
+      matches.add(child);
+    }
+    return index;
+  }
+
+  /**
+   * Performs a sort-merge join, or returns false without touching the parents if either side isn't ordered by the join key.
+   */
+  static boolean mergeJoin(List<MapTree> parents, List<MapTree> children, List<JoinMapping> joinMappings){
+    List<Object[]> parentKeys = new ArrayList<>(joinMappings.size());
+    List<Object[]> childKeys = new ArrayList<>(joinMappings.size());
+    for(JoinMapping mapping : joinMappings){
+      Object[] pKeys = new Object[parents.size()];
+      for(int i = 0; i < pKeys.length; i++){
+        pKeys[i] = mapping.parentKey(parents.get(i));
+      }
+      Object[] cKeys = new Object[children.size()];
+      for(int i = 0; i < cKeys.length; i++){
+        cKeys[i] = mapping.childKey(children.get(i));
+      }
+      if(!isOrdered(pKeys, cKeys)){
+        return false;
+      }
+      parentKeys.add(pKeys);
+      childKeys.add(cKeys);
+    }
+    for(int m = 0; m < joinMappings.size(); m++){
+      JoinMapping mapping = joinMappings.get(m);
+      Object[] pKeys = parentKeys.get(m);
+      Object[] cKeys = childKeys.get(m);
+      int c = 0;
+      for(int p = 0; p < pKeys.length; p++){
+        List childList = mapping.childList(parents.get(p));
+        Object parentKey = pKeys[p];
+        if(parentKey == null){
+          continue;
+        }
+        while(c < cKeys.length && (cKeys[c] == null || compare(cKeys[c], parentKey) < 0)){
+          c++;
+        }
+        // Don't move c past the run of matches; the next parent may have the same key.
+        for(int r = c; r < cKeys.length && (cKeys[r] == null || compare(cKeys[r], parentKey) == 0); r++){
+          if(cKeys[r] != null && cKeys[r].equals(parentKey)){
+            childList.add(children.get(r));
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isOrdered(Object[] parentKeys, Object[] childKeys){
+    Object sample = null;
+    for(Object[] keys : new Object[][]{parentKeys, childKeys}){
+      Object previous = null;
+      for(Object key : keys){
+        if(key == null){
+          continue;
+        }
+        if(sample == null){
+          if(!isComparable(key)){
+            return false;
+          }
+          sample = key;
+        }else if(!sameTypes(sample, key)){
+          return false;
+        }
+        if(previous != null && compare(previous, key) > 0){
+          return false;
+        }
+        previous = key;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isComparable(Object key){
+    if(key instanceof List){
+      for(Object part : (List)key){
+        if(!(part instanceof Comparable)){
+          return false;
+        }
+      }
+      return true;
+    }
+    return key instanceof Comparable;
+  }
+
+  private static boolean sameTypes(Object a, Object b){
+    if(a instanceof List && b instanceof List){
+      List aParts = (List)a;
+      List bParts = (List)b;
+      for(int i = 0; i < aParts.size(); i++){
+        if(aParts.get(i).getClass() != bParts.get(i).getClass()){
+          return false;
+        }
+      }
+      return true;
+    }
+    return a.getClass() == b.getClass();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Object a, Object b){
+    if(a instanceof List){
+      List aParts = (List)a;
+      List bParts = (List)b;
+      for(int i = 0; i < aParts.size(); i++){
+        int result = ((Comparable)aParts.get(i)).compareTo(bParts.get(i));
+        if(result != 0){
+          return result;
+        }
+      }
+      return 0;
+    }
+    return ((Comparable)a).compareTo(b);
+  }
+}
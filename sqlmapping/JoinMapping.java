@@ -0,0 +1,89 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes how child data is matched with parent data when joining (See {@link SqlSelector#on(String, String, String)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   A join mapping matches a parent and a child when every parent key equals its corresponding child key. A mapping created
+ *   with a single pair of keys behaves exactly like a plain {@code equals} comparison; a mapping created with several pairs
+ *   of keys matches on the composite key.
+ * </p>
+ */
+class JoinMapping {
+  final String[] parentKeys;
+  final String[] childKeys;
+  final String childPath;
+
+  JoinMapping(String parentKey, String childKey, String childPath){
+    this(new String[]{parentKey}, new String[]{childKey}, childPath);
+  }
+
+  JoinMapping(String[] parentKeys, String[] childKeys, String childPath){
+    if(parentKeys.length == 0 || parentKeys.length != childKeys.length){
+      throw new IllegalArgumentException("A join mapping needs the same (non-zero) number of parent and child keys");
+    }
+    this.parentKeys = parentKeys.clone();
+    this.childKeys = childKeys.clone();
+    this.childPath = childPath;
+  }
+
+  /**
+   * Returns the join key of a parent record, or null if any part of it is null (nulls never match).
+   */
+  Object parentKey(Map parent){
+    return key(parent, parentKeys);
+  }
+
+  /**
+   * Returns the join key of a child record, or null if any part of it is null (nulls never match).
+   */
+  Object childKey(Map child){
+    return key(child, childKeys);
+  }
+
+  /**
+   * Identifies the child side of this mapping, so that mappings which share child keys can share a hash index.
+   */
+  String childSignature(){
+    return Arrays.toString(childKeys);
+  }
+
+  /**
+   * Finds the list at {@link #childPath} in the parent, putting a new one in place if there isn't one yet.
+   */
+  List childList(Map parent){
+    Object childList = parent.get(childPath);
+    if(childList == null || !(childList instanceof List)){
+      childList = new ArrayList<>();
+      parent.put(childPath, childList);
+    }
+    return (List)childList;
+  }
+
+  private static Object key(Map record, String[] keys){
+    if(keys.length == 1){
+      return record.get(keys[0]);
+    }
+    Object[] values = new Object[keys.length];
+    for(int i = 0; i < keys.length; i++){
+      values[i] = record.get(keys[i]);
+      if(values[i] == null){
+        return null;
+      }
+    }
+    return Arrays.asList(values);
+  }
+
+  public String toString(){
+    if(parentKeys.length == 1){
+      return "["+parentKeys[0]+", "+childKeys[0]+", "+childPath+"]";
+    }
+    return "["+Arrays.toString(parentKeys)+", "+Arrays.toString(childKeys)+", "+childPath+"]";
+  }
+}
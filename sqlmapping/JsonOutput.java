@@ -0,0 +1,70 @@
+package sqlmapping;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the sections of a SqlSelector (See {@link SqlSelector#writeJsonTo(Writer)}) as one JSON object, section by section.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Each section is written as soon as it is queried, under its path: the objects for the segments of the path are opened
+ *   (and the ones left open by the previous section but not shared with this one are closed) as needed. Because nothing is
+ *   kept in memory, sections that share a parent path must be written one after the other; a parent path that is closed and
+ *   then opened again is written twice.
+ * </p>
+ */
+class JsonOutput {
+  private final JsonWriter json;
+  private final List<String> open = new ArrayList<>();
+  private boolean started;
+
+  JsonOutput(Writer writer){
+    this.json = new JsonWriter(writer);
+  }
+
+  /**
+   * Writes the name of the section at {@code path}, returning the JsonWriter to write the section's value with.
+   */
+  JsonWriter section(String path) throws IOException {
+    start();
+    List<String> segments = Arrays.asList(path.split("\\."));
+    List<String> parents = segments.subList(0, segments.size() - 1);
+    int shared = 0;
+    while(shared < open.size() && shared < parents.size() && open.get(shared).equals(parents.get(shared))){
+      shared++;
+    }
+    while(open.size() > shared){
+      open.remove(open.size() - 1);
+      json.endObject();
+    }
+    for(int i = shared; i < parents.size(); i++){
+      json.name(parents.get(i)).beginObject();
+      open.add(parents.get(i));
+    }
+    return json.name(segments.get(segments.size() - 1));
+  }
+
+  /**
+   * Closes every open object, including the document itself, and flushes the Writer.
+   */
+  void finish() throws IOException {
+    start();
+    while(!open.isEmpty()){
+      open.remove(open.size() - 1);
+      json.endObject();
+    }
+    json.endObject();
+    json.flush();
+  }
+
+  private void start() throws IOException {
+    if(!started){
+      json.beginObject();
+      started = true;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package sqlmapping;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Writes JSON to a Writer as it goes, without building a document in memory.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Keeps track of nesting so that commas and colons are put in the right places; callers only say what comes next.
+ *   Values are written as follows: null as null, Booleans as booleans, finite Numbers as numbers (NaN and infinities as
+ *   null), Dates as milliseconds since the epoch, Maps as objects, Collections and arrays as arrays, and anything else as
+ *   the string of its {@code toString()}.
+ * </p>
+ */
+class JsonWriter {
+  private static final String[] ESCAPES = new String[128];
+  static {
+    for(int c = 0; c < 0x20; c++){
+      ESCAPES[c] = String.format("\\u%04x", c);
+    }
+    ESCAPES['"'] = "\\\"";
+    ESCAPES['\\'] = "\\\\";
+    ESCAPES['\b'] = "\\b";
+    ESCAPES['\f'] = "\\f";
+    ESCAPES['\n'] = "\\n";
+    ESCAPES['\r'] = "\\r";
+    ESCAPES['\t'] = "\\t";
+  }
+
+  private final Writer out;
+  // One entry per open object or array: whether something has been written in it yet.
+  private boolean[] started = new boolean[16];
+  private int depth;
+  private boolean afterName;
+
+  JsonWriter(Writer out){
+    this.out = out;
+  }
+
+  int depth(){
+    return depth;
+  }
+
+  JsonWriter beginObject() throws IOException {
+    beforeValue();
+    out.write('{');
+    push();
+    return this;
+  }
+
+  JsonWriter endObject() throws IOException {
+    depth--;
+    out.write('}');
+    return this;
+  }
+
+  JsonWriter beginArray() throws IOException {
+    beforeValue();
+    out.write('[');
+    push();
+    return this;
+  }
+
+  JsonWriter endArray() throws IOException {
+    depth--;
+    out.write(']');
+    return this;
+  }
+
+  JsonWriter name(String name) throws IOException {
+    beforeValue();
+    string(name);
+    out.write(':');
+    afterName = true;
+    return this;
+  }
+
+  JsonWriter value(Object value) throws IOException {
+    if(value instanceof Map){
+      beginObject();
+      for(Object entry : ((Map)value).entrySet()){
+        Map.Entry e = (Map.Entry)entry;
+        name(String.valueOf(e.getKey()));
+        value(e.getValue());
+      }
+      return endObject();
+    }
+    if(value instanceof Collection){
+      beginArray();
+      for(Object item : (Collection)value){
+        value(item);
+      }
+      return endArray();
+    }
+    if(value instanceof Object[]){
+      beginArray();
+      for(Object item : (Object[])value){
+        value(item);
+      }
+      return endArray();
+    }
+    beforeValue();
+    if(value == null){
+      out.write("null");
+    }else if(value instanceof Boolean){
+      out.write(value.toString());
+    }else if(value instanceof Number){
+      number((Number)value);
+    }else if(value instanceof Date){
+      out.write(Long.toString(((Date)value).getTime()));
+    }else{
+      string(value.toString());
+    }
+    return this;
+  }
+
+  /**
+   * Writes the elements of a JSON array written by another JsonWriter into the current array, as they are.
+   */
+  JsonWriter elements(String array) throws IOException {
+    if(array.length() > 2){
+      beforeValue();
+      out.write(array, 1, array.length() - 2);
+    }
+    return this;
+  }
+
+  void flush() throws IOException {
+    out.flush();
+  }
+
+  private void number(Number number) throws IOException {
+    if(number instanceof Double || number instanceof Float){
+      double d = number.doubleValue();
+      if(Double.isNaN(d) || Double.isInfinite(d)){
+        out.write("null");
+        return;
+      }
+    }
+    out.write(number.toString());
+  }
+
+  private void string(String s) throws IOException {
+    out.write('"');
+    int last = 0;
+    for(int i = 0; i < s.length(); i++){
+      char c = s.charAt(i);
+      String escape = null;
+      if(c < 128){
+        escape = ESCAPES[c];
+      }else if(c == '\u2028' || c == '\u2029'){
+        escape = c == '\u2028' ? "\\u2028" : "\\u2029";
+      }
+      if(escape != null){
+        out.write(s, last, i - last);
+        out.write(escape);
+        last = i + 1;
+      }
+    }
+    out.write(s, last, s.length() - last);
+    out.write('"');
+  }
+
+  private void beforeValue() throws IOException {
+    if(afterName){
+      afterName = false;
+      return;
+    }
+    if(depth > 0){
+      if(started[depth - 1]){
+        out.write(',');
+      }
+      started[depth - 1] = true;
+    }
+  }
+
+  private void push(){
+    if(depth == started.length){
+      boolean[] grown = new boolean[depth * 2];
+      System.arraycopy(started, 0, grown, 0, depth);
+      started = grown;
+    }
+    started[depth++] = false;
+  }
+}
@@ -0,0 +1,281 @@
+package sqlmapping;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import maptree.MapTree;
+import sqlmapping.SqlExecutor.Mapping;
+
+/**
+ * An immutable, compiled form of a list of {@link Mapping}s.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Compiling splits every dotted path into its segments once and works out the shape of the tree the mappings produce
+ *   (which nested MapTrees exist, which mapping first needs each of them, and where each value goes). Mapping a row is then
+ *   a straight walk over arrays: no path is parsed and no node is looked up by name. Paths the plan can't describe safely
+ *   (indexed segments, or a value and a nested MapTree at the same path) are mapped with {@link MapTree#putByPathUnique},
+ *   exactly as before.
+ * </p>
+ */
+final class MappingPlan {
+  static final MappingPlan EMPTY = compile(new ArrayList<Mapping>());
+
+  final String[] keys;
+  final String[] paths;
+  final Transformer[] transformers;
+  final boolean needsSiblings;
+  private final boolean[] siblingsNeeded;
+
+  private final boolean fallback;
+  private final int nodeCount;
+  private final String[] nodeNames;
+  private final int[] nodeParents;
+  private final int[][] createdNodes;
+  private final int[] leafNodes;
+  private final String[] leafNames;
+  // For each node, its entries in insertion order: a mapping index (the last mapping to put a value there) or -node.
+  private final String[][] entryNames;
+  private final int[][] entries;
+
+  private MappingPlan(String[] keys, String[] paths, Transformer[] transformers, boolean fallback, int nodeCount, String[] nodeNames, int[] nodeParents, int[][] createdNodes, int[] leafNodes, String[] leafNames){
+    this.keys = keys;
+    this.paths = paths;
+    this.transformers = transformers;
+    this.siblingsNeeded = new boolean[transformers.length];
+    boolean needsSiblings = false;
+    for(int i = 0; i < transformers.length; i++){
+      siblingsNeeded[i] = transformers[i] != null && transformers[i].needsSiblings();
+      needsSiblings = needsSiblings || siblingsNeeded[i];
+    }
+    this.needsSiblings = needsSiblings;
+    this.fallback = fallback;
+    this.nodeCount = nodeCount;
+    this.nodeNames = nodeNames;
+    this.nodeParents = nodeParents;
+    this.createdNodes = createdNodes;
+    this.leafNodes = leafNodes;
+    this.leafNames = leafNames;
+    this.entryNames = new String[nodeCount][];
+    this.entries = new int[nodeCount][];
+    if(!fallback){
+      List<Map<String, Integer>> nodeEntries = new ArrayList<>();
+      for(int n = 0; n < nodeCount; n++){
+        nodeEntries.add(new LinkedHashMap<String, Integer>());
+      }
+      for(int i = 0; i < keys.length; i++){
+        for(int node : createdNodes[i]){
+          nodeEntries.get(nodeParents[node]).put(nodeNames[node], -node);
+        }
+        nodeEntries.get(leafNodes[i]).put(leafNames[i], i);
+      }
+      for(int n = 0; n < nodeCount; n++){
+        entryNames[n] = nodeEntries.get(n).keySet().toArray(new String[]{});
+        entries[n] = new int[entryNames[n].length];
+        int e = 0;
+        for(Integer entry : nodeEntries.get(n).values()){
+          entries[n][e++] = entry;
+        }
+      }
+    }
+  }
+
+  static MappingPlan compile(List<Mapping> mappings){
+    int size = mappings == null ? 0 : mappings.size();
+    String[] keys = new String[size];
+    String[] paths = new String[size];
+    Transformer[] transformers = new Transformer[size];
+    int[][] createdNodes = new int[size][];
+    int[] leafNodes = new int[size];
+    String[] leafNames = new String[size];
+
+    // Node 0 is the root; every other node is a nested MapTree identified by its full path.
+    Map<String, Integer> nodesByPath = new HashMap<>();
+    List<String> nodeNames = new ArrayList<>();
+    List<Integer> nodeParents = new ArrayList<>();
+    nodeNames.add(null);
+    nodeParents.add(-1);
+    Set<String> leafPaths = new HashSet<>();
+    boolean fallback = false;
+
+    for(int i = 0; i < size; i++){
+      Mapping mapping = mappings.get(i);
+      keys[i] = mapping.key;
+      paths[i] = mapping.path;
+      transformers[i] = mapping.transformer;
+      if(fallback){
+        continue;
+      }
+      if(mapping.path == null || mapping.path.isEmpty() || mapping.path.indexOf('[') >= 0){
+        fallback = true;
+        continue;
+      }
+      String[] segments = mapping.path.split("\\.", -1);
+      List<Integer> created = new ArrayList<>();
+      int node = 0;
+      StringBuilder nodePath = new StringBuilder();
+      for(int s = 0; s < segments.length - 1; s++){
+        if(segments[s].isEmpty()){
+          fallback = true;
+          break;
+        }
+        if(s > 0){
+          nodePath.append('.');
+        }
+        nodePath.append(segments[s]);
+        Integer child = nodesByPath.get(nodePath.toString());
+        if(child == null){
+          child = nodeNames.size();
+          nodesByPath.put(nodePath.toString(), child);
+          nodeNames.add(segments[s]);
+          nodeParents.add(node);
+          created.add(child);
+        }
+        node = child;
+      }
+      if(fallback || segments[segments.length - 1].isEmpty()){
+        fallback = true;
+        continue;
+      }
+      createdNodes[i] = new int[created.size()];
+      for(int c = 0; c < created.size(); c++){
+        createdNodes[i][c] = created.get(c);
+      }
+      leafNodes[i] = node;
+      leafNames[i] = segments[segments.length - 1];
+      leafPaths.add(mapping.path);
+    }
+    for(String leafPath : leafPaths){
+      if(nodesByPath.containsKey(leafPath)){
+        fallback = true;
+      }
+    }
+    return new MappingPlan(
+      keys,
+      paths,
+      transformers,
+      fallback,
+      nodeNames.size(),
+      nodeNames.toArray(new String[]{}),
+      toIntArray(nodeParents),
+      createdNodes,
+      leafNodes,
+      leafNames
+    );
+  }
+
+  int size(){
+    return keys.length;
+  }
+
+  boolean isEmpty(){
+    return keys.length == 0;
+  }
+
+  /**
+   * Maps a row (keyed by column) to a new MapTree.
+   */
+  MapTree map(final Map row){
+    return map(new Row(){
+      public Object get(int mapping){
+        return row.get(keys[mapping]);
+      }
+      public Map siblings(){
+        return row;
+      }
+    });
+  }
+
+  /**
+   * Maps a row to a new MapTree.
+   */
+  MapTree map(Row row){
+    MapTree map = new MapTree();
+    if(fallback){
+      for(int i = 0; i < keys.length; i++){
+        map.putByPathUnique(paths[i], value(i, row));
+      }
+      return map;
+    }
+    MapTree[] nodes = null;
+    if(nodeCount > 1){
+      nodes = new MapTree[nodeCount];
+      nodes[0] = map;
+    }
+    for(int i = 0; i < keys.length; i++){
+      for(int node : createdNodes[i]){
+        MapTree child = new MapTree();
+        nodes[nodeParents[node]].put(nodeNames[node], child);
+        nodes[node] = child;
+      }
+      MapTree target = leafNodes[i] == 0 ? map : nodes[leafNodes[i]];
+      target.put(leafNames[i], value(i, row));
+    }
+    return map;
+  }
+
+  /**
+   * Writes a row as a JSON object, shaped exactly like the MapTree {@link #map(Row)} would produce, without building it.
+   */
+  void writeJson(Row row, JsonWriter out) throws IOException {
+    if(fallback){
+      out.value(map(row));
+      return;
+    }
+    Object[] values = new Object[keys.length];
+    for(int i = 0; i < keys.length; i++){
+      values[i] = value(i, row);
+    }
+    writeNode(0, values, out);
+  }
+
+  private void writeNode(int node, Object[] values, JsonWriter out) throws IOException {
+    out.beginObject();
+    for(int e = 0; e < entries[node].length; e++){
+      out.name(entryNames[node][e]);
+      if(entries[node][e] >= 0){
+        out.value(values[entries[node][e]]);
+      }else{
+        writeNode(-entries[node][e], values, out);
+      }
+    }
+    out.endObject();
+  }
+
+  private Object value(int i, Row row){
+    Object value = row.get(i);
+    if(transformers[i] != null){
+      value = transformers[i].transform(value, siblingsNeeded[i] ? row.siblings() : Collections.emptyMap());
+    }
+    return value;
+  }
+
+  /**
+   * The values of a row, looked up by the index of the mapping they belong to.
+   */
+  interface Row {
+    /**
+     * Returns the (untransformed) value of the column of the mapping at the given index.
+     */
+    Object get(int mapping);
+
+    /**
+     * Returns the whole row as a Map keyed by column, for transformers that need sibling values.
+     */
+    Map siblings();
+  }
+
+  private static int[] toIntArray(List<Integer> list){
+    int[] array = new int[list.size()];
+    for(int i = 0; i < array.length; i++){
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+}
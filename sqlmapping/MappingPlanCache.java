@@ -0,0 +1,42 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import sqlmapping.SqlExecutor.Mapping;
+
+/**
+ * Caches compiled {@link MappingPlan}s by the mappings they were compiled from.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   SqlSelectors and SqlUpdaters are created per request, but the mappings declared on them are usually the same every
+ *   time, so the plan compiled for one request can be reused by every later one. The cache is cleared if it ever grows past
+ *   {@link #MAX_SIZE} entries, which only happens when mappings are built dynamically.
+ * </p>
+ */
+class MappingPlanCache {
+  static final int MAX_SIZE = 4096;
+
+  private final ConcurrentMap<List<Mapping>, MappingPlan> plans = new ConcurrentHashMap<>();
+
+  MappingPlan get(List<Mapping> mappings){
+    if(mappings == null || mappings.isEmpty()){
+      return MappingPlan.EMPTY;
+    }
+    MappingPlan plan = plans.get(mappings);
+    if(plan == null){
+      List<Mapping> key = new ArrayList<>(mappings);
+      plan = MappingPlan.compile(key);
+      if(plans.size() >= MAX_SIZE){
+        plans.clear();
+      }
+      MappingPlan existing = plans.putIfAbsent(key, plan);
+      if(existing != null){
+        plan = existing;
+      }
+    }
+    return plan;
+  }
+}
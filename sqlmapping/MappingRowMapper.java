@@ -0,0 +1,169 @@
+package sqlmapping;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import maptree.MapTree;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+/**
+ * Maps the rows of a ResultSet straight into MapTrees according to a {@link MappingPlan}.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   On the first row, the key of every mapping is resolved (case-insensitively, the last column winning if a name occurs
+ *   twice, just like the Map built by ColumnMapRowMapper) to a column index using the ResultSetMetaData. Every row is then
+ *   read by index straight into the tree, without building a Map of the row first. A Map of the row is only built, lazily,
+ *   when a transformer that needs its sibling values asks for them. A MappingRowMapper belongs to a single query.
+ * </p>
+ */
+class MappingRowMapper implements RowMapper<MapTree> {
+  private final MappingPlan plan;
+  private int[] columns;
+
+  MappingRowMapper(MappingPlan plan){
+    this.plan = plan;
+  }
+
+  @Override
+  public MapTree mapRow(ResultSet rs, int rowNum) throws SQLException {
+    if(columns == null){
+      columns = resolveColumns(rs.getMetaData(), plan.keys);
+    }
+    try {
+      return plan.map(new ResultSetRow(rs, rowNum, columns));
+    }catch(ResultSetAccessException e){
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Writes the current row of the ResultSet as a JSON object, without building its MapTree.
+   */
+  void writeJson(ResultSet rs, int rowNum, JsonWriter out) throws SQLException, IOException {
+    if(columns == null){
+      columns = resolveColumns(rs.getMetaData(), plan.keys);
+    }
+    try {
+      plan.writeJson(new ResultSetRow(rs, rowNum, columns), out);
+    }catch(ResultSetAccessException e){
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Resolves each key to the index of its column, or 0 if the ResultSet has no such column.
+   */
+  static int[] resolveColumns(ResultSetMetaData metaData, String[] keys) throws SQLException {
+    Map<String, Integer> indexes = new LinkedCaseInsensitiveMap<>();
+    for(int i = 1; i <= metaData.getColumnCount(); i++){
+      indexes.put(JdbcUtils.lookupColumnName(metaData, i), i);
+    }
+    int[] columns = new int[keys.length];
+    for(int i = 0; i < keys.length; i++){
+      Integer index = keys[i] == null ? null : indexes.get(keys[i]);
+      columns[i] = index == null ? 0 : index;
+    }
+    return columns;
+  }
+
+  /**
+   * The current row of a ResultSet, read by column index.
+   */
+  static class ResultSetRow implements MappingPlan.Row {
+    private final ResultSet rs;
+    private final int rowNum;
+    private final int[] columns;
+    private Map siblings;
+
+    ResultSetRow(ResultSet rs, int rowNum, int[] columns){
+      this.rs = rs;
+      this.rowNum = rowNum;
+      this.columns = columns;
+    }
+
+    @Override
+    public Object get(int mapping){
+      if(columns[mapping] == 0){
+        return null;
+      }
+      try {
+        return JdbcUtils.getResultSetValue(rs, columns[mapping]);
+      }catch(SQLException e){
+        throw new ResultSetAccessException(e);
+      }
+    }
+
+    @Override
+    public Map siblings(){
+      if(siblings == null){
+        siblings = new RowView(rs, rowNum);
+      }
+      return siblings;
+    }
+  }
+
+  /**
+   * A Map view of the current row of a ResultSet, which only reads the row when it is first accessed.
+   */
+  static class RowView extends AbstractMap<String, Object> {
+    private final ResultSet rs;
+    private final int rowNum;
+    private Map<String, Object> row;
+
+    RowView(ResultSet rs, int rowNum){
+      this.rs = rs;
+      this.rowNum = rowNum;
+    }
+
+    private Map<String, Object> row(){
+      if(row == null){
+        try {
+          row = new ColumnMapRowMapper().mapRow(rs, rowNum);
+        }catch(SQLException e){
+          throw new ResultSetAccessException(e);
+        }
+      }
+      return row;
+    }
+
+    @Override
+    public Object get(Object key){
+      return row().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key){
+      return row().containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet(){
+      return row().entrySet();
+    }
+  }
+
+  /**
+   * Carries a SQLException out of the Map and Row interfaces, which can't throw it; {@link #mapRow(ResultSet, int)} throws
+   * the SQLException again, so that Spring translates it as usual.
+   */
+  static class ResultSetAccessException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    ResultSetAccessException(SQLException cause){
+      super(cause);
+    }
+
+    @Override
+    public SQLException getCause(){
+      return (SQLException)super.getCause();
+    }
+  }
+}
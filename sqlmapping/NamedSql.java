@@ -0,0 +1,162 @@
+package sqlmapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import org.springframework.jdbc.core.ParameterDisposer;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.SqlParameter;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * A SQL statement with named parameters, parsed once.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Does what NamedParameterJdbcTemplate does internally (substituting the named parameters and binding their values), but
+ *   hands back the PreparedStatementCreator so that the statement itself can be tuned (fetch size and so on) and read row by
+ *   row instead of being collected into a List of Maps.
+ * </p>
+ */
+final class NamedSql {
+  private final String sql;
+  private final ParsedSql parsedSql;
+
+  private NamedSql(String sql, ParsedSql parsedSql){
+    this.sql = sql;
+    this.parsedSql = parsedSql;
+  }
+
+  static NamedSql parse(String sql){
+    return new NamedSql(sql, NamedParameterUtils.parseSqlStatement(sql));
+  }
+
+  String getSql(){
+    return sql;
+  }
+
+  /**
+   * Creates a PreparedStatementCreator for the statement with the given parameters bound.
+   *
+   * @param params the values of the named parameters
+   * @param fetchSize the JDBC fetch size hint, or 0 to leave the driver's default in place
+   */
+  PreparedStatementCreator creator(SqlParameterSource params, int fetchSize){
+    return creator(params, fetchSize, null);
+  }
+
+  /**
+   * Creates a PreparedStatementCreator for the statement with the given parameters bound, which stops returning rows after
+   * {@code maxRows}.
+   *
+   * @param params the values of the named parameters
+   * @param fetchSize the JDBC fetch size hint, or 0 to leave the driver's default in place
+   * @param maxRows the maximum number of rows, or 0 for no limit
+   */
+  PreparedStatementCreator creator(SqlParameterSource params, int fetchSize, int maxRows){
+    Creator creator = (Creator)creator(params, fetchSize, null);
+    creator.maxRows = maxRows;
+    return creator;
+  }
+
+  /**
+   * Creates a PreparedStatementCreator for the statement with the given parameters bound, which returns the given
+   * auto-generated keys.
+   *
+   * @param params the values of the named parameters
+   * @param fetchSize the JDBC fetch size hint, or 0 to leave the driver's default in place
+   * @param keyNames the names of the auto-generated keys to return, or null
+   */
+  PreparedStatementCreator creator(SqlParameterSource params, int fetchSize, String[] keyNames){
+    String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsedSql, params);
+    Object[] values = NamedParameterUtils.buildValueArray(parsedSql, params, null);
+    List<SqlParameter> declaredParameters = NamedParameterUtils.buildSqlParameterList(parsedSql, params);
+    PreparedStatementCreatorFactory creatorFactory = new PreparedStatementCreatorFactory(sqlToUse, declaredParameters);
+    if(keyNames != null){
+      creatorFactory.setGeneratedKeysColumnNames(keyNames);
+    }
+    return new Creator(creatorFactory.newPreparedStatementCreator(values), sqlToUse, fetchSize);
+  }
+
+  /**
+   * Creates a Binder for running the statement as a batch, substituting the named parameters once (using the parameters of
+   * the first row of the batch).
+   */
+  Binder binder(SqlParameterSource firstParams){
+    String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsedSql, firstParams);
+    List<SqlParameter> declaredParameters = NamedParameterUtils.buildSqlParameterList(parsedSql, firstParams);
+    return new Binder(sqlToUse, new PreparedStatementCreatorFactory(sqlToUse, declaredParameters));
+  }
+
+  /**
+   * Binds the parameters of one row after another to the same PreparedStatement.
+   */
+  final class Binder {
+    private final String sql;
+    private final PreparedStatementCreatorFactory creatorFactory;
+
+    private Binder(String sql, PreparedStatementCreatorFactory creatorFactory){
+      this.sql = sql;
+      this.creatorFactory = creatorFactory;
+    }
+
+    String getSql(){
+      return sql;
+    }
+
+    void bind(PreparedStatement ps, SqlParameterSource params) throws SQLException {
+      Object[] values = NamedParameterUtils.buildValueArray(parsedSql, params, null);
+      creatorFactory.newPreparedStatementSetter(values).setValues(ps);
+    }
+  }
+
+  private static class Creator implements PreparedStatementCreator, SqlProvider, ParameterDisposer {
+    private final PreparedStatementCreator delegate;
+    private final String sql;
+    private final int fetchSize;
+    private int maxRows;
+
+    Creator(PreparedStatementCreator delegate, String sql, int fetchSize){
+      this.delegate = delegate;
+      this.sql = sql;
+      this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+      PreparedStatement ps = delegate.createPreparedStatement(con);
+      if(fetchSize != 0){
+        ps.setFetchSize(fetchSize);
+      }
+      if(maxRows != 0){
+        ps.setMaxRows(maxRows);
+      }
+      try {
+        StatementCanceller.register(ps);
+      }catch(SQLException e){
+        JdbcUtils.closeStatement(ps);
+        throw e;
+      }
+      return ps;
+    }
+
+    @Override
+    public String getSql(){
+      return sql;
+    }
+
+    @Override
+    public void cleanupParameters(){
+      StatementCanceller.unregister();
+      if(delegate instanceof ParameterDisposer){
+        ((ParameterDisposer)delegate).cleanupParameters();
+      }
+    }
+  }
+}
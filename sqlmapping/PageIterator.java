@@ -0,0 +1,173 @@
+package sqlmapping;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import maptree.MapTree;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+/**
+ * Iterates over the results of a query one page at a time, using keyset pagination (See
+ * {@link SqlSelector#queryForPages(String, int, String...)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Every page is a separate query that starts right after the last row of the page before it: the query is wrapped as
+ *   {@code select * from (sql) keyset_page where <keys greater than the last keys> order by <keys>}, with the comparison of
+ *   composite keys spelled out as {@code (k1 > :k1) or (k1 = :k1 and k2 > :k2) ...} so that every database can use an index
+ *   on the keys. Unlike OFFSET, a page costs the same however far into the results it is. As soon as a page is handed out,
+ *   the next one is fetched in the background (on the executor of the factory, if the SqlSelector has one), so the
+ *   database works while the caller processes the page. Close the iterator if it isn't read to the end, to drop the page
+ *   being prefetched.
+ * </p>
+ */
+public class PageIterator implements Iterator<List<MapTree>>, AutoCloseable {
+  static final String PARAM_PREFIX = "keyset_last_";
+
+  private final SqlSelector selector;
+  private final NamedSql firstSql;
+  private final NamedSql nextSql;
+  private final MapSqlParameterSource params;
+  private final MappingPlan plan;
+  private final String[] keys;
+  private final int pageSize;
+  private final boolean prefetch;
+  private CompletableFuture<Page> pending;
+  private Page page;
+  private Object[] lastKeys;
+  private boolean done;
+
+  PageIterator(SqlSelector selector, String sql, MapSqlParameterSource params, MappingPlan plan, String[] keys, int pageSize, boolean prefetch){
+    if(keys == null || keys.length == 0){
+      throw new IllegalArgumentException("Keyset pagination needs at least one key column");
+    }
+    if(pageSize <= 0){
+      throw new IllegalArgumentException("The page size must be positive");
+    }
+    this.selector = selector;
+    this.firstSql = NamedSql.parse(wrap(sql, keys, false));
+    this.nextSql = NamedSql.parse(wrap(sql, keys, true));
+    this.params = params;
+    this.plan = plan;
+    this.keys = keys.clone();
+    this.pageSize = pageSize;
+    this.prefetch = prefetch;
+  }
+
+  /**
+   * Wraps the query so that it returns the rows after the last keys (if {@code after}), ordered by the keys.
+   */
+  static String wrap(String sql, String[] keys, boolean after){
+    StringBuilder wrapped = new StringBuilder("select * from (").append(sql).append(") keyset_page");
+    if(after){
+      wrapped.append(" where ");
+      for(int k = 0; k < keys.length; k++){
+        if(k > 0){
+          wrapped.append(" or ");
+        }
+        wrapped.append('(');
+        for(int e = 0; e < k; e++){
+          wrapped.append(keys[e]).append(" = :").append(PARAM_PREFIX).append(e).append(" and ");
+        }
+        wrapped.append(keys[k]).append(" > :").append(PARAM_PREFIX).append(k).append(')');
+      }
+    }
+    wrapped.append(" order by ");
+    for(int k = 0; k < keys.length; k++){
+      wrapped.append(k > 0 ? ", " : "").append(keys[k]);
+    }
+    return wrapped.toString();
+  }
+
+  @Override
+  public boolean hasNext(){
+    if(page != null){
+      return true;
+    }
+    if(done){
+      return false;
+    }
+    Page fetched = pending == null ? fetch(lastKeys) : await(pending);
+    pending = null;
+    if(fetched.rows.isEmpty()){
+      done = true;
+      return false;
+    }
+    lastKeys = fetched.lastKeys;
+    if(fetched.rows.size() < pageSize){
+      done = true;
+    }else if(prefetch){
+      pending = start(lastKeys);
+    }
+    page = fetched;
+    return true;
+  }
+
+  @Override
+  public List<MapTree> next(){
+    if(!hasNext()){
+      throw new NoSuchElementException();
+    }
+    Page next = page;
+    page = null;
+    return next.rows;
+  }
+
+  /**
+   * Stops iterating and cancels the page being prefetched, if any.
+   */
+  @Override
+  public void close(){
+    done = true;
+    page = null;
+    if(pending != null){
+      pending.cancel(true);
+      pending = null;
+    }
+  }
+
+  private CompletableFuture<Page> start(final Object[] lastKeys){
+    return selector.async(new Supplier<Page>(){
+      public Page get(){
+        return fetch(lastKeys);
+      }
+    });
+  }
+
+  private Page fetch(Object[] lastKeys){
+    MapSqlParameterSource pageParams = SqlExecutor.copyParams(params);
+    if(lastKeys != null){
+      for(int k = 0; k < keys.length; k++){
+        pageParams.addValue(PARAM_PREFIX + k, lastKeys[k]);
+      }
+    }
+    return selector.queryForPage(lastKeys == null ? firstSql : nextSql, pageParams, plan, keys, pageSize);
+  }
+
+  private static Page await(CompletableFuture<Page> future){
+    try {
+      return future.join();
+    }catch(CompletionException e){
+      if(e.getCause() instanceof RuntimeException){
+        throw (RuntimeException)e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * The rows of one page, and the keys of its last row.
+   */
+  static class Page {
+    final List<MapTree> rows;
+    final Object[] lastKeys;
+
+    Page(List<MapTree> rows, Object[] lastKeys){
+      this.rows = rows;
+      this.lastKeys = lastKeys;
+    }
+  }
+}
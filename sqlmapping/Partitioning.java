@@ -0,0 +1,185 @@
+package sqlmapping;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+/**
+ * Splits a query into ranges of a partition column, to be run concurrently (See
+ * {@link SqlSelector#partitioned(String, int)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Every range is the query wrapped as {@code select * from (sql) partition_range where <column in the range>}. Given
+ *   boundaries {@code b1 < b2 < ... < bk}, the ranges are {@code column < b1}, {@code b1 <= column < b2}, ...,
+ *   {@code column >= bk} and {@code column is null}, so every row falls in exactly one of them whatever the boundaries are,
+ *   even if rows change after the boundaries were chosen. Without explicit boundaries, they are spread evenly between the
+ *   smallest and largest values of the column, found with one {@code min}/{@code max} query; numbers and dates (Dates and
+ *   LocalDates) can be split that way.
+ * </p>
+ */
+final class Partitioning {
+  static final String LOW_PARAM = "partition_low";
+  static final String HIGH_PARAM = "partition_high";
+  private static final String ALIAS = "partition_range";
+
+  final String column;
+  final int parallelism;
+  final List<Object> boundaries;
+  final boolean ordered;
+
+  Partitioning(String column, int parallelism, List<Object> boundaries, boolean ordered){
+    if(parallelism <= 0){
+      throw new IllegalArgumentException("The degree of parallelism must be positive");
+    }
+    this.column = column;
+    this.parallelism = parallelism;
+    this.boundaries = boundaries;
+    this.ordered = ordered;
+  }
+
+  Partitioning unordered(){
+    return new Partitioning(column, parallelism, boundaries, false);
+  }
+
+  /**
+   * Returns the query for the smallest and largest values of the partition column.
+   */
+  String boundsSql(String sql){
+    return "select min(" + ALIAS + "." + column + "), max(" + ALIAS + "." + column + ") from (" + sql + ") " + ALIAS;
+  }
+
+  /**
+   * Returns the ranges of the query between the given boundaries, followed by the range of nulls.
+   */
+  List<Range> ranges(String sql, List<Object> boundaries){
+    String qualified = ALIAS + "." + column;
+    List<Range> ranges = new ArrayList<>(boundaries.size() + 2);
+    for(int i = 0; i <= boundaries.size(); i++){
+      Object low = i == 0 ? null : boundaries.get(i - 1);
+      Object high = i == boundaries.size() ? null : boundaries.get(i);
+      String where;
+      if(low != null && high != null){
+        where = qualified + " >= :" + LOW_PARAM + " and " + qualified + " < :" + HIGH_PARAM;
+      }else if(low != null){
+        where = qualified + " >= :" + LOW_PARAM;
+      }else if(high != null){
+        where = qualified + " < :" + HIGH_PARAM;
+      }else{
+        where = qualified + " is not null";
+      }
+      ranges.add(new Range(NamedSql.parse(wrap(sql, where)), low, high));
+    }
+    ranges.add(new Range(NamedSql.parse(wrap(sql, qualified + " is null")), null, null));
+    return ranges;
+  }
+
+  private static String wrap(String sql, String where){
+    return "select * from (" + sql + ") " + ALIAS + " where " + where;
+  }
+
+  /**
+   * Returns the {@code parts - 1} boundaries that split the values from {@code min} to {@code max} into {@code parts} ranges
+   * of equal width (fewer if whole numbers or days run out), or none if there are no values.
+   */
+  static List<Object> split(Object min, Object max, int parts){
+    if(min == null || max == null){
+      return Collections.emptyList();
+    }
+    List<Object> boundaries = new ArrayList<>(parts);
+    if(min instanceof Date && max instanceof Date){
+      long low = ((Date)min).getTime();
+      long high = ((Date)max).getTime();
+      for(int i = 1; i < parts; i++){
+        add(boundaries, new Timestamp(low + (long)((double)(high - low) * i / parts)), min);
+      }
+    }else if(min instanceof LocalDate && max instanceof LocalDate){
+      long low = ((LocalDate)min).toEpochDay();
+      long high = ((LocalDate)max).toEpochDay();
+      for(int i = 1; i < parts; i++){
+        add(boundaries, LocalDate.ofEpochDay(low + (high - low) * i / parts), min);
+      }
+    }else if(min instanceof Number && max instanceof Number){
+      BigDecimal low = new BigDecimal(min.toString());
+      BigDecimal width = new BigDecimal(max.toString()).subtract(low);
+      boolean whole = isWhole(min) && isWhole(max);
+      for(int i = 1; i < parts; i++){
+        BigDecimal boundary = low.add(width.multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(parts), MathContext.DECIMAL64));
+        if(whole){
+          boundary = boundary.setScale(0, RoundingMode.FLOOR);
+          add(boundaries, boundary.toBigInteger().bitLength() < 64 ? (Object)boundary.longValue() : boundary, min);
+        }else{
+          add(boundaries, boundary, min);
+        }
+      }
+    }else{
+      throw new IllegalArgumentException("Can't split the values of '" + min.getClass().getName() + "' into ranges; give the boundaries instead");
+    }
+    return boundaries;
+  }
+
+  /**
+   * Adds a boundary unless it is no larger than the one before it (or the smallest value), which would make an empty range.
+   */
+  @SuppressWarnings("unchecked")
+  private static void add(List<Object> boundaries, Object boundary, Object min){
+    Object last = boundaries.isEmpty() ? min : boundaries.get(boundaries.size() - 1);
+    if(compare(boundary, last) > 0){
+      boundaries.add(boundary);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Object a, Object b){
+    if(a instanceof Number && b instanceof Number){
+      return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+    }
+    if(a instanceof Date && b instanceof Date){
+      return Long.compare(((Date)a).getTime(), ((Date)b).getTime());
+    }
+    return ((Comparable)a).compareTo(b);
+  }
+
+  private static boolean isWhole(Object number){
+    if(number instanceof BigDecimal){
+      return ((BigDecimal)number).scale() <= 0;
+    }
+    return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte || number instanceof BigInteger;
+  }
+
+  /**
+   * One range of a partitioned query: the wrapped query and the bounds of the range.
+   */
+  static class Range {
+    final NamedSql sql;
+    private final Object low;
+    private final Object high;
+
+    Range(NamedSql sql, Object low, Object high){
+      this.sql = sql;
+      this.low = low;
+      this.high = high;
+    }
+
+    /**
+     * Adds the bounds of the range to the parameters of the query.
+     */
+    MapSqlParameterSource bind(MapSqlParameterSource params){
+      if(low != null){
+        params.addValue(LOW_PARAM, low);
+      }
+      if(high != null){
+        params.addValue(HIGH_PARAM, high);
+      }
+      return params;
+    }
+  }
+}
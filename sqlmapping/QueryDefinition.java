@@ -0,0 +1,195 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import sqlmapping.SqlExecutor.Mapping;
+
+/**
+ * An immutable query: its SQL, mappings, transformers and joins, prepared once and run any number of times, concurrently,
+ * with different parameters (See {@link SqlExecutorFactory#queryForList(QueryDefinition, java.util.Map)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   A SqlSelector is a single-use builder: every request declares its mappings again, and nothing about it can be shared
+ *   between threads. A QueryDefinition is built once (typically into a static final field) with {@link #builder(String)};
+ *   building it parses the named SQL and compiles the mappings, so running it does neither. The transformers given to it
+ *   must be thread-safe, as the built-in ones are.
+ * </p>
+ */
+public final class QueryDefinition {
+  final NamedSql sql;
+  final MappingPlan plan;
+  final int fetchSize;
+  final List<Join> joins;
+  final ResultCache.Policy cachePolicy;
+
+  private QueryDefinition(Builder builder){
+    this.sql = NamedSql.parse(builder.sql);
+    this.plan = builder.mappings.isEmpty() ? MappingPlan.EMPTY : MappingPlan.compile(new ArrayList<>(builder.mappings));
+    this.fetchSize = builder.fetchSize;
+    this.joins = Collections.unmodifiableList(new ArrayList<>(builder.joins));
+    this.cachePolicy = builder.cachePolicy;
+  }
+
+  /**
+   * Starts building a QueryDefinition.
+   *
+   * @param sql the SQL query, with named parameters
+   * @return the builder
+   */
+  public static Builder builder(String sql){
+    return new Builder(sql);
+  }
+
+  /**
+   * @return the SQL query
+   */
+  public String getSql(){
+    return sql.getSql();
+  }
+
+  public String toString(){
+    return "[" + sql.getSql() + ", mappings=" + plan.size() + ", joins=" + joins.size() + "]";
+  }
+
+  /**
+   * A child query joined into the rows of its parent query, and how its rows match theirs.
+   */
+  static class Join {
+    final QueryDefinition child;
+    final List<JoinMapping> mappings;
+    final boolean mergeJoin;
+
+    Join(QueryDefinition child, JoinMapping mapping, boolean mergeJoin){
+      this.child = child;
+      this.mappings = Collections.singletonList(mapping);
+      this.mergeJoin = mergeJoin;
+    }
+  }
+
+  /**
+   * Builds a {@link QueryDefinition}. Its functions mirror those of SqlSelector.
+   */
+  public static class Builder {
+    private final String sql;
+    private final List<Mapping> mappings = new ArrayList<>();
+    private final List<Join> joins = new ArrayList<>();
+    private int fetchSize;
+    private ResultCache.Policy cachePolicy;
+
+    private Builder(String sql){
+      this.sql = sql;
+    }
+
+    /**
+     * See {@link SqlSelector#map(String)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String key){
+      return map(key, key, null);
+    }
+
+    /**
+     * See {@link SqlSelector#map(String, String)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String key, String path){
+      return map(key, path, null);
+    }
+
+    /**
+     * See {@link SqlSelector#map(String, Transformer)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String key, Transformer transformer){
+      return map(key, key, transformer);
+    }
+
+    /**
+     * See {@link SqlSelector#map(String, String, Transformer)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String key, String path, Transformer transformer){
+      mappings.add(new Mapping(path, key, transformer));
+      return this;
+    }
+
+    /**
+     * See {@link SqlSelector#fetchSize(int)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder fetchSize(int fetchSize){
+      this.fetchSize = fetchSize;
+      return this;
+    }
+
+    /**
+     * Joins the rows of {@code child} into the rows of this query (See {@link SqlSelector#joinToListByPath(String, String)}).
+     *
+     * <p>
+     *   <b>Details:</b>
+     *   Every time this query runs, {@code child} runs with the same parameters, and each of its rows is added to the list at
+     *   {@code childPath} of every row of this query whose {@code parentKey} equals the child row's {@code childKey}. The child
+     *   can have joins of its own, which are done first.
+     * </p>
+     * @param child the child query
+     * @param parentKey the key of the parent data to match against
+     * @param childKey the key of the child data to match against
+     * @param childPath the path (relative to the parent) in which to put the joined data
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder join(QueryDefinition child, String parentKey, String childKey, String childPath){
+      joins.add(new Join(child, new JoinMapping(parentKey, childKey, childPath), false));
+      return this;
+    }
+
+    /**
+     * Joins the rows of {@code child} into the rows of this query on a composite key (See
+     * {@link #join(QueryDefinition, String, String, String)} and {@link SqlSelector#on(String[], String[], String)}).
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder join(QueryDefinition child, String[] parentKeys, String[] childKeys, String childPath){
+      joins.add(new Join(child, new JoinMapping(parentKeys, childKeys, childPath), false));
+      return this;
+    }
+
+    /**
+     * Joins the rows of {@code child}, which come back ordered by the join key just like the rows of this query, with a
+     * sort-merge join (See {@link #join(QueryDefinition, String, String, String)} and {@link SqlSelector#mergeJoin()}).
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder mergeJoin(QueryDefinition child, String parentKey, String childKey, String childPath){
+      joins.add(new Join(child, new JoinMapping(parentKey, childKey, childPath), true));
+      return this;
+    }
+
+    /**
+     * Caches the results of this query in the {@link ResultCache} of the factory, for its default time to live (See
+     * {@link SqlSelector#cache(String...)}).
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder cache(String... tags){
+      cachePolicy = new ResultCache.Policy(-1, tags);
+      return this;
+    }
+
+    /**
+     * Caches the results of this query for {@code ttl} (See {@link SqlSelector#cache(long, TimeUnit, String...)}).
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder cache(long ttl, TimeUnit unit, String... tags){
+      cachePolicy = new ResultCache.Policy(Math.max(1, unit.toNanos(ttl)), tags);
+      return this;
+    }
+
+    /**
+     * Parses the SQL, compiles the mappings and returns the QueryDefinition.
+     * @return the QueryDefinition
+     */
+    public QueryDefinition build(){
+      return new QueryDefinition(this);
+    }
+  }
+}
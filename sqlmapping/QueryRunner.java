@@ -0,0 +1,62 @@
+package sqlmapping;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Runs a query and passes each row to a RowCallbackHandler, timing it for a {@link SqlEvent.Recorder} if there is one.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Without a recorder, the query simply goes through {@link JdbcOperations#query(PreparedStatementCreator, RowCallbackHandler)}.
+ *   With one, the ResultSet is walked here instead, so that the time spent in {@code executeQuery}, in {@code next} and in
+ *   the handler can be told apart; the event is delivered once the query is over, whether or not it succeeded.
+ * </p>
+ */
+final class QueryRunner {
+  private QueryRunner(){}
+
+  static void query(JdbcOperations jdbc, PreparedStatementCreator creator, final RowCallbackHandler handler, final SqlEvent.Recorder recorder){
+    if(recorder == null){
+      jdbc.query(creator, handler);
+      return;
+    }
+    try {
+      jdbc.execute(creator, new PreparedStatementCallback<Void>(){
+        public Void doInPreparedStatement(PreparedStatement ps) throws SQLException {
+          long start = System.nanoTime();
+          ResultSet rs = ps.executeQuery();
+          long fetched = System.nanoTime();
+          recorder.executeNanos = fetched - start;
+          try {
+            while(true){
+              boolean next = rs.next();
+              long read = System.nanoTime();
+              recorder.fetchNanos += read - fetched;
+              if(!next){
+                break;
+              }
+              handler.processRow(rs);
+              recorder.rows++;
+              fetched = System.nanoTime();
+              recorder.mappingNanos += fetched - read;
+            }
+          }finally{
+            JdbcUtils.closeResultSet(rs);
+          }
+          return null;
+        }
+      });
+    }catch(RuntimeException e){
+      recorder.finish(e);
+      throw e;
+    }
+    recorder.finish();
+  }
+}
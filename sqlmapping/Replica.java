@@ -0,0 +1,101 @@
+package sqlmapping;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * A read replica of a {@link SqlExecutorFactory} (See {@link SqlExecutorFactory#addReadReplica(String, javax.sql.DataSource)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Keeps the numbers the balancers work with (See {@link ReplicaBalancer}): the queries running on the replica right now,
+ *   and a moving average of the latency of its queries. A replica whose queries fail, for reasons to do with the database
+ *   rather than the query (the connection can't be obtained or breaks, say), {@code ejectAfterFailures} times in a row is
+ *   ejected: no query is routed to it until {@code cooldown} has passed. After that it gets queries again, and the first
+ *   success brings it back for good, while one more failure ejects it again.
+ * </p>
+ */
+public class Replica {
+  // The weight of the latest latency in the moving average.
+  private static final double LATENCY_WEIGHT = 0.2;
+
+  private final String name;
+  final NamedParameterJdbcTemplate template;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private volatile double averageLatencyNanos;
+  private int consecutiveFailures;
+  private volatile long ejectedUntil;
+  private volatile boolean ejected;
+
+  Replica(String name, NamedParameterJdbcTemplate template){
+    this.name = name;
+    this.template = template;
+  }
+
+  public String getName(){
+    return name;
+  }
+
+  /**
+   * @return the number of queries running on this replica right now
+   */
+  public int getOutstanding(){
+    return outstanding.get();
+  }
+
+  /**
+   * @return the moving average of the latency of the queries of this replica, in nanoseconds, or 0 before the first
+   */
+  public double getAverageLatencyNanos(){
+    return averageLatencyNanos;
+  }
+
+  /**
+   * @return whether this replica is ejected right now
+   */
+  public boolean isEjected(){
+    return ejected && System.nanoTime() - ejectedUntil < 0;
+  }
+
+  /**
+   * Runs a query on this replica, keeping track of its outcome.
+   */
+  void query(PreparedStatementCreator creator, RowCallbackHandler handler, SqlEvent.Recorder recorder, int ejectAfterFailures, long cooldownNanos){
+    outstanding.incrementAndGet();
+    long start = System.nanoTime();
+    try {
+      QueryRunner.query(template.getJdbcOperations(), creator, handler, recorder);
+    }catch(RuntimeException e){
+      if(e instanceof DataAccessResourceFailureException || e instanceof TransientDataAccessResourceException){
+        failed(ejectAfterFailures, cooldownNanos);
+      }
+      throw e;
+    }finally{
+      outstanding.decrementAndGet();
+    }
+    succeeded(System.nanoTime() - start);
+  }
+
+  private synchronized void succeeded(long latencyNanos){
+    consecutiveFailures = 0;
+    ejected = false;
+    double average = averageLatencyNanos;
+    averageLatencyNanos = average == 0 ? latencyNanos : average + LATENCY_WEIGHT * (latencyNanos - average);
+  }
+
+  private synchronized void failed(int ejectAfterFailures, long cooldownNanos){
+    consecutiveFailures++;
+    if(ejectAfterFailures > 0 && consecutiveFailures >= ejectAfterFailures){
+      ejectedUntil = System.nanoTime() + cooldownNanos;
+      ejected = true;
+    }
+  }
+
+  public String toString(){
+    return "["+name+", outstanding="+getOutstanding()+", latency="+(long)averageLatencyNanos+(isEjected() ? ", ejected" : "")+"]";
+  }
+}
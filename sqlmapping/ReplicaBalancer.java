@@ -0,0 +1,38 @@
+package sqlmapping;
+
+import java.util.List;
+
+/**
+ * Chooses the read replica that runs a query (See {@link SqlExecutorFactory#setReplicaBalancer(ReplicaBalancer)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Balancers are called concurrently, for every query, so they must be thread-safe and quick. They are only given the
+ *   replicas that aren't ejected, and never an empty list.
+ * </p>
+ */
+public interface ReplicaBalancer {
+  Replica choose(List<Replica> replicas);
+
+  /**
+   * @return a balancer that takes the replicas in turn
+   */
+  static ReplicaBalancer roundRobin(){
+    return new ReplicaBalancers.RoundRobin();
+  }
+
+  /**
+   * @return a balancer that takes the replica running the fewest queries right now (ties are broken at random)
+   */
+  static ReplicaBalancer leastOutstanding(){
+    return new ReplicaBalancers.LeastOutstanding();
+  }
+
+  /**
+   * @return a balancer that takes a replica at random, weighted by the inverse of its average latency, so that a replica
+   *         twice as fast gets twice the queries (replicas without a latency yet count as the fastest)
+   */
+  static ReplicaBalancer latencyWeighted(){
+    return new ReplicaBalancers.LatencyWeighted();
+  }
+}
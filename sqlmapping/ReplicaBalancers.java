@@ -0,0 +1,63 @@
+package sqlmapping;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The built-in {@link ReplicaBalancer}s.
+ */
+final class ReplicaBalancers {
+  private ReplicaBalancers(){}
+
+  static class RoundRobin implements ReplicaBalancer {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public Replica choose(List<Replica> replicas){
+      return replicas.get((next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size());
+    }
+  }
+
+  static class LeastOutstanding implements ReplicaBalancer {
+    @Override
+    public Replica choose(List<Replica> replicas){
+      int offset = ThreadLocalRandom.current().nextInt(replicas.size());
+      Replica best = null;
+      for(int i = 0; i < replicas.size(); i++){
+        Replica replica = replicas.get((offset + i) % replicas.size());
+        if(best == null || replica.getOutstanding() < best.getOutstanding()){
+          best = replica;
+        }
+      }
+      return best;
+    }
+  }
+
+  static class LatencyWeighted implements ReplicaBalancer {
+    @Override
+    public Replica choose(List<Replica> replicas){
+      double fastest = Double.MAX_VALUE;
+      for(Replica replica : replicas){
+        if(replica.getAverageLatencyNanos() > 0){
+          fastest = Math.min(fastest, replica.getAverageLatencyNanos());
+        }
+      }
+      double[] weights = new double[replicas.size()];
+      double total = 0;
+      for(int i = 0; i < weights.length; i++){
+        double latency = replicas.get(i).getAverageLatencyNanos();
+        weights[i] = latency > 0 && fastest != Double.MAX_VALUE ? fastest / latency : 1;
+        total += weights[i];
+      }
+      double pick = ThreadLocalRandom.current().nextDouble(total);
+      for(int i = 0; i < weights.length; i++){
+        pick -= weights[i];
+        if(pick < 0){
+          return replicas.get(i);
+        }
+      }
+      return replicas.get(weights.length - 1);
+    }
+  }
+}
@@ -0,0 +1,338 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import maptree.MapTree;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Caches the results of SqlSelector queries, such as reference data that rarely changes (See {@link SqlSelector#cache(String...)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Results are keyed by the SQL, the values (and SQL types) of the bound parameters, and the mapping plan, so the same query
+ *   with other parameters or other mappings is cached separately. The cache holds at most {@code maxEntries} results and
+ *   evicts the least recently used one to make room; a result also expires once its time to live has passed. Results can
+ *   carry tags, and {@link #invalidate(String...)} drops every result with one of the given tags (See
+ *   {@link SqlUpdater#invalidates(String...)}). Every tag counts its invalidations, so that a result whose query was
+ *   still running when one of its tags was invalidated isn't put back. Results are copied when they are put in the cache
+ *   and again every time they are handed out, so callers can change what they get without corrupting the cache.
+ * </p>
+ * <p>
+ *   Queries run inside a Spring transaction bypass the cache, since they can see the transaction's uncommitted writes,
+ *   and the invalidations of writes inside a transaction take effect once it completes.
+ * </p>
+ */
+public class ResultCache {
+  private final int maxEntries;
+  private final long defaultTtlNanos;
+  private final LinkedHashMap<Key, Entry> entries;
+  private final Map<String, Set<Key>> keysByTag = new HashMap<>();
+  // The number of invalidations of each tag, and of the whole cache.
+  private final Map<String, Long> generations = new HashMap<>();
+  private long generation;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param maxEntries the maximum number of results held
+   * @param defaultTtl how long a result lives when the query doesn't say, or 0 to keep results until they are evicted or
+   *                   invalidated
+   * @param unit the unit of {@code defaultTtl}
+   */
+  public ResultCache(int maxEntries, long defaultTtl, TimeUnit unit){
+    this.maxEntries = Math.max(1, maxEntries);
+    this.defaultTtlNanos = unit.toNanos(defaultTtl);
+    this.entries = new LinkedHashMap<Key, ResultCache.Entry>(16, 0.75f, true){
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, ResultCache.Entry> eldest){
+        if(size() > ResultCache.this.maxEntries){
+          untag(eldest.getKey(), eldest.getValue());
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Drops every result tagged with one of {@code tags}.
+   *
+   * @param tags the tags of the results to drop
+   */
+  public synchronized void invalidate(String... tags){
+    for(String tag : tags){
+      Long count = generations.get(tag);
+      generations.put(tag, count == null ? 1L : count + 1);
+      Set<Key> keys = keysByTag.remove(tag);
+      if(keys == null){
+        continue;
+      }
+      for(Key key : keys){
+        Entry entry = entries.remove(key);
+        if(entry != null){
+          untag(key, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops every result.
+   */
+  public synchronized void invalidateAll(){
+    generation++;
+    entries.clear();
+    keysByTag.clear();
+  }
+
+  public synchronized int size(){
+    return entries.size();
+  }
+
+  public long getHits(){
+    return hits.sum();
+  }
+
+  public long getMisses(){
+    return misses.sum();
+  }
+
+  public long getEvictions(){
+    return evictions.sum();
+  }
+
+  /**
+   * Invalidates {@code tags} (See {@link #invalidate(String...)}) now or, inside a Spring transaction, once it has
+   * completed, so that results can't be cached from the old data between the write and the commit.
+   */
+  void invalidateAfterTransaction(final String... tags){
+    if(TransactionSynchronizationManager.isActualTransactionActive() && TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization(){
+        @Override
+        public void afterCompletion(int status){
+          invalidate(tags);
+        }
+      });
+      return;
+    }
+    invalidate(tags);
+  }
+
+  /**
+   * Returns a number that changes whenever one of {@code tags} (or the whole cache) is invalidated; read it before running
+   * a query and pass it to {@link #put(Key, Object, Policy, long)}.
+   */
+  synchronized long generation(String[] tags){
+    long sum = generation;
+    for(String tag : tags){
+      Long count = generations.get(tag);
+      if(count != null){
+        sum += count;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Returns a copy of the cached result for {@code key}, or null if there is none (or it expired).
+   */
+  Object get(Key key){
+    Object value;
+    synchronized(this){
+      Entry entry = entries.get(key);
+      if(entry != null && entry.expires != 0 && System.nanoTime() - entry.expires >= 0){
+        entries.remove(key);
+        untag(key, entry);
+        entry = null;
+      }
+      if(entry == null){
+        misses.increment();
+        return null;
+      }
+      value = entry.value;
+    }
+    hits.increment();
+    return copy(value);
+  }
+
+  /**
+   * Caches a copy of {@code value} for {@code key}, unless one of its tags was invalidated since {@code generation} was
+   * read (See {@link #generation(String[])}), in which case the value may be stale.
+   */
+  void put(Key key, Object value, Policy policy, long generation){
+    if(value == null){
+      return;
+    }
+    long ttl = policy.ttlNanos < 0 ? defaultTtlNanos : policy.ttlNanos;
+    // An expiry of 0 means none, so a real one is kept odd.
+    long expires = ttl == 0 ? 0 : (System.nanoTime() + ttl) | 1;
+    Entry entry = new Entry(copy(value), expires, policy.tags);
+    synchronized(this){
+      if(generation(entry.tags) != generation){
+        return;
+      }
+      Entry replaced = entries.put(key, entry);
+      if(replaced != null){
+        untag(key, replaced);
+      }
+      for(String tag : entry.tags){
+        Set<Key> keys = keysByTag.get(tag);
+        if(keys == null){
+          keys = new HashSet<>();
+          keysByTag.put(tag, keys);
+        }
+        keys.add(key);
+      }
+    }
+  }
+
+  private void untag(Key key, Entry entry){
+    for(String tag : entry.tags){
+      Set<Key> keys = keysByTag.get(tag);
+      if(keys != null){
+        keys.remove(key);
+        if(keys.isEmpty()){
+          keysByTag.remove(tag);
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies a result deeply: its MapTrees, Maps, Lists and Dates are copied, anything else (Strings, Numbers, ...) is
+   * shared.
+   */
+  @SuppressWarnings("unchecked")
+  static Object copy(Object value){
+    if(value instanceof MapTree){
+      MapTree copy = new MapTree();
+      for(Map.Entry<String, Object> e : ((MapTree)value).entrySet()){
+        copy.put(e.getKey(), copy(e.getValue()));
+      }
+      return copy;
+    }
+    if(value instanceof Map){
+      Map copy = new LinkedHashMap();
+      for(Object entry : ((Map)value).entrySet()){
+        Map.Entry e = (Map.Entry)entry;
+        copy.put(e.getKey(), copy(e.getValue()));
+      }
+      return copy;
+    }
+    if(value instanceof Collection){
+      List copy = new ArrayList(((Collection)value).size());
+      for(Object item : (Collection)value){
+        copy.add(copy(item));
+      }
+      return copy;
+    }
+    if(value instanceof Date){
+      return ((Date)value).clone();
+    }
+    if(value instanceof byte[]){
+      return ((byte[])value).clone();
+    }
+    return value;
+  }
+
+  /**
+   * How a query is cached: for how long, and with which tags.
+   */
+  static class Policy {
+    final long ttlNanos;
+    final String[] tags;
+
+    /**
+     * @param ttlNanos the time to live, or -1 for the default of the cache
+     */
+    Policy(long ttlNanos, String[] tags){
+      this.ttlNanos = ttlNanos;
+      this.tags = tags == null ? new String[]{} : tags.clone();
+    }
+  }
+
+  private static class Entry {
+    final Object value;
+    final long expires;
+    final String[] tags;
+
+    Entry(Object value, long expires, String[] tags){
+      this.value = value;
+      this.expires = expires;
+      this.tags = tags;
+    }
+  }
+
+  /**
+   * Identifies a query: what kind of result it produces, its SQL, its parameters and its mapping plan.
+   */
+  static class Key {
+    private final String kind;
+    private final String sql;
+    private final Map<String, Object> params;
+    private final Object plan;
+    private final int hash;
+
+    Key(String kind, String sql, SqlParameterSource params, Object plan){
+      this.kind = kind;
+      this.sql = sql;
+      this.params = paramsOf(params);
+      this.plan = plan;
+      int hash = kind.hashCode();
+      hash = 31 * hash + sql.hashCode();
+      hash = 31 * hash + this.params.hashCode();
+      this.hash = 31 * hash + System.identityHashCode(plan);
+    }
+
+    private static Map<String, Object> paramsOf(SqlParameterSource source){
+      Map<String, Object> params = new HashMap<>();
+      String[] names = source instanceof MapSqlParameterSource
+        ? ((MapSqlParameterSource)source).getValues().keySet().toArray(new String[]{})
+        : source == null ? new String[]{} : source.getParameterNames();
+      if(names == null){
+        // Parameters that can't be listed can't be compared, so the source itself keys the result.
+        params.put("#source", source);
+        return params;
+      }
+      for(String name : names){
+        Object value = source.getValue(name);
+        params.put(name, value instanceof Object[] ? Arrays.asList((Object[])value) : copy(value));
+        int sqlType = source.getSqlType(name);
+        if(sqlType != SqlParameterSource.TYPE_UNKNOWN){
+          params.put(name + "#type", sqlType);
+        }
+      }
+      return params;
+    }
+
+    @Override
+    public boolean equals(Object obj){
+      if(!(obj instanceof Key)){
+        return false;
+      }
+      Key other = (Key)obj;
+      return hash == other.hash && plan == other.plan && kind.equals(other.kind) && sql.equals(other.sql) && params.equals(other.params);
+    }
+
+    @Override
+    public int hashCode(){
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package sqlmapping;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * The named parameters of one row of a batch: the row's mapped values, overlaid by the global parameters.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   The global parameters (set with {@link SqlUpdater#param(String, Object)}) are shared by every row instead of being
+ *   copied into each row's parameters. As before, a global parameter wins over a mapped value with the same name.
+ * </p>
+ */
+class RowParameterSource implements SqlParameterSource {
+  private final Map<String, Integer> indexes;
+  private final Object[] values;
+  private final MapSqlParameterSource globals;
+
+  RowParameterSource(Map<String, Integer> indexes, Object[] values, MapSqlParameterSource globals){
+    this.indexes = indexes;
+    this.values = values;
+    this.globals = globals;
+  }
+
+  /**
+   * Indexes the parameter names produced by a mapping plan, so that every row can share the index.
+   */
+  static Map<String, Integer> index(MappingPlan plan){
+    Map<String, Integer> indexes = new HashMap<>();
+    for(int i = 0; i < plan.size(); i++){
+      indexes.put(plan.keys[i], i);
+    }
+    return indexes;
+  }
+
+  @Override
+  public boolean hasValue(String paramName){
+    return (globals != null && globals.hasValue(paramName)) || indexes.containsKey(paramName);
+  }
+
+  @Override
+  public Object getValue(String paramName){
+    if(globals != null && globals.hasValue(paramName)){
+      return globals.getValue(paramName);
+    }
+    Integer index = indexes.get(paramName);
+    if(index == null){
+      throw new IllegalArgumentException("No value registered for key '" + paramName + "'");
+    }
+    return values[index];
+  }
+
+  @Override
+  public int getSqlType(String paramName){
+    if(globals != null && globals.hasValue(paramName)){
+      return globals.getSqlType(paramName);
+    }
+    return TYPE_UNKNOWN;
+  }
+
+  @Override
+  public String getTypeName(String paramName){
+    if(globals != null && globals.hasValue(paramName)){
+      return globals.getTypeName(paramName);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,129 @@
+package sqlmapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterDisposer;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * A Stream backed by an open ResultSet.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Each row is read and mapped only when the stream asks for it. The connection (obtained through DataSourceUtils, so an
+ *   enclosing transaction is joined), statement and ResultSet stay open until the stream is closed, so the stream must
+ *   always be closed, ideally with try-with-resources. A {@link SqlEvent.Recorder}, if given, is finished when the stream is
+ *   closed.
+ * </p>
+ */
+final class RowStream<T> extends Spliterators.AbstractSpliterator<T> {
+  private final JdbcTemplate jdbcTemplate;
+  private final String sql;
+  private final RowMapper<T> rowMapper;
+  private final DataSource dataSource;
+  private SqlEvent.Recorder recorder;
+  private RuntimeException failure;
+  private Connection con;
+  private PreparedStatement ps;
+  private ResultSet rs;
+  private int rowNum;
+
+  private RowStream(JdbcTemplate jdbcTemplate, String sql, RowMapper<T> rowMapper){
+    super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+    this.jdbcTemplate = jdbcTemplate;
+    this.sql = sql;
+    this.rowMapper = rowMapper;
+    this.dataSource = jdbcTemplate.getDataSource();
+  }
+
+  static <T> Stream<T> open(JdbcTemplate jdbcTemplate, PreparedStatementCreator creator, RowMapper<T> rowMapper, SqlEvent.Recorder recorder){
+    String sql = creator instanceof SqlProvider ? ((SqlProvider)creator).getSql() : null;
+    RowStream<T> rows = new RowStream<>(jdbcTemplate, sql, rowMapper);
+    rows.recorder = recorder;
+    try {
+      rows.con = DataSourceUtils.getConnection(rows.dataSource);
+      rows.ps = creator.createPreparedStatement(rows.con);
+      long start = recorder == null ? 0 : System.nanoTime();
+      rows.rs = rows.ps.executeQuery();
+      if(recorder != null){
+        recorder.executeNanos = System.nanoTime() - start;
+      }
+    }catch(SQLException e){
+      rows.failure = jdbcTemplate.getExceptionTranslator().translate("RowStream", sql, e);
+      rows.close();
+      throw rows.failure;
+    }catch(RuntimeException e){
+      rows.failure = e;
+      rows.close();
+      throw e;
+    }finally{
+      if(creator instanceof ParameterDisposer){
+        ((ParameterDisposer)creator).cleanupParameters();
+      }
+    }
+    return StreamSupport.stream(rows, false).onClose(rows::close);
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action){
+    if(rs == null){
+      return false;
+    }
+    try {
+      if(recorder == null){
+        if(!rs.next()){
+          close();
+          return false;
+        }
+        action.accept(rowMapper.mapRow(rs, rowNum++));
+        return true;
+      }
+      long start = System.nanoTime();
+      boolean next = rs.next();
+      long read = System.nanoTime();
+      recorder.fetchNanos += read - start;
+      if(!next){
+        close();
+        return false;
+      }
+      T row = rowMapper.mapRow(rs, rowNum++);
+      recorder.mappingNanos += System.nanoTime() - read;
+      recorder.rows++;
+      action.accept(row);
+      return true;
+    }catch(SQLException e){
+      failure = jdbcTemplate.getExceptionTranslator().translate("RowStream", sql, e);
+      close();
+      throw failure;
+    }
+  }
+
+  private void close(){
+    JdbcUtils.closeResultSet(rs);
+    rs = null;
+    JdbcUtils.closeStatement(ps);
+    ps = null;
+    if(con != null){
+      DataSourceUtils.releaseConnection(con, dataSource);
+      con = null;
+    }
+    if(recorder != null){
+      SqlEvent.Recorder finished = recorder;
+      recorder = null;
+      finished.finish(failure);
+    }
+  }
+}
@@ -0,0 +1,668 @@
+package sqlmapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import maptree.MapTree;
+
+/**
+ * Joins child rows onto parent rows within a memory budget, spilling the child rows to local files when they don't fit (See
+ * {@link SqlSelector#spillJoin(long)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   The child rows are handed over one at a time, as they are read from the ResultSet. While their estimated size stays
+ *   within the budget they are kept in memory and joined with {@link JoinEngine}. Once it goes over, the rows held so far
+ *   and every row after them are hash-partitioned by their child key into {@link #FAN_OUT} files (one set of files per
+ *   distinct set of child keys), and the join becomes a grace hash join: for each mapping, the parents are bucketed by the
+ *   same hash, and each partition is read back, indexed and probed by its bucket of parents in turn, so only one partition
+ *   is indexed at a time. A partition that is still over the budget is split again with a different hash, unless its
+ *   rows all share a key. Every row of a partition keeps its place relative to the others, so each parent gets its
+ *   children in the order of the query, just as with an in-memory join; unlike an in-memory join, a child that matches
+ *   under two mappings is read back as two copies.
+ * </p>
+ * <p>
+ *   The budget bounds only this transient data: the buffered rows and the index of one partition. The children that
+ *   match are attached to their parents and stay there, so the heap still grows with the matched children as it would
+ *   for an in-memory join; children without a parent are dropped as their partition is done.
+ * </p>
+ * <p>
+ *   Rows are written in a compact binary format: each value is a one-byte type tag followed by its data (variable-length
+ *   integers, UTF-8 strings), and map keys are written once per file and referred to by number after that. Values of
+ *   other types than those mapped from JDBC are written with Java serialization. The files are deleted by {@link #close()}.
+ * </p>
+ */
+final class SpillingJoin implements Consumer<MapTree> {
+  static final int FAN_OUT = 32;
+  private static final int MAX_SPLITS = 4;
+
+  private final List<JoinMapping> joinMappings;
+  private final long memoryBudget;
+  private final Path directory;
+  private List<MapTree> buffered = new ArrayList<>();
+  private long bufferedBytes;
+  private Path spillDirectory;
+  private Map<String, Partition[]> partitionsBySignature;
+  // The first mapping of each distinct set of child keys, by which its rows are partitioned.
+  private Map<String, JoinMapping> mappingsBySignature;
+  private long rows;
+  private long spilledRows;
+  private int fileCount;
+
+  /**
+   * @param joinMappings the mappings of the join
+   * @param memoryBudget the estimated size, in bytes, of the buffered child rows, or of the partition being indexed
+   * @param directory the directory to create the files in, or null for the default temporary directory
+   */
+  SpillingJoin(List<JoinMapping> joinMappings, long memoryBudget, Path directory){
+    if(memoryBudget <= 0){
+      throw new IllegalArgumentException("The memory budget must be positive");
+    }
+    this.joinMappings = joinMappings;
+    this.memoryBudget = memoryBudget;
+    this.directory = directory;
+  }
+
+  @Override
+  public void accept(MapTree child){
+    rows++;
+    try {
+      if(partitionsBySignature != null){
+        spill(child);
+        return;
+      }
+      buffered.add(child);
+      bufferedBytes += estimate(child);
+      if(bufferedBytes > memoryBudget){
+        partitionsBySignature = new LinkedHashMap<>();
+        mappingsBySignature = new HashMap<>();
+        for(JoinMapping mapping : joinMappings){
+          if(!partitionsBySignature.containsKey(mapping.childSignature())){
+            partitionsBySignature.put(mapping.childSignature(), createPartitions());
+            mappingsBySignature.put(mapping.childSignature(), mapping);
+          }
+        }
+        for(MapTree row : buffered){
+          spill(row);
+        }
+        buffered = null;
+        bufferedBytes = 0;
+      }
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return the number of child rows handed over
+   */
+  long getRows(){
+    return rows;
+  }
+
+  /**
+   * @return the number of child rows written to files
+   */
+  long getSpilledRows(){
+    return spilledRows;
+  }
+
+  /**
+   * Joins the child rows onto the parents.
+   *
+   * @param parents the parent rows
+   * @param sortMerge whether to try a sort-merge join first, if the child rows fit in memory
+   */
+  void join(List<MapTree> parents, boolean sortMerge){
+    if(partitionsBySignature == null){
+      JoinEngine.join(parents, buffered, joinMappings, sortMerge);
+      return;
+    }
+    try {
+      for(Partition[] partitions : partitionsBySignature.values()){
+        for(Partition partition : partitions){
+          partition.finish();
+        }
+      }
+      // Like the in-memory join, every parent gets a list for every mapping, matched or not.
+      for(MapTree parent : parents){
+        for(JoinMapping mapping : joinMappings){
+          mapping.childList(parent);
+        }
+      }
+      for(JoinMapping mapping : joinMappings){
+        Partition[] partitions = partitionsBySignature.get(mapping.childSignature());
+        List<List<MapTree>> buckets = bucket(parents, mapping, 0);
+        for(int p = 0; p < FAN_OUT; p++){
+          if(buckets.get(p) != null){
+            join(partitions[p], buckets.get(p), mapping, 0);
+          }
+        }
+      }
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Deletes the files.
+   */
+  void close(){
+    if(partitionsBySignature != null){
+      for(Partition[] partitions : partitionsBySignature.values()){
+        for(Partition partition : partitions){
+          partition.delete();
+        }
+      }
+    }
+    if(spillDirectory != null){
+      try {
+        Files.deleteIfExists(spillDirectory);
+      }catch(IOException e){
+        // The directory isn't empty if a file couldn't be deleted; it is left behind along with it.
+      }
+    }
+  }
+
+  private void spill(MapTree row) throws IOException {
+    spilledRows++;
+    for(Map.Entry<String, Partition[]> entry : partitionsBySignature.entrySet()){
+      JoinMapping mapping = mappingsBySignature.get(entry.getKey());
+      Object key = mapping.childKey(row);
+      if(key != null){
+        entry.getValue()[partition(key, 0)].write(row, key);
+      }
+    }
+  }
+
+  /**
+   * Joins a partition onto the parents whose keys hash to it, splitting it again first if its index wouldn't fit in the
+   * budget. The matched rows stay in memory, attached to the parents, after the index is dropped.
+   */
+  private void join(Partition partition, List<MapTree> parents, JoinMapping mapping, int level) throws IOException {
+    if(partition.bytes > memoryBudget && partition.distinctKeys && level < MAX_SPLITS){
+      Partition[] split = createPartitions();
+      try {
+        RowReader reader = partition.reader();
+        try {
+          MapTree row;
+          while((row = reader.read()) != null){
+            Object key = mapping.childKey(row);
+            split[partition(key, level + 1)].write(row, key);
+          }
+        }finally{
+          reader.close();
+        }
+        for(Partition part : split){
+          part.finish();
+        }
+        List<List<MapTree>> buckets = bucket(parents, mapping, level + 1);
+        for(int p = 0; p < FAN_OUT; p++){
+          if(buckets.get(p) != null){
+            join(split[p], buckets.get(p), mapping, level + 1);
+          }
+        }
+      }finally{
+        for(Partition part : split){
+          part.delete();
+        }
+      }
+      return;
+    }
+    Map<Object, List<MapTree>> index = new HashMap<>();
+    RowReader reader = partition.reader();
+    try {
+      MapTree row;
+      while((row = reader.read()) != null){
+        Object key = mapping.childKey(row);
+        List<MapTree> matches = index.get(key);
+        if(matches == null){
+          matches = new ArrayList<>(1);
+          index.put(key, matches);
+        }
+        matches.add(row);
+      }
+    }finally{
+      reader.close();
+    }
+    for(MapTree parent : parents){
+      List<MapTree> matches = index.get(mapping.parentKey(parent));
+      if(matches != null){
+        mapping.childList(parent).addAll(matches);
+      }
+    }
+  }
+
+  /**
+   * Groups the parents with a key by the partition their key hashes to (a null entry for a partition without parents).
+   */
+  private static List<List<MapTree>> bucket(List<MapTree> parents, JoinMapping mapping, int level){
+    List<List<MapTree>> buckets = new ArrayList<>(FAN_OUT);
+    for(int p = 0; p < FAN_OUT; p++){
+      buckets.add(null);
+    }
+    for(MapTree parent : parents){
+      Object key = mapping.parentKey(parent);
+      if(key != null){
+        int p = partition(key, level);
+        if(buckets.get(p) == null){
+          buckets.set(p, new ArrayList<MapTree>());
+        }
+        buckets.get(p).add(parent);
+      }
+    }
+    return buckets;
+  }
+
+  /**
+   * Hashes a key to a partition, differently at every level of splitting.
+   */
+  static int partition(Object key, int level){
+    int h = key.hashCode() * 0x9E3779B9 + level * 0x7F4A7C15;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    return Math.floorMod(h, FAN_OUT);
+  }
+
+  private Partition[] createPartitions() throws IOException {
+    if(spillDirectory == null){
+      spillDirectory = directory == null
+        ? Files.createTempDirectory("sqlmapping-join")
+        : Files.createTempDirectory(directory, "sqlmapping-join");
+    }
+    Partition[] partitions = new Partition[FAN_OUT];
+    for(int p = 0; p < FAN_OUT; p++){
+      partitions[p] = new Partition(spillDirectory.resolve("partition-" + (fileCount++)));
+    }
+    return partitions;
+  }
+
+  /**
+   * Estimates the heap taken by a value, in bytes: roughly what a 64-bit JVM with compressed references uses.
+   */
+  static long estimate(Object value){
+    if(value == null){
+      return 0;
+    }else if(value instanceof String){
+      return 40 + 2L * ((String)value).length();
+    }else if(value instanceof Map){
+      long size = 64 + 8L * Math.max(16, ((Map)value).size() * 4 / 3);
+      for(Object entry : ((Map)value).entrySet()){
+        // The keys are shared between rows.
+        size += 40 + estimate(((Map.Entry)entry).getValue());
+      }
+      return size;
+    }else if(value instanceof Collection){
+      long size = 40 + 4L * ((Collection)value).size();
+      for(Object item : (Collection)value){
+        size += estimate(item);
+      }
+      return size;
+    }else if(value instanceof byte[]){
+      return 16 + ((byte[])value).length;
+    }else if(value instanceof BigDecimal || value instanceof BigInteger){
+      return 64;
+    }
+    return 24;
+  }
+
+  /**
+   * One partition file: written from start to end, then read back (possibly more than once).
+   */
+  private static class Partition {
+    private final Path file;
+    private DataOutputStream out;
+    private Map<String, Integer> keyIds;
+    private Object firstKey;
+    private boolean hasRows;
+    // Whether the rows have more than one key, so that splitting them can make the partition smaller.
+    boolean distinctKeys;
+    long bytes;
+
+    Partition(Path file){
+      this.file = file;
+    }
+
+    void write(MapTree row, Object key) throws IOException {
+      if(out == null){
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        keyIds = new HashMap<>();
+      }
+      RowWriter.writeMap(out, row, keyIds);
+      bytes += estimate(row);
+      if(!hasRows){
+        hasRows = true;
+        firstKey = key;
+      }else if(!distinctKeys && !key.equals(firstKey)){
+        distinctKeys = true;
+      }
+    }
+
+    void finish() throws IOException {
+      if(out != null){
+        out.close();
+        out = null;
+        keyIds = null;
+      }
+    }
+
+    RowReader reader() throws IOException {
+      return new RowReader(hasRows ? Files.newInputStream(file) : null);
+    }
+
+    void delete(){
+      try {
+        finish();
+      }catch(IOException e){
+        // Deleting the file is all that matters.
+      }
+      try {
+        Files.deleteIfExists(file);
+      }catch(IOException e){
+        // Left behind in the temporary directory.
+      }
+    }
+  }
+
+  /**
+   * Writes rows in the binary format (See {@link SpillingJoin}).
+   */
+  static class RowWriter {
+    static final int NULL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int INT = 3;
+    static final int LONG = 4;
+    static final int DOUBLE = 5;
+    static final int STRING = 6;
+    static final int BIG_DECIMAL = 7;
+    static final int TIMESTAMP = 8;
+    static final int SQL_DATE = 9;
+    static final int SQL_TIME = 10;
+    static final int DATE = 11;
+    static final int BYTES = 12;
+    static final int MAP = 13;
+    static final int LIST = 14;
+    static final int SHORT = 15;
+    static final int FLOAT = 16;
+    static final int BIG_INTEGER = 17;
+    static final int BYTE = 18;
+    static final int SERIALIZED = 19;
+
+    private RowWriter(){}
+
+    static void writeMap(DataOutputStream out, Map<?, ?> map, Map<String, Integer> keyIds) throws IOException {
+      writeVarint(out, map.size());
+      for(Map.Entry<?, ?> entry : map.entrySet()){
+        String key = String.valueOf(entry.getKey());
+        Integer id = keyIds.get(key);
+        if(id == null){
+          // A new key is written out in full, with the next number, which stands for it from then on.
+          writeVarint(out, keyIds.size());
+          writeString(out, key);
+          keyIds.put(key, keyIds.size());
+        }else{
+          writeVarint(out, id);
+        }
+        writeValue(out, entry.getValue(), keyIds);
+      }
+    }
+
+    static void writeValue(DataOutputStream out, Object value, Map<String, Integer> keyIds) throws IOException {
+      if(value == null){
+        out.writeByte(NULL);
+      }else if(value instanceof String){
+        out.writeByte(STRING);
+        writeString(out, (String)value);
+      }else if(value instanceof Integer){
+        out.writeByte(INT);
+        writeVarlong(out, zigzag((Integer)value));
+      }else if(value instanceof Long){
+        out.writeByte(LONG);
+        writeVarlong(out, zigzag((Long)value));
+      }else if(value instanceof BigDecimal){
+        BigDecimal decimal = (BigDecimal)value;
+        out.writeByte(BIG_DECIMAL);
+        writeVarlong(out, zigzag(decimal.scale()));
+        writeBytes(out, decimal.unscaledValue().toByteArray());
+      }else if(value instanceof Boolean){
+        out.writeByte((Boolean)value ? TRUE : FALSE);
+      }else if(value instanceof Double){
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double)value);
+      }else if(value instanceof Timestamp){
+        out.writeByte(TIMESTAMP);
+        writeVarlong(out, zigzag(((Timestamp)value).getTime()));
+        writeVarlong(out, ((Timestamp)value).getNanos());
+      }else if(value instanceof java.sql.Date){
+        out.writeByte(SQL_DATE);
+        writeVarlong(out, zigzag(((Date)value).getTime()));
+      }else if(value instanceof Time){
+        out.writeByte(SQL_TIME);
+        writeVarlong(out, zigzag(((Date)value).getTime()));
+      }else if(value.getClass() == Date.class){
+        out.writeByte(DATE);
+        writeVarlong(out, zigzag(((Date)value).getTime()));
+      }else if(value instanceof byte[]){
+        out.writeByte(BYTES);
+        writeBytes(out, (byte[])value);
+      }else if(value instanceof MapTree){
+        out.writeByte(MAP);
+        writeMap(out, (Map)value, keyIds);
+      }else if(value instanceof ArrayList){
+        out.writeByte(LIST);
+        writeVarint(out, ((List)value).size());
+        for(Object item : (List)value){
+          writeValue(out, item, keyIds);
+        }
+      }else if(value instanceof Short){
+        out.writeByte(SHORT);
+        writeVarlong(out, zigzag((Short)value));
+      }else if(value instanceof Float){
+        out.writeByte(FLOAT);
+        out.writeFloat((Float)value);
+      }else if(value instanceof BigInteger){
+        out.writeByte(BIG_INTEGER);
+        writeBytes(out, ((BigInteger)value).toByteArray());
+      }else if(value instanceof Byte){
+        out.writeByte(BYTE);
+        out.writeByte((Byte)value);
+      }else if(value instanceof Serializable){
+        // Anything else (java.time values, maps and lists of other classes...) keeps its exact class this way.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objects = new ObjectOutputStream(bytes);
+        objects.writeObject(value);
+        objects.close();
+        out.writeByte(SERIALIZED);
+        writeBytes(out, bytes.toByteArray());
+      }else{
+        throw new NotSerializableException("Can't write a value of " + value.getClass().getName() + " to a spill file");
+      }
+    }
+
+    private static long zigzag(long value){
+      return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+      writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+      writeVarint(out, bytes.length);
+      out.write(bytes);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+      writeVarlong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarlong(DataOutputStream out, long value) throws IOException {
+      while((value & ~0x7FL) != 0){
+        out.writeByte((int)(value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte((int)value);
+    }
+  }
+
+  /**
+   * Reads back the rows written by {@link RowWriter}, in order.
+   */
+  static class RowReader {
+    private final DataInputStream in;
+    private final List<String> keys = new ArrayList<>();
+
+    RowReader(java.io.InputStream in){
+      this.in = in == null ? null : new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    /**
+     * @return the next row, or null at the end of the file
+     */
+    MapTree read() throws IOException {
+      if(in == null){
+        return null;
+      }
+      int size;
+      try {
+        size = (int)readVarlong();
+      }catch(EOFException e){
+        return null;
+      }
+      return readMap(size);
+    }
+
+    void close() throws IOException {
+      if(in != null){
+        in.close();
+      }
+    }
+
+    private MapTree readMap(int size) throws IOException {
+      MapTree map = new MapTree();
+      for(int i = 0; i < size; i++){
+        int id = (int)readVarlong();
+        if(id == keys.size()){
+          keys.add(readString());
+        }
+        map.put(keys.get(id), readValue());
+      }
+      return map;
+    }
+
+    private Object readValue() throws IOException {
+      int tag = in.readByte();
+      switch(tag){
+        case RowWriter.NULL:
+          return null;
+        case RowWriter.TRUE:
+          return Boolean.TRUE;
+        case RowWriter.FALSE:
+          return Boolean.FALSE;
+        case RowWriter.INT:
+          return (int)unzigzag(readVarlong());
+        case RowWriter.LONG:
+          return unzigzag(readVarlong());
+        case RowWriter.DOUBLE:
+          return in.readDouble();
+        case RowWriter.STRING:
+          return readString();
+        case RowWriter.BIG_DECIMAL:
+          int scale = (int)unzigzag(readVarlong());
+          return new BigDecimal(new BigInteger(readBytes()), scale);
+        case RowWriter.TIMESTAMP:
+          Timestamp timestamp = new Timestamp(unzigzag(readVarlong()));
+          timestamp.setNanos((int)readVarlong());
+          return timestamp;
+        case RowWriter.SQL_DATE:
+          return new java.sql.Date(unzigzag(readVarlong()));
+        case RowWriter.SQL_TIME:
+          return new Time(unzigzag(readVarlong()));
+        case RowWriter.DATE:
+          return new Date(unzigzag(readVarlong()));
+        case RowWriter.BYTES:
+          return readBytes();
+        case RowWriter.MAP:
+          return readMap((int)readVarlong());
+        case RowWriter.LIST:
+          int size = (int)readVarlong();
+          List<Object> list = new ArrayList<>(size);
+          for(int i = 0; i < size; i++){
+            list.add(readValue());
+          }
+          return list;
+        case RowWriter.SHORT:
+          return (short)unzigzag(readVarlong());
+        case RowWriter.FLOAT:
+          return in.readFloat();
+        case RowWriter.BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case RowWriter.BYTE:
+          return in.readByte();
+        case RowWriter.SERIALIZED:
+          ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(readBytes()));
+          try {
+            return objects.readObject();
+          }catch(ClassNotFoundException e){
+            throw new IOException(e);
+          }finally{
+            objects.close();
+          }
+        default:
+          throw new IOException("Corrupt spill file: unknown type tag " + tag);
+      }
+    }
+
+    private static long unzigzag(long value){
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private String readString() throws IOException {
+      return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes() throws IOException {
+      byte[] bytes = new byte[(int)readVarlong()];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+    private long readVarlong() throws IOException {
+      long value = 0;
+      for(int shift = 0; ; shift += 7){
+        int b = in.readByte();
+        value |= (long)(b & 0x7F) << shift;
+        if((b & 0x80) == 0){
+          return value;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the SQL that differs between databases, such as the multi-row upsert of
+ * {@link SqlUpdater#upsertList(String, String[], List)} (See {@link SqlExecutorFactory#setSqlDialect(SqlDialect)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Table and column names are written into the SQL as they are given, so they must come from the code, never from user
+ *   input. The values of row {@code r} and column {@code c} are bound to the named parameter {@code :r<r>_<c>} (See
+ *   {@link #param(int, int)}).
+ * </p>
+ */
+public abstract class SqlDialect {
+  private static final SqlDialect H2 = new H2();
+  private static final SqlDialect POSTGRESQL = new PostgreSql();
+  private static final SqlDialect MYSQL = new MySql();
+  private static final SqlDialect ANSI = new Ansi(false);
+  private static final SqlDialect SQL_SERVER = new Ansi(true);
+
+  /**
+   * @return the dialect of H2: {@code MERGE INTO ... KEY (...) VALUES ...}
+   */
+  public static SqlDialect h2(){
+    return H2;
+  }
+
+  /**
+   * @return the dialect of PostgreSQL: {@code INSERT ... ON CONFLICT (...) DO UPDATE}
+   */
+  public static SqlDialect postgresql(){
+    return POSTGRESQL;
+  }
+
+  /**
+   * @return the dialect of MySQL and MariaDB: {@code INSERT ... ON DUPLICATE KEY UPDATE}
+   */
+  public static SqlDialect mysql(){
+    return MYSQL;
+  }
+
+  /**
+   * @return the dialect of the SQL standard: {@code MERGE INTO ... USING (VALUES ...)}, as supported by DB2, HSQLDB and
+   *         PostgreSQL 15 and above
+   */
+  public static SqlDialect ansi(){
+    return ANSI;
+  }
+
+  /**
+   * @return the dialect of SQL Server: the standard {@code MERGE}, terminated by a semicolon
+   */
+  public static SqlDialect sqlServer(){
+    return SQL_SERVER;
+  }
+
+  /**
+   * Returns the dialect of a database, by the product name its JDBC driver reports, or {@link #ansi()} for an unknown one.
+   *
+   * @param databaseProductName the name returned by {@link java.sql.DatabaseMetaData#getDatabaseProductName()}
+   * @return the dialect
+   */
+  public static SqlDialect forProductName(String databaseProductName){
+    String name = databaseProductName == null ? "" : databaseProductName.toLowerCase();
+    if(name.startsWith("h2")){
+      return H2;
+    }else if(name.startsWith("postgresql")){
+      return POSTGRESQL;
+    }else if(name.startsWith("mysql") || name.startsWith("mariadb")){
+      return MYSQL;
+    }else if(name.startsWith("microsoft sql server")){
+      return SQL_SERVER;
+    }
+    return ANSI;
+  }
+
+  /**
+   * Writes a statement that inserts {@code rows} rows into {@code table}, or updates the row already there with the same
+   * {@code keyColumns}.
+   *
+   * @param table the table
+   * @param columns the columns of the rows, which include the key columns
+   * @param keyColumns the columns that identify a row (a primary key or unique constraint of the table)
+   * @param rows the number of rows
+   * @return the statement, with named parameters (See {@link #param(int, int)})
+   */
+  public abstract String upsert(String table, String[] columns, String[] keyColumns, int rows);
+
+  /**
+   * @return the largest number of parameters a statement can have
+   */
+  public int getMaxParameters(){
+    return 32767;
+  }
+
+  /**
+   * @return the name of the parameter of row {@code row} and column {@code column}
+   */
+  public static String param(int row, int column){
+    return "r" + row + "_" + column;
+  }
+
+  /**
+   * Appends {@code (:r0_0, :r0_1), (:r1_0, :r1_1), ...}.
+   */
+  protected static void appendRows(StringBuilder sql, int columns, int rows){
+    for(int row = 0; row < rows; row++){
+      sql.append(row > 0 ? ", (" : "(");
+      for(int column = 0; column < columns; column++){
+        sql.append(column > 0 ? ", :" : ":").append(param(row, column));
+      }
+      sql.append(')');
+    }
+  }
+
+  /**
+   * Returns the columns that aren't key columns.
+   */
+  protected static List<String> valueColumns(String[] columns, String[] keyColumns){
+    List<String> keys = new ArrayList<>();
+    for(String key : keyColumns){
+      keys.add(key.toLowerCase());
+    }
+    List<String> values = new ArrayList<>();
+    for(String column : columns){
+      if(!keys.contains(column.toLowerCase())){
+        values.add(column);
+      }
+    }
+    return values;
+  }
+
+  protected static String join(String[] names){
+    return String.join(", ", Arrays.asList(names));
+  }
+
+  public String toString(){
+    return getClass().getSimpleName();
+  }
+
+  private static class H2 extends SqlDialect {
+    @Override
+    public String upsert(String table, String[] columns, String[] keyColumns, int rows){
+      StringBuilder sql = new StringBuilder("merge into ").append(table).append(" (").append(join(columns)).append(") key (")
+        .append(join(keyColumns)).append(") values ");
+      appendRows(sql, columns.length, rows);
+      return sql.toString();
+    }
+  }
+
+  private static class PostgreSql extends SqlDialect {
+    @Override
+    public String upsert(String table, String[] columns, String[] keyColumns, int rows){
+      StringBuilder sql = new StringBuilder("insert into ").append(table).append(" (").append(join(columns)).append(") values ");
+      appendRows(sql, columns.length, rows);
+      sql.append(" on conflict (").append(join(keyColumns)).append(')');
+      List<String> values = valueColumns(columns, keyColumns);
+      if(values.isEmpty()){
+        return sql.append(" do nothing").toString();
+      }
+      sql.append(" do update set ");
+      for(int i = 0; i < values.size(); i++){
+        sql.append(i > 0 ? ", " : "").append(values.get(i)).append(" = excluded.").append(values.get(i));
+      }
+      return sql.toString();
+    }
+  }
+
+  private static class MySql extends SqlDialect {
+    @Override
+    public String upsert(String table, String[] columns, String[] keyColumns, int rows){
+      StringBuilder sql = new StringBuilder("insert into ").append(table).append(" (").append(join(columns)).append(") values ");
+      appendRows(sql, columns.length, rows);
+      sql.append(" on duplicate key update ");
+      List<String> values = valueColumns(columns, keyColumns);
+      if(values.isEmpty()){
+        // Updating a key to itself changes nothing, but keeps the statement valid.
+        return sql.append(keyColumns[0]).append(" = ").append(keyColumns[0]).toString();
+      }
+      for(int i = 0; i < values.size(); i++){
+        sql.append(i > 0 ? ", " : "").append(values.get(i)).append(" = values(").append(values.get(i)).append(')');
+      }
+      return sql.toString();
+    }
+
+    @Override
+    public int getMaxParameters(){
+      return 65535;
+    }
+  }
+
+  private static class Ansi extends SqlDialect {
+    private final boolean sqlServer;
+
+    Ansi(boolean sqlServer){
+      this.sqlServer = sqlServer;
+    }
+
+    @Override
+    public String upsert(String table, String[] columns, String[] keyColumns, int rows){
+      StringBuilder sql = new StringBuilder("merge into ").append(table).append(" t using (values ");
+      appendRows(sql, columns.length, rows);
+      sql.append(") s (").append(join(columns)).append(") on (");
+      for(int i = 0; i < keyColumns.length; i++){
+        sql.append(i > 0 ? " and " : "").append("t.").append(keyColumns[i]).append(" = s.").append(keyColumns[i]);
+      }
+      sql.append(')');
+      List<String> values = valueColumns(columns, keyColumns);
+      if(!values.isEmpty()){
+        sql.append(" when matched then update set ");
+        for(int i = 0; i < values.size(); i++){
+          sql.append(i > 0 ? ", " : "").append(values.get(i)).append(" = s.").append(values.get(i));
+        }
+      }
+      sql.append(" when not matched then insert (").append(join(columns)).append(") values (");
+      for(int i = 0; i < columns.length; i++){
+        sql.append(i > 0 ? ", " : "").append("s.").append(columns[i]);
+      }
+      sql.append(')');
+      return sqlServer ? sql.append(';').toString() : sql.toString();
+    }
+
+    @Override
+    public int getMaxParameters(){
+      // SQL Server allows 2100 parameters; the other databases of the standard MERGE allow more.
+      return sqlServer ? 2000 : 32767;
+    }
+
+    public String toString(){
+      return sqlServer ? "SqlServer" : "Ansi";
+    }
+  }
+}
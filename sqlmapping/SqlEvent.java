@@ -0,0 +1,203 @@
+package sqlmapping;
+
+import java.util.List;
+import java.util.logging.Logger;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Describes one operation of a SqlSelector or SqlUpdater (See {@link SqlMetricsListener}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   The times are in nanoseconds. The execute time is the time spent executing the statement (for operations that aren't
+ *   broken down any further, the whole operation); the fetch time is the time spent moving through the ResultSet; the
+ *   mapping time is the time spent mapping and transforming rows (or writing them as JSON); the join time is the time spent
+ *   joining child rows onto parent rows. A time that doesn't apply to the operation is 0.
+ * </p>
+ */
+public class SqlEvent {
+  private static final Logger logger = Logger.getLogger("mcore-debug");
+
+  private final String operation;
+  private final String fingerprint;
+  private final int paramCount;
+  private final long rows;
+  private final long executeNanos;
+  private final long fetchNanos;
+  private final long mappingNanos;
+  private final long joinNanos;
+  private final Throwable failure;
+
+  SqlEvent(String operation, String fingerprint, int paramCount, long rows, long executeNanos, long fetchNanos, long mappingNanos, long joinNanos, Throwable failure){
+    this.operation = operation;
+    this.fingerprint = fingerprint;
+    this.paramCount = paramCount;
+    this.rows = rows;
+    this.executeNanos = executeNanos;
+    this.fetchNanos = fetchNanos;
+    this.mappingNanos = mappingNanos;
+    this.joinNanos = joinNanos;
+    this.failure = failure;
+  }
+
+  /**
+   * @return the name of the operation, e.g. "queryForList" or "batchUpdateList"
+   */
+  public String getOperation(){
+    return operation;
+  }
+
+  /**
+   * @return the SQL with its literals replaced by "?" and its whitespace collapsed (See {@link SqlFingerprint})
+   */
+  public String getFingerprint(){
+    return fingerprint;
+  }
+
+  /**
+   * @return the number of named parameters bound to the statement
+   */
+  public int getParamCount(){
+    return paramCount;
+  }
+
+  /**
+   * @return the number of rows returned (for queries) or affected (for updates)
+   */
+  public long getRows(){
+    return rows;
+  }
+
+  public long getExecuteNanos(){
+    return executeNanos;
+  }
+
+  public long getFetchNanos(){
+    return fetchNanos;
+  }
+
+  public long getMappingNanos(){
+    return mappingNanos;
+  }
+
+  public long getJoinNanos(){
+    return joinNanos;
+  }
+
+  /**
+   * @return the sum of the execute, fetch, mapping and join times
+   */
+  public long getTotalNanos(){
+    return executeNanos + fetchNanos + mappingNanos + joinNanos;
+  }
+
+  /**
+   * @return the exception the operation failed with, or null if it succeeded
+   */
+  public Throwable getFailure(){
+    return failure;
+  }
+
+  public String toString(){
+    return "["+operation+", "+fingerprint+", params="+paramCount+", rows="+rows+", execute="+executeNanos+", fetch="+fetchNanos+", mapping="+mappingNanos+", join="+joinNanos+(failure == null ? "" : ", failure="+failure)+"]";
+  }
+
+  /**
+   * Accumulates the times of one operation while it runs, and delivers its event when it finishes.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Only created when a listener is registered (See {@link SqlExecutorFactory#record(String, String, SqlParameterSource)}),
+   *   so code that records does so behind a null check.
+   * </p>
+   */
+  static class Recorder {
+    private final SqlMetricsListener listener;
+    private final String operation;
+    private final String sql;
+    private final int paramCount;
+    private final long started = System.nanoTime();
+    long rows;
+    long executeNanos = -1;
+    long fetchNanos;
+    long mappingNanos;
+    long joinNanos;
+
+    Recorder(SqlMetricsListener listener, String operation, String sql, SqlParameterSource params){
+      this(listener, operation, sql, paramCount(params));
+    }
+
+    private Recorder(SqlMetricsListener listener, String operation, String sql, int paramCount){
+      this.listener = listener;
+      this.operation = operation;
+      this.sql = sql;
+      this.paramCount = paramCount;
+    }
+
+    /**
+     * Returns a new Recorder for another attempt at the same operation, starting now; this one has delivered its event.
+     */
+    Recorder retry(){
+      return new Recorder(listener, operation, sql, paramCount);
+    }
+
+    /**
+     * Delivers the event (See {@link SqlEvent#deliver(SqlMetricsListener, SqlEvent)}). Unless the execute time was recorded separately, the whole operation (less any fetch, mapping and
+     * join time) counts as execute time.
+     */
+    void finish(Throwable failure){
+      long execute = executeNanos;
+      if(execute < 0){
+        execute = Math.max(0, System.nanoTime() - started - fetchNanos - mappingNanos - joinNanos);
+      }
+      deliver(listener, new SqlEvent(operation, SqlFingerprint.of(sql), paramCount, rows, execute, fetchNanos, mappingNanos, joinNanos, failure));
+    }
+
+    void finish(){
+      finish(null);
+    }
+
+    private static int paramCount(SqlParameterSource params){
+      if(params instanceof MapSqlParameterSource){
+        return ((MapSqlParameterSource)params).getValues().size();
+      }
+      if(params != null && params.getParameterNames() != null){
+        return params.getParameterNames().length;
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Delivers every event to each of a list of listeners.
+   */
+  static class Multicaster implements SqlMetricsListener {
+    private final SqlMetricsListener[] listeners;
+
+    Multicaster(List<SqlMetricsListener> listeners){
+      this.listeners = listeners.toArray(new SqlMetricsListener[]{});
+    }
+
+    @Override
+    public void onEvent(SqlEvent event){
+      for(SqlMetricsListener listener : listeners){
+        deliver(listener, event);
+      }
+    }
+  }
+
+  /**
+   * Delivers an event to a listener, logging rather than throwing what the listener throws, so that a failing listener
+   * neither fails the operation nor hides the exception it failed with.
+   */
+  static void deliver(SqlMetricsListener listener, SqlEvent event){
+    try {
+      listener.onEvent(event);
+    }catch(RuntimeException e){
+      logger.warning("A SqlMetricsListener failed on an event of " + event.getOperation());
+      logger.warning(ExceptionUtils.getStackTrace(e));
+    }
+  }
+}
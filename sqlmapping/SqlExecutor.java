@@ -1,27 +1,175 @@
 package sqlmapping;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 
 public abstract class SqlExecutor {
   protected static final Logger logger = Logger.getLogger("mcore-debug");
   @Inject protected NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+  protected final SqlExecutorFactory factory;
   protected MapSqlParameterSource params;
   protected List<Mapping> mappings;
+  protected long timeoutMillis;
+  // Identifies the caller for read-your-writes routing (See SqlExecutorFactory#setReadYourWritesWindow).
+  String callerKey;
   protected SqlExecutor(NamedParameterJdbcTemplate namedParameterJdbcTemplate){
+    this(namedParameterJdbcTemplate, null);
+  }
+  protected SqlExecutor(NamedParameterJdbcTemplate namedParameterJdbcTemplate, SqlExecutorFactory factory){
     this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+    this.factory = factory;
+  }
+
+  /**
+   * Returns the compiled plan for the current mappings, reusing the plan cached by the factory when there is one.
+   */
+  protected MappingPlan plan(){
+    if(factory != null){
+      return factory.getMappingPlanCache().get(mappings);
+    }
+    return mappings == null || mappings.isEmpty() ? MappingPlan.EMPTY : MappingPlan.compile(mappings);
+  }
+
+  /**
+   * Starts recording an operation for the metrics listeners of the factory (See
+   * {@link SqlExecutorFactory#addMetricsListener(SqlMetricsListener)}), or returns null if there are none.
+   */
+  protected SqlEvent.Recorder record(String operation, String sql, SqlParameterSource params){
+    return factory == null ? null : factory.record(operation, sql, params);
+  }
+
+  /**
+   * Runs {@code task} on the executor of the factory, within the limit set by
+   * {@link SqlExecutorFactory#setMaxConcurrency(int)}.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   If a timeout was set, the returned future fails with a TimeoutException once it expires, and the statement running at
+   *   that moment is cancelled (the query timeout of every statement is set as well, so the database gives up on its own
+   *   too). Cancelling the returned future cancels the running statement in the same way. The task runs on another thread,
+   *   so it doesn't take part in the caller's transaction.
+   * </p>
+   */
+  protected <T> CompletableFuture<T> async(Supplier<T> task){
+    if(factory == null){
+      throw new IllegalStateException("Only a SqlSelector or SqlUpdater created by a SqlExecutorFactory can run asynchronously");
+    }
+    return async(factory.getExecutor(), task);
+  }
+
+  /**
+   * Runs {@code task} on {@code executor}, within the limit and the timeout of {@link #async(Supplier)}.
+   */
+  protected <T> CompletableFuture<T> async(Executor executor, final Supplier<T> task){
+    if(factory == null){
+      throw new IllegalStateException("Only a SqlSelector or SqlUpdater created by a SqlExecutorFactory can run asynchronously");
+    }
+    final long timeout = timeoutMillis;
+    final StatementCanceller canceller = new StatementCanceller(timeout);
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    executor.execute(new Runnable(){
+      public void run(){
+        if(future.isDone()){
+          return;
+        }
+        try {
+          future.complete(factory.limited(new Supplier<T>(){
+            public T get(){
+              if(canceller.isCancelled()){
+                throw new CancellationException();
+              }
+              return canceller.run(task);
+            }
+          }));
+        }catch(Throwable e){
+          future.completeExceptionally(e);
+        }
+      }
+    });
+    final ScheduledFuture<?> timer = timeout <= 0 ? null : factory.getTimer().schedule(new Runnable(){
+      public void run(){
+        if(future.completeExceptionally(new TimeoutException("Timed out after " + timeout + " ms"))){
+          canceller.cancel();
+        }
+      }
+    }, timeout, TimeUnit.MILLISECONDS);
+    future.whenComplete(new BiConsumer<T, Throwable>(){
+      public void accept(T result, Throwable failure){
+        if(timer != null){
+          timer.cancel(false);
+        }
+        if(failure instanceof CancellationException){
+          canceller.cancel();
+        }
+      }
+    });
+    return future;
   }
-  protected class Mapping {
-    String path;
-    String key;
-    Transformer transformer;
+
+  /**
+   * Returns a copy of the current named parameters, which later calls to {@code param} don't affect.
+   */
+  protected MapSqlParameterSource snapshotParams(){
+    return params == null ? new MapSqlParameterSource() : copyParams(params);
+  }
+
+  /**
+   * Returns a copy of {@code params}, with the SQL types and type names registered for them.
+   */
+  static MapSqlParameterSource copyParams(MapSqlParameterSource params){
+    MapSqlParameterSource copy = new MapSqlParameterSource();
+    for(String name : params.getValues().keySet()){
+      copy.addValue(name, params.getValue(name));
+      if(params.getSqlType(name) != SqlParameterSource.TYPE_UNKNOWN){
+        copy.registerSqlType(name, params.getSqlType(name));
+      }
+      if(params.getTypeName(name) != null){
+        copy.registerTypeName(name, params.getTypeName(name));
+      }
+    }
+    return copy;
+  }
+
+  protected static class Mapping {
+    final String path;
+    final String key;
+    final Transformer transformer;
     public Mapping(String path, String key, Transformer transformer){
       this.path = path;
       this.key = key;
       this.transformer = transformer;
     }
+
+    @Override
+    public boolean equals(Object obj){
+      if(!(obj instanceof Mapping)){
+        return false;
+      }
+      Mapping other = (Mapping)obj;
+      return equal(path, other.path) && equal(key, other.key) && transformer == other.transformer;
+    }
+
+    @Override
+    public int hashCode(){
+      int hash = path == null ? 0 : path.hashCode();
+      hash = 31 * hash + (key == null ? 0 : key.hashCode());
+      return 31 * hash + System.identityHashCode(transformer);
+    }
+
+    private static boolean equal(String a, String b){
+      return a == null ? b == null : a.equals(b);
+    }
   }
 }
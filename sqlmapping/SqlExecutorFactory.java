@@ -1,17 +1,567 @@
 package sqlmapping;
 
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import javax.inject.Inject;
+import javax.sql.DataSource;
+import maptree.MapTree;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Service("SqlExecuterFactory")
 public class SqlExecutorFactory {
   @Inject
   private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+  private final MappingPlanCache mappingPlanCache = new MappingPlanCache();
+  private ExecutorService executor;
+  private boolean ownsExecutor;
+  private ScheduledExecutorService timer;
+  private volatile Semaphore bulkhead;
+  private volatile ResultCache resultCache;
+  private volatile boolean cacheAllQueries;
+  private final List<SqlMetricsListener> metricsListeners = new CopyOnWriteArrayList<>();
+  // null when no listener is registered, so that recording costs a single read.
+  private volatile SqlMetricsListener metricsListener;
+  private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+  private volatile ReplicaBalancer replicaBalancer = ReplicaBalancer.roundRobin();
+  private volatile int ejectAfterFailures = 3;
+  private volatile long ejectionCooldownNanos = TimeUnit.SECONDS.toNanos(30);
+  private volatile long readYourWritesNanos;
+  // The time until which each caller that wrote reads from the primary.
+  private final ConcurrentHashMap<String, Long> pinnedUntil = new ConcurrentHashMap<>();
+  private volatile SqlDialect sqlDialect;
+  private final List<WriteBehindUpdater> writeBehindUpdaters = new CopyOnWriteArrayList<>();
   public SqlSelector createSqlSelector(){
-    return new SqlSelector(namedParameterJdbcTemplate);
+    return new SqlSelector(namedParameterJdbcTemplate, this);
   }
   public SqlUpdater createSqlUpdater(){
-    return new SqlUpdater(namedParameterJdbcTemplate);
+    return new SqlUpdater(namedParameterJdbcTemplate, this);
+  }
+
+  /**
+   * Creates a SqlSelector on behalf of {@code callerKey} (a user, a session...), whose reads go to the primary for a while
+   * after the caller writes (See {@link #setReadYourWritesWindow(long, TimeUnit)}).
+   */
+  public SqlSelector createSqlSelector(String callerKey){
+    SqlSelector selector = createSqlSelector();
+    selector.callerKey = callerKey;
+    return selector;
+  }
+
+  /**
+   * Creates a SqlUpdater on behalf of {@code callerKey}, whose writes send the reads of the caller to the primary for a
+   * while (See {@link #setReadYourWritesWindow(long, TimeUnit)}).
+   */
+  public SqlUpdater createSqlUpdater(String callerKey){
+    SqlUpdater updater = createSqlUpdater();
+    updater.callerKey = callerKey;
+    return updater;
+  }
+  /**
+   * Creates an updater that queues updates and writes them in the background, in JDBC batches (See
+   * {@link WriteBehindUpdater}).
+   *
+   * @param capacity the largest number of updates queued at once
+   * @param flushSize the number of queued updates that starts a flush
+   * @param flushInterval how often the queue is flushed in any case, or 0 for only when it reaches {@code flushSize}
+   * @param unit the unit of {@code flushInterval}
+   * @return the updater, which {@link #shutdown()} closes
+   */
+  public WriteBehindUpdater createWriteBehindUpdater(int capacity, int flushSize, long flushInterval, TimeUnit unit){
+    WriteBehindUpdater updater = new WriteBehindUpdater(this, namedParameterJdbcTemplate.getJdbcOperations(), capacity, flushSize, flushInterval, unit);
+    writeBehindUpdaters.add(updater);
+    return updater;
+  }
+
+  /**
+   * Creates a unit of work, which runs a sequence of updates and queries on one connection (See {@link UnitOfWork}).
+   *
+   * @return the unit of work
+   */
+  public UnitOfWork createUnitOfWork(){
+    return new UnitOfWork(this, namedParameterJdbcTemplate.getJdbcOperations());
+  }
+
+  void removeWriteBehindUpdater(WriteBehindUpdater updater){
+    writeBehindUpdaters.remove(updater);
+  }
+
+  MappingPlanCache getMappingPlanCache(){
+    return mappingPlanCache;
+  }
+
+  /**
+   * Runs a {@link QueryDefinition} and returns its rows, with the rows of its child queries joined into them.
+   *
+   * @param query the query
+   * @param params the values of its named parameters
+   * @return the rows
+   */
+  public List<MapTree> queryForList(QueryDefinition query, Map<String, ?> params){
+    return createSqlSelector().queryForList(query, new MapSqlParameterSource(params));
+  }
+
+  /**
+   * Runs a {@link QueryDefinition} and returns its single row (or an empty MapTree if there is none), with the rows of its
+   * child queries joined into it.
+   *
+   * @param query the query
+   * @param params the values of its named parameters
+   * @return the row
+   */
+  public MapTree queryForMap(QueryDefinition query, Map<String, ?> params){
+    return createSqlSelector().queryForMap(query, new MapSqlParameterSource(params));
+  }
+
+  /**
+   * Runs a {@link QueryDefinition} and returns the single value of its single row.
+   *
+   * @param query the query
+   * @param params the values of its named parameters
+   * @param type the type of the value
+   * @return the value
+   */
+  public <T> T queryForObject(QueryDefinition query, Map<String, ?> params, Class<T> type){
+    return createSqlSelector().queryForObject(query, new MapSqlParameterSource(params), type);
+  }
+
+  /**
+   * Runs an {@link UpdateDefinition}.
+   *
+   * @param update the statement
+   * @param params the values of its named parameters
+   * @return the number of rows affected
+   */
+  public int update(UpdateDefinition update, Map<String, ?> params){
+    return update(update, params, null);
+  }
+
+  /**
+   * Runs an {@link UpdateDefinition}, retrieving the keys it generates into {@code keyHolder}.
+   *
+   * @param update the statement, with the keys to retrieve
+   * @param params the values of its named parameters
+   * @param keyHolder receives the generated keys, if the definition has any
+   * @return the number of rows affected
+   */
+  public int update(UpdateDefinition update, Map<String, ?> params, GeneratedKeyHolder keyHolder){
+    String[] keys = keyHolder == null ? null : update.keyNames;
+    return createSqlUpdater().update(update.namedSql, new MapSqlParameterSource(params), keys, keyHolder, update.invalidatedTags);
+  }
+
+  /**
+   * Runs an {@link UpdateDefinition} once for every item in a list, in JDBC batches (See
+   * {@link SqlUpdater#batchUpdateList(String, List)}).
+   *
+   * @param update the statement
+   * @param dataList the items to run the statement for; the keys it generates are put back into them
+   * @param params the values of the named parameters shared by every item (which win over mapped values of the same name)
+   * @return the update count of every item, and a report of the items that failed
+   */
+  public BatchResult batchUpdateList(UpdateDefinition update, List<Map> dataList, Map<String, ?> params){
+    List<Map<String, Object>> keyList = update.keyNames == null ? null : new ArrayList<Map<String, Object>>();
+    return createSqlUpdater().batchUpdateList(
+      update.namedSql,
+      dataList,
+      update.plan,
+      new MapSqlParameterSource(params),
+      update.keyNames,
+      keyList,
+      update.batchSize,
+      update.invalidatedTags,
+      true
+    );
+  }
+
+  /**
+   * Sets the executor that runs concurrent work, such as the sections of a deferred SqlSelector (See
+   * {@link SqlSelector#deferred()}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   By default a virtual thread per task is used where the JVM supports it, otherwise a cached pool of daemon threads.
+   *   An executor set here is not shut down by {@link #shutdown()}.
+   * </p>
+   *
+   * @param executor the executor to run concurrent work on
+   */
+  public synchronized void setExecutor(ExecutorService executor){
+    if(this.executor != null && ownsExecutor){
+      this.executor.shutdown();
+    }
+    this.executor = executor;
+    this.ownsExecutor = false;
+  }
+
+  /**
+   * Returns the executor that runs concurrent work (See {@link #setExecutor(ExecutorService)}).
+   *
+   * @return the executor
+   */
+  public synchronized ExecutorService getExecutor(){
+    if(executor == null){
+      executor = newDefaultExecutor();
+      ownsExecutor = true;
+    }
+    return executor;
+  }
+
+  /**
+   * Shuts down the default executor, if it was ever created, and the timer of asynchronous operations.
+   */
+  public void shutdown(){
+    // Closing an updater takes its lock, so the updaters are closed without holding this monitor, which an updater takes
+    // (in getExecutor()) to request a flush.
+    for(WriteBehindUpdater updater : writeBehindUpdaters.toArray(new WriteBehindUpdater[]{})){
+      updater.close();
+    }
+    synchronized(this){
+      if(executor != null && ownsExecutor){
+        executor.shutdown();
+        executor = null;
+      }
+      if(timer != null){
+        timer.shutdownNow();
+        timer = null;
+      }
+    }
+  }
+
+  /**
+   * Limits the number of asynchronous operations (See {@link SqlSelector#queryForListAsync(String)}) that run at the same
+   * time.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Operations beyond the limit wait for a running one to finish before they take a connection, so a burst of
+   *   asynchronous work can't exhaust the connection pool; setting the limit somewhat below the size of the pool leaves
+   *   room for synchronous work. A time out (See {@link SqlSelector#timeout(long, TimeUnit)}) includes the time spent
+   *   waiting. The new limit applies to operations started after this call.
+   * </p>
+   *
+   * @param maxConcurrency the maximum number of operations running at once, or 0 for no limit (the default)
+   */
+  public void setMaxConcurrency(int maxConcurrency){
+    this.bulkhead = maxConcurrency > 0 ? new Semaphore(maxConcurrency, true) : null;
+  }
+
+  /**
+   * Runs {@code task} once the limit set by {@link #setMaxConcurrency(int)} allows it.
+   */
+  <T> T limited(Supplier<T> task){
+    Semaphore permits = bulkhead;
+    if(permits == null){
+      return task.get();
+    }
+    try {
+      permits.acquire();
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to run", e);
+    }
+    try {
+      return task.get();
+    }finally{
+      permits.release();
+    }
+  }
+
+  /**
+   * Returns the single daemon thread that times out asynchronous operations (and runs other scheduled work).
+   */
+  synchronized ScheduledExecutorService getTimer(){
+    if(timer == null){
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+        public Thread newThread(Runnable runnable){
+          Thread thread = new Thread(runnable, "sqlmapping-timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      scheduler.setRemoveOnCancelPolicy(true);
+      timer = scheduler;
+    }
+    return timer;
+  }
+
+  /**
+   * Adds a read replica of the database: the queries of SqlSelectors are spread over the read replicas, while SqlUpdaters
+   * keep writing to the primary.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   A query still goes to the primary when it runs in a transaction (so it sees the writes of the transaction), when its
+   *   caller wrote recently (See {@link #setReadYourWritesWindow(long, TimeUnit)}), or when every replica is ejected (See
+   *   {@link #setReplicaEjection(int, long, TimeUnit)}). A query that can't get a connection from its replica is retried on
+   *   the primary. Which replica runs a query is up to the balancer (See {@link #setReplicaBalancer(ReplicaBalancer)}).
+   * </p>
+   *
+   * @param name the name of the replica, for logs and metrics
+   * @param dataSource the DataSource of the replica
+   */
+  public void addReadReplica(String name, DataSource dataSource){
+    addReadReplica(name, new NamedParameterJdbcTemplate(dataSource));
+  }
+
+  /**
+   * Adds a read replica of the database (See {@link #addReadReplica(String, DataSource)}).
+   *
+   * @param name the name of the replica, for logs and metrics
+   * @param template the template of the replica
+   */
+  public void addReadReplica(String name, NamedParameterJdbcTemplate template){
+    replicas.add(new Replica(name, template));
+  }
+
+  /**
+   * @return the read replicas, with their load and health
+   */
+  public List<Replica> getReadReplicas(){
+    return Collections.unmodifiableList(replicas);
+  }
+
+  /**
+   * Sets how queries are spread over the read replicas: {@link ReplicaBalancer#roundRobin()} (the default),
+   * {@link ReplicaBalancer#leastOutstanding()}, {@link ReplicaBalancer#latencyWeighted()}, or one of your own.
+   *
+   * @param replicaBalancer the balancer
+   */
+  public void setReplicaBalancer(ReplicaBalancer replicaBalancer){
+    this.replicaBalancer = replicaBalancer;
+  }
+
+  /**
+   * Sets when a read replica is ejected: after {@code consecutiveFailures} queries in a row fail because of the replica
+   * (See {@link Replica}), it gets no queries for {@code cooldown}. The default is 3 failures and 30 seconds.
+   *
+   * @param consecutiveFailures the number of failures in a row that eject a replica, or 0 never to eject one
+   * @param cooldown how long an ejected replica gets no queries
+   * @param unit the unit of {@code cooldown}
+   */
+  public void setReplicaEjection(int consecutiveFailures, long cooldown, TimeUnit unit){
+    this.ejectAfterFailures = consecutiveFailures;
+    this.ejectionCooldownNanos = unit.toNanos(cooldown);
+  }
+
+  int getEjectAfterFailures(){
+    return ejectAfterFailures;
+  }
+
+  long getEjectionCooldownNanos(){
+    return ejectionCooldownNanos;
+  }
+
+  /**
+   * Sends the queries of a caller to the primary for {@code window} after the caller writes, so that the caller reads its
+   * own writes even though the replicas lag behind (See {@link #createSqlSelector(String)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The window should exceed the usual replication lag. Callers are only known by the key given to
+   *   {@link #createSqlSelector(String)} and {@link #createSqlUpdater(String)}; SqlSelectors and SqlUpdaters created without
+   *   one always read from the replicas.
+   * </p>
+   *
+   * @param window how long the queries of a caller go to the primary after it writes, or 0 for never (the default)
+   * @param unit the unit of {@code window}
+   */
+  public void setReadYourWritesWindow(long window, TimeUnit unit){
+    this.readYourWritesNanos = unit.toNanos(window);
+    if(readYourWritesNanos <= 0){
+      pinnedUntil.clear();
+    }
+  }
+
+  /**
+   * Returns the replica that runs a query of {@code callerKey}, or null for the primary.
+   */
+  Replica routeRead(String callerKey){
+    if(replicas.isEmpty() || TransactionSynchronizationManager.isActualTransactionActive()){
+      return null;
+    }
+    if(callerKey != null){
+      Long until = pinnedUntil.get(callerKey);
+      if(until != null){
+        if(System.nanoTime() - until < 0){
+          return null;
+        }
+        pinnedUntil.remove(callerKey, until);
+      }
+    }
+    List<Replica> healthy = new ArrayList<>(replicas.size());
+    for(Replica replica : replicas){
+      if(!replica.isEjected()){
+        healthy.add(replica);
+      }
+    }
+    return healthy.isEmpty() ? null : replicaBalancer.choose(healthy);
+  }
+
+  /**
+   * Notes that {@code callerKey} wrote, so that its queries go to the primary for a while.
+   */
+  void recordWrite(String callerKey){
+    long window = readYourWritesNanos;
+    if(callerKey == null || window <= 0 || replicas.isEmpty()){
+      return;
+    }
+    long now = System.nanoTime();
+    pinnedUntil.put(callerKey, now + window);
+    if(pinnedUntil.size() > 10000){
+      for(Map.Entry<String, Long> e : pinnedUntil.entrySet()){
+        if(now - e.getValue() >= 0){
+          pinnedUntil.remove(e.getKey(), e.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the dialect of the SQL that differs between databases (See {@link SqlDialect}).
+   *
+   * @param sqlDialect the dialect, or null to detect it from the database (the default)
+   */
+  public void setSqlDialect(SqlDialect sqlDialect){
+    this.sqlDialect = sqlDialect;
+  }
+
+  /**
+   * Returns the dialect set by {@link #setSqlDialect(SqlDialect)}, or else the dialect of the database, detected (once)
+   * from the product name its JDBC driver reports.
+   *
+   * @return the dialect
+   */
+  public SqlDialect getSqlDialect(){
+    SqlDialect dialect = sqlDialect;
+    if(dialect == null){
+      dialect = SqlDialect.forProductName(namedParameterJdbcTemplate.getJdbcOperations().execute(new ConnectionCallback<String>(){
+        public String doInConnection(Connection con) throws SQLException {
+          return con.getMetaData().getDatabaseProductName();
+        }
+      }));
+      sqlDialect = dialect;
+    }
+    return dialect;
+  }
+
+  /**
+   * Sets the cache for the results of queries marked with {@link SqlSelector#cache(String...)}, and the tags invalidated by
+   * {@link SqlUpdater#invalidates(String...)}.
+   *
+   * @param resultCache the cache, or null to cache nothing
+   */
+  public void setResultCache(ResultCache resultCache){
+    this.resultCache = resultCache;
+  }
+
+  public ResultCache getResultCache(){
+    return resultCache;
+  }
+
+  /**
+   * Caches the results of every query, not just the ones marked with {@link SqlSelector#cache(String...)} (See
+   * {@link #setResultCache(ResultCache)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Queries cached this way use the default time to live of the cache and have no tags; a query can still be marked with
+   *   {@link SqlSelector#cache(long, TimeUnit, String...)} to be cached differently, or {@link SqlSelector#noCache()} not to
+   *   be cached at all.
+   * </p>
+   *
+   * @param cacheAllQueries whether to cache every query
+   */
+  public void setCacheAllQueries(boolean cacheAllQueries){
+    this.cacheAllQueries = cacheAllQueries;
+  }
+
+  boolean isCacheAllQueries(){
+    return cacheAllQueries;
+  }
+
+  /**
+   * Registers a listener for the operations of every SqlSelector and SqlUpdater this factory creates (See
+   * {@link SqlMetricsListener}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   See {@link HistogramMetricsListener} for latency histograms kept in memory, and {@link JfrMetricsListener} for
+   *   events recorded by Java Flight Recorder. While no listener is registered, operations aren't timed at all.
+   * </p>
+   *
+   * @param listener the listener to register
+   */
+  public void addMetricsListener(SqlMetricsListener listener){
+    synchronized(metricsListeners){
+      metricsListeners.add(listener);
+      updateMetricsListener();
+    }
+  }
+
+  /**
+   * Unregisters a listener registered with {@link #addMetricsListener(SqlMetricsListener)}.
+   *
+   * @param listener the listener to unregister
+   */
+  public void removeMetricsListener(SqlMetricsListener listener){
+    synchronized(metricsListeners){
+      metricsListeners.remove(listener);
+      updateMetricsListener();
+    }
+  }
+
+  private void updateMetricsListener(){
+    if(metricsListeners.isEmpty()){
+      metricsListener = null;
+    }else if(metricsListeners.size() == 1){
+      metricsListener = metricsListeners.get(0);
+    }else{
+      metricsListener = new SqlEvent.Multicaster(metricsListeners);
+    }
+  }
+
+  /**
+   * Starts recording an operation, or returns null if no listener is registered.
+   */
+  SqlEvent.Recorder record(String operation, String sql, SqlParameterSource params){
+    SqlMetricsListener listener = metricsListener;
+    return listener == null ? null : new SqlEvent.Recorder(listener, operation, sql, params);
+  }
+
+  private static ExecutorService newDefaultExecutor(){
+    try {
+      Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)virtualThreads.invoke(null);
+    }catch(ReflectiveOperationException e){
+      final AtomicInteger count = new AtomicInteger();
+      return Executors.newCachedThreadPool(new ThreadFactory(){
+        public Thread newThread(Runnable runnable){
+          Thread thread = new Thread(runnable, "sqlmapping-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
   }
 }
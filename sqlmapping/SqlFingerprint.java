@@ -0,0 +1,107 @@
+package sqlmapping;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reduces a SQL statement to a fingerprint that identifies the statement regardless of its literal values.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   String and numeric literals are replaced by "?", runs of whitespace by a single space, and comments are dropped, so
+ *   statements that only differ in their literals (or their formatting) share a fingerprint. Named parameters are kept as
+ *   they are. Fingerprints are cached, up to {@link #MAX_CACHED} statements.
+ * </p>
+ */
+public final class SqlFingerprint {
+  static final int MAX_CACHED = 4096;
+  private static final ConcurrentMap<String, String> FINGERPRINTS = new ConcurrentHashMap<>();
+
+  private SqlFingerprint(){}
+
+  /**
+   * Returns the fingerprint of a SQL statement.
+   *
+   * @param sql the SQL statement
+   * @return the fingerprint
+   */
+  public static String of(String sql){
+    if(sql == null){
+      return null;
+    }
+    String fingerprint = FINGERPRINTS.get(sql);
+    if(fingerprint == null){
+      fingerprint = compute(sql);
+      if(FINGERPRINTS.size() < MAX_CACHED){
+        FINGERPRINTS.put(sql, fingerprint);
+      }
+    }
+    return fingerprint;
+  }
+
+  private static String compute(String sql){
+    StringBuilder out = new StringBuilder(sql.length());
+    int i = 0;
+    int n = sql.length();
+    while(i < n){
+      char c = sql.charAt(i);
+      if(c == '\'' ){
+        i++;
+        while(i < n){
+          if(sql.charAt(i) == '\''){
+            if(i + 1 < n && sql.charAt(i + 1) == '\''){
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        i++;
+        out.append('?');
+      }else if(c == '-' && i + 1 < n && sql.charAt(i + 1) == '-'){
+        while(i < n && sql.charAt(i) != '\n'){
+          i++;
+        }
+        space(out);
+      }else if(c == '/' && i + 1 < n && sql.charAt(i + 1) == '*'){
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? n : end + 2;
+        space(out);
+      }else if(Character.isWhitespace(c)){
+        i++;
+        space(out);
+      }else if(Character.isDigit(c) && !isWordChar(out)){
+        while(i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')){
+          i++;
+        }
+        out.append('?');
+      }else if(c == ':' || Character.isLetter(c) || c == '_'){
+        // Keep identifiers and named parameters whole, digits included.
+        out.append(c);
+        i++;
+        while(i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')){
+          out.append(sql.charAt(i++));
+        }
+      }else{
+        out.append(c);
+        i++;
+      }
+    }
+    return out.toString().trim();
+  }
+
+  private static void space(StringBuilder out){
+    if(out.length() > 0 && out.charAt(out.length() - 1) != ' '){
+      out.append(' ');
+    }
+  }
+
+  private static boolean isWordChar(StringBuilder out){
+    if(out.length() == 0){
+      return false;
+    }
+    char last = out.charAt(out.length() - 1);
+    return Character.isLetterOrDigit(last) || last == '_';
+  }
+}
@@ -0,0 +1,15 @@
+package sqlmapping;
+
+/**
+ * Receives an event for every operation of the SqlSelectors and SqlUpdaters of a {@link SqlExecutorFactory}.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Registered with {@link SqlExecutorFactory#addMetricsListener(SqlMetricsListener)}. Events are delivered on the thread
+ *   that ran the operation, right after it finished, so listeners should be quick and thread-safe. An exception thrown by a
+ *   listener is logged and otherwise ignored. When no listener is registered, nothing is timed or recorded at all.
+ * </p>
+ */
+public interface SqlMetricsListener {
+  void onEvent(SqlEvent event);
+}
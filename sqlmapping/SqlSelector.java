@@ -1,17 +1,75 @@
 package sqlmapping;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import maptree.MapTree;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class SqlSelector extends SqlExecutor {
+  static final int DEFAULT_IN_CHUNK_SIZE = 1000;
+  static final String WATERMARK_PARAM = "watermark";
+  private static final ResultCache.Policy DEFAULT_CACHE_POLICY = new ResultCache.Policy(-1, null);
+  private static final ResultCache.Policy NO_CACHE = new ResultCache.Policy(0, null);
   private MapTree results;
   private List<JoinMapping> joinMappings;
+  private boolean mergeJoin;
+  private int fetchSize;
+  private int inChunkSize = DEFAULT_IN_CHUNK_SIZE;
+  private boolean parallelChunks;
+  private JsonOutput jsonOutput;
+  private Executor deferredExecutor;
+  private List<Section> sections;
+  private Collapse.Level collapseRoot;
+  private Collapse.Level collapseLevel;
+  private ResultCache.Policy cachePolicy;
+  private IncrementalList pendingIncremental;
+  private Map<String, IncrementalList> incrementalLists;
+  private Partitioning partitioning;
+  private long spillBudget;
+  private Path spillDirectory;
 
   /**
    * TREVOR: fill this in...
@@ -20,6 +78,9 @@ public class SqlSelector extends SqlExecutor {
   protected SqlSelector(NamedParameterJdbcTemplate namedParameterJdbcTemplate){
     super(namedParameterJdbcTemplate);
   }
+  protected SqlSelector(NamedParameterJdbcTemplate namedParameterJdbcTemplate, SqlExecutorFactory factory){
+    super(namedParameterJdbcTemplate, factory);
+  }
 
   /**
    * Sets a named parameter for SQL statements.
@@ -39,6 +100,102 @@ public class SqlSelector extends SqlExecutor {
     return this;
   }
 
+  /**
+   * Sets the JDBC fetch size used by the queries of this SqlSelector.
+   *
+   * <p><b>Details:</b></p>
+   * The fetch size is a hint to the driver about how many rows to pull from the database at a time. It matters most for
+   * {@link #queryForStream(String)} and {@link #forEachRow(String, Consumer)}, where a small fetch size keeps memory flat
+   * however many rows there are. Some drivers need more than a hint to stream (MySQL wants {@code Integer.MIN_VALUE},
+   * PostgreSQL only streams inside a transaction). A fetch size of 0 (the default) leaves the driver's default in place.
+   *
+   * @param fetchSize the number of rows to fetch at a time
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector fetchSize(int fetchSize){
+    this.fetchSize = fetchSize;
+    return this;
+  }
+
+  /**
+   * Caches the results of the next query in the {@link ResultCache} of the factory, for its default time to live.
+   *
+   * <p><b>Details:</b></p>
+   * Applies to the next call to {@link #queryForList(String)}, {@link #queryForMap(String)} or
+   * {@link #queryForObject(String, Class)}, or to the {@code put...QueryByPath} function that calls one of them. If the same
+   * query (same SQL, parameters and mappings) was cached and hasn't expired, its results are returned without querying the
+   * database. The results are tagged with {@code tags}, so that {@link ResultCache#invalidate(String...)} (or an update of a
+   * SqlUpdater marked with {@link SqlUpdater#invalidates(String...)}) can drop them. Does nothing if the factory has no
+   * ResultCache (See {@link SqlExecutorFactory#setResultCache(ResultCache)}), or inside a Spring transaction, where the
+   * query can see uncommitted writes.
+   *
+   * @param tags the tags of the cached results
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector cache(String... tags){
+    cachePolicy = new ResultCache.Policy(-1, tags);
+    return this;
+  }
+
+  /**
+   * Caches the results of the next query for {@code ttl} (See {@link #cache(String...)}).
+   *
+   * @param ttl how long the results live
+   * @param unit the unit of {@code ttl}
+   * @param tags the tags of the cached results
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector cache(long ttl, TimeUnit unit, String... tags){
+    cachePolicy = new ResultCache.Policy(Math.max(1, unit.toNanos(ttl)), tags);
+    return this;
+  }
+
+  /**
+   * Runs the next query against the database even if the factory caches every query (See
+   * {@link SqlExecutorFactory#setCacheAllQueries(boolean)}).
+   *
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector noCache(){
+    cachePolicy = NO_CACHE;
+    return this;
+  }
+
+  /**
+   * Returns how the next query is to be cached, or null if it isn't, and resets it for the query after.
+   */
+  private ResultCache.Policy takeCachePolicy(){
+    ResultCache.Policy policy = cachePolicy;
+    cachePolicy = null;
+    if(factory == null || factory.getResultCache() == null || policy == NO_CACHE){
+      return null;
+    }
+    if(policy == null && factory.isCacheAllQueries()){
+      return DEFAULT_CACHE_POLICY;
+    }
+    return policy;
+  }
+
+  /**
+   * Returns the cached results of a query if there are any, otherwise runs it and caches its results. Inside a Spring
+   * transaction, the query sees the transaction's own writes, so the cache is neither read nor written.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T cached(ResultCache.Policy policy, String kind, String sql, SqlParameterSource params, Object plan, Supplier<T> query){
+    ResultCache cache = policy == null ? null : factory.getResultCache();
+    if(cache == null || TransactionSynchronizationManager.isActualTransactionActive()){
+      return query.get();
+    }
+    ResultCache.Key key = new ResultCache.Key(kind, sql, params, plan);
+    Object result = cache.get(key);
+    if(result == null){
+      long generation = cache.generation(policy.tags);
+      result = query.get();
+      cache.put(key, result, policy, generation);
+    }
+    return (T)result;
+  }
+
   /**
    * ...
    * @param key
@@ -92,6 +249,135 @@ public class SqlSelector extends SqlExecutor {
   }
 
 
+  /**
+   * Groups the rows of the next query into records identified by {@code idKey}, so that a single JOIN query can produce
+   * nested lists (See {@link #queryForGroupedList(String)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The mappings created by {@link #map(String, String, Transformer)} (before or after this call, until the first call to
+   *   {@link #nest(String, String)}) map the top-level records. Rows that repeat a top-level identity only add to the nested
+   *   lists of the record already created for it.
+   * </p>
+   * @param idKey the key of the SQL column that identifies a top-level record
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector groupBy(String idKey){
+    if(mappings == null){
+      mappings = new ArrayList<>();
+    }
+    collapseRoot = new Collapse.Level(null, null, idKey, mappings);
+    collapseLevel = collapseRoot;
+    return this;
+  }
+
+  /**
+   * Starts a nested list of records identified by {@code idKey}, inside the records of the current level (See
+   * {@link #groupBy(String)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The mappings created after this call, until {@link #endNest()} or the next call to this function, map the records of
+   *   the nested list, which is put at {@code path} (relative to the record of the current level). Calling this again before
+   *   {@link #endNest()} nests another level deeper (a grandchild list).
+   * </p>
+   * @param path the path (relative to the records of the current level) at which to put the nested list
+   * @param idKey the key of the SQL column that identifies a record of the nested list
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector nest(String path, String idKey){
+    if(collapseLevel == null){
+      throw new IllegalStateException("groupBy must be called before nest");
+    }
+    mappings = new ArrayList<>();
+    Collapse.Level level = new Collapse.Level(collapseLevel, path, idKey, mappings);
+    collapseLevel.children.add(level);
+    collapseLevel = level;
+    return this;
+  }
+
+  /**
+   * Ends the nested list started by the last call to {@link #nest(String, String)}, so that the mappings that follow apply to
+   * the level above it again.
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector endNest(){
+    if(collapseLevel == null || collapseLevel.parent == null){
+      throw new IllegalStateException("endNest must follow a call to nest");
+    }
+    collapseLevel = collapseLevel.parent;
+    mappings = collapseLevel.mappings;
+    return this;
+  }
+
+  /**
+   * Queries for and returns a List of Maps of objects, folding the rows into nested lists (See {@link #groupBy(String)})
+   *
+   * <p><b>Details:</b></p>
+   * Runs a single query (typically a JOIN of the parent table with its child and grandchild tables) and folds its flattened
+   * rows into records with nested lists, in one pass over the ResultSet. Records keep the order in which their identity
+   * first appears in the rows.
+   *
+   * @param sql the SQL query to be executed
+   * @return the top-level records
+   */
+  public List<MapTree> queryForGroupedList(String sql){
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    cachePolicy = null;
+    return queryForGroupedList(sql, params, compileCollapse());
+  }
+
+  private List<MapTree> queryForGroupedList(String sql, SqlParameterSource params, Collapse collapse){
+    List<MapTree> list = new ArrayList<>();
+    query(
+      NamedSql.parse(sql).creator(params, fetchSize),
+      collapse.folder(list),
+      record("queryForGroupedList", sql, params)
+    );
+    return list;
+  }
+
+  private Collapse compileCollapse(){
+    if(collapseRoot == null){
+      throw new IllegalStateException("groupBy must be called before a grouped query");
+    }
+    collapseRoot.mappings = collapseRoot.mappings == null ? new ArrayList<Mapping>() : collapseRoot.mappings;
+    Collapse collapse = Collapse.compile(collapseRoot, factory == null ? null : factory.getMappingPlanCache());
+    collapseRoot = null;
+    collapseLevel = null;
+    mappings = new ArrayList<>();
+    return collapse;
+  }
+
+  /**
+   * Queries for a List of Maps of objects folded into nested lists (See {@link #queryForGroupedList(String)}) and puts it at
+   * {@code path}.
+   * @param path the path at which to put the results
+   * @param sql the SQL query to be executed
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector putGroupedListQueryByPath(String path, String sql){
+    if(jsonOutput == null && deferredExecutor != null){
+      if(sections == null){
+        sections = new ArrayList<>();
+      }
+      cachePolicy = null;
+      sections.add(new Section(path, SectionKind.GROUPED, sql, snapshotParams(), null, compileCollapse(), null));
+      return this;
+    }
+    if(jsonOutput != null){
+      writeJsonValue(path, queryForGroupedList(sql));
+      return this;
+    }
+    if(results == null){
+      results = new MapTree();
+    }
+    results.putByPathUnique(path, queryForGroupedList(sql));
+    return this;
+  }
+
   /**
    * Specifies how to perform a join (See {@link #joinToListByPath(String, String)}).
    *
@@ -112,6 +398,83 @@ public class SqlSelector extends SqlExecutor {
     return this;
   }
 
+  /**
+   * Specifies how to perform a join on a composite key (See {@link #joinToListByPath(String, String)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Works like {@link #on(String, String, String)}, except that a parent and a child only match when every one of the
+   *   {@code parentKeys} equals the corresponding one of the {@code childKeys}.
+   * </p>
+   * @param parentKeys the keys of the parent data to match against
+   * @param childKeys the keys of the child data to match against, in the same order as {@code parentKeys}
+   * @param childPath the path (relative to the parent) in which to put the joined data
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector on(String[] parentKeys, String[] childKeys, String childPath){
+    if(joinMappings == null){
+      joinMappings = new ArrayList<>();
+    }
+    joinMappings.add(new JoinMapping(parentKeys, childKeys, childPath));
+    return this;
+  }
+
+  /**
+   * Indicates that the data of the next join is ordered by the join key on both sides.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   When both the parent data and the child data come back ordered (ascending) by the keys given to
+   *   {@link #on(String, String, String)}, the next join is performed as a sort-merge join, which avoids building a hash
+   *   index over the child data. If either side turns out not to be ordered, the join falls back to a hash join, so the
+   *   results are the same either way.
+   * </p>
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector mergeJoin(){
+    mergeJoin = true;
+    return this;
+  }
+
+  /**
+   * Performs the next join within a memory budget, spilling the child data to temporary files if it doesn't fit (See
+   * {@link SpillingJoin}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Applies to the next call to {@link #joinToListByPath(String, String)} or {@link #joinToMapByPath(String, String)}.
+   *   The child data is read row by row instead of into a List first; while its estimated size stays within
+   *   {@code memoryBudget} the join is the usual one. Beyond that, the child rows are hash-partitioned by their join key to
+   *   files in the default temporary directory, and joined one partition at a time (a grace hash join). The budget bounds
+   *   the child rows buffered while reading and the index of the partition being joined, not the result: every child
+   *   that matches a parent is attached to it, so once the join is done the heap holds the parents and all of their
+   *   matched children, just as with an in-memory join. What spilling saves is the List of every child row and the index
+   *   over all of them; children that match no parent never stay in memory. The results are the same either way: every
+   *   parent gets a (possibly empty) list at each child path, with its children in the order of the query.
+   * </p>
+   * @param memoryBudget the estimated size, in bytes, of the unjoined child data to hold in memory at once
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector spillJoin(long memoryBudget){
+    return spillJoin(memoryBudget, null);
+  }
+
+  /**
+   * Performs the next join within a memory budget, spilling to files in {@code directory} (See {@link #spillJoin(long)}).
+   *
+   * @param memoryBudget the estimated size, in bytes, of the unjoined child data to hold in memory at once
+   * @param directory the directory to create the temporary files in, or null for the default temporary directory
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector spillJoin(long memoryBudget, Path directory){
+    if(memoryBudget <= 0){
+      throw new IllegalArgumentException("The memory budget must be positive");
+    }
+    this.spillBudget = memoryBudget;
+    this.spillDirectory = directory;
+    return this;
+  }
+
   /**
    * Joins data retrieved from the {@code sql} query with data already retrieved by this SqlSelector instance.
    *
@@ -124,10 +487,14 @@ public class SqlSelector extends SqlExecutor {
    * @return
    */
   public SqlSelector joinToMapByPath(String parentPath, String sql){
+    requireResults();
+    if(spillBudget > 0){
+      spillJoin(Collections.singletonList((MapTree)results.getByPath(parentPath)), sql);
+      return this;
+    }
     List<MapTree> children = queryForList(sql);
     MapTree parent = (MapTree)results.getByPath(parentPath);
-    joinChildren(parent, children);
-    joinMappings = null;
+    joinChildren(Collections.singletonList(parent), children, sql);
     return this;
   }
 
@@ -143,125 +510,869 @@ public class SqlSelector extends SqlExecutor {
    * @return
    */
   public SqlSelector joinToListByPath(String parentPath, String sql){
+    requireResults();
+    if(spillBudget > 0){
+      spillJoin((List)results.getByPath(parentPath), sql);
+      return this;
+    }
     List<MapTree> children = queryForList(sql);
     List<MapTree> parents = (List)results.getByPath(parentPath);
-    for(MapTree parent : parents){
-      joinChildren(parent, children);
-    }
-    joinMappings = null;
+    joinChildren(parents, children, sql);
     return this;
   }
 
-  private void joinChildren(MapTree parent, List<MapTree> children){
-    for(JoinMapping mapping : joinMappings){
-      Object parentValue = parent.get(mapping.parentKey);
-      Object childList = parent.get(mapping.childPath);
-      if(childList == null || !(childList instanceof List)){
-        childList = new ArrayList<MapTree>();
-        parent.put(mapping.childPath, childList);
-      }
-      for(MapTree child : children){
-        Object childValue = child.get(mapping.childKey);
-        if(childValue != null && childValue.equals(parentValue)){
-          ((List)childList).add(child);
-        }
-      }
-    }
-  }
-
   /**
+   * Joins data retrieved from the {@code sql} query with data already retrieved by this SqlSelector instance, fetching only
+   * the child data of the parents that were loaded.
    *
-   * @return
+   * <p>
+   *   <b>Details:</b>
+   *   Works like {@link #joinToListByPath(String, String)}, except that the distinct values of the parent keys given to
+   *   {@link #on(String, String, String)} are collected from the parent data first and bound, as a list, to the named
+   *   parameter {@code keysParam}, so that {@code sql} can fetch only the matching child data (for example
+   *   {@code "... where order_id in (:orderIds)"}). The keys are sent in chunks of {@link #inChunkSize(int)}, to stay within
+   *   the driver's parameter limits, and the chunks run in parallel if {@link #parallelChunks()} was called. For composite
+   *   keys, only the first parent key is bound; the rest are matched in memory as usual.
+   * </p>
+   * @param parentPath the path at which to join the data
+   * @param sql the SQL query to be executed, the results of which will be joined with the underlying MapTree
+   * @param keysParam the name of the parameter to bind the parent keys to
+   * @return the instance of SqlSelector (for chaining)
    */
-  public MapTree getResults(){
-    return results;
+  public SqlSelector joinToListByPath(String parentPath, String sql, String keysParam){
+    requireResults();
+    joinByKeys((List)results.getByPath(parentPath), sql, keysParam);
+    return this;
   }
 
   /**
-   * TREVOR: fill this in
-   * @param path
-   * @param sql
-   * @return
+   * Joins the rows of {@code sql} onto the parents as they are read, within the memory budget (See
+   * {@link #spillJoin(long)}).
    */
-  public SqlSelector putObjectQueryByPath(String path, String sql){
-    if(results == null){
-      results = new MapTree();
+  private void spillJoin(List<MapTree> parents, String sql){
+    SpillingJoin join = new SpillingJoin(joinMappings == null ? Collections.<JoinMapping>emptyList() : joinMappings, spillBudget, spillDirectory);
+    spillBudget = 0;
+    spillDirectory = null;
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    cachePolicy = null;
+    try {
+      forEachRow("queryForList", NamedSql.parse(sql), params, plan(), join);
+      mappings = new ArrayList<>();
+      SqlEvent.Recorder recorder = record("spillJoin", sql, null);
+      long start = System.nanoTime();
+      try {
+        join.join(parents, mergeJoin);
+      }catch(RuntimeException e){
+        if(recorder != null){
+          recorder.finish(e);
+        }
+        throw e;
+      }
+      if(recorder != null){
+        recorder.executeNanos = 0;
+        recorder.joinNanos = System.nanoTime() - start;
+        recorder.rows = join.getRows();
+        recorder.finish();
+      }
+    }finally{
+      join.close();
+      joinMappings = null;
+      mergeJoin = false;
     }
-    results.putByPathUnique(path, queryForObject(sql));
-    return this;
   }
 
-  public Object queryForObject(String sql){
-    return queryForObject(sql, Object.class);
+  private void joinByKeys(List<MapTree> parents, final String sql, final String keysParam){
+    Set<Object> keySet = new LinkedHashSet<>();
+    for(MapTree parent : parents){
+      for(JoinMapping mapping : joinMappings){
+        Object key = parent.get(mapping.parentKeys[0]);
+        if(key != null){
+          keySet.add(key);
+        }
+      }
+    }
+    List<Object> keys = new ArrayList<>(keySet);
+    final MappingPlan plan = plan();
+    final MapSqlParameterSource globals = snapshotParams();
+    mappings = new ArrayList<>();
+    cachePolicy = null;
+    List<List<Object>> chunks = new ArrayList<>();
+    int size = Math.max(1, inChunkSize);
+    for(int start = 0; start < keys.size(); start += size){
+      chunks.add(keys.subList(start, Math.min(keys.size(), start + size)));
+    }
+    List<MapTree> children = new ArrayList<>();
+    if(parallelChunks && factory != null && chunks.size() > 1){
+      List<CompletableFuture<List<MapTree>>> futures = new ArrayList<>(chunks.size());
+      for(final List<Object> chunk : chunks){
+        futures.add(async(new Supplier<List<MapTree>>(){
+          public List<MapTree> get(){
+            return queryForList(sql, chunkParams(globals, keysParam, chunk), plan);
+          }
+        }));
+      }
+      try {
+        for(CompletableFuture<List<MapTree>> future : futures){
+          children.addAll(future.join());
+        }
+      }catch(CompletionException e){
+        for(CompletableFuture<List<MapTree>> future : futures){
+          future.cancel(true);
+        }
+        if(e.getCause() instanceof RuntimeException){
+          throw (RuntimeException)e.getCause();
+        }
+        throw e;
+      }
+    }else{
+      for(List<Object> chunk : chunks){
+        children.addAll(queryForList(sql, chunkParams(globals, keysParam, chunk), plan));
+      }
+    }
+    joinChildren(parents, children, sql);
   }
 
   /**
-   * Queries for and returns a single object
-   *
-   * <p><b>Details:</b></p>
-   * ...
+   * Makes the next list put by {@link #putListQueryByPath(String, String)} refreshable, without deletions (See
+   * {@link #incremental(String, String, String)}).
    *
-   * @param sql the SQL query to be executed
-   * @return the result of the SQL query
+   * @param watermarkKey the key of the value that grows every time a row changes
+   * @param identityKey the key that identifies a row
+   * @return the instance of SqlSelector (for chaining)
    */
-  public <T> T queryForObject(String sql, Class<T> type){
-    if(params == null){
-      params = new MapSqlParameterSource();
-    }
-    T result = namedParameterJdbcTemplate.queryForObject(
-      sql,
-      params,
-      type
-    );
-    mappings = new ArrayList<>();
-    return result;
+  public SqlSelector incremental(String watermarkKey, String identityKey){
+    return incremental(watermarkKey, identityKey, null);
   }
 
   /**
-   * TREVOR: fill this in
-   * @param path
-   * @param sql
-   * @return
+   * Makes the next list put by {@link #putListQueryByPath(String, String)} refreshable: later, only the rows that changed
+   * since are queried and merged into it (See {@link #refreshListByPath(String, String)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The watermark key is a key of the rows whose value grows every time a row changes, such as an updated-at timestamp
+   *   or a version number; the list remembers the largest value it holds. The identity key is a key of the rows that
+   *   identifies a row, such as its primary key. The tombstone key, if not null, is a key of the rows that is set (not
+   *   null, false, 0 or 'N') on rows that were deleted, as in a soft-delete column; the first query can leave deleted rows
+   *   out.
+   * </p>
+   * @param watermarkKey the key of the value that grows every time a row changes
+   * @param identityKey the key that identifies a row
+   * @param tombstoneKey the key that marks a deleted row, or null if rows are never deleted
+   * @return the instance of SqlSelector (for chaining)
    */
-  public SqlSelector putMapQueryByPath(String path, String sql){
-    if(results == null){
-      results = new MapTree();
-    }
-    results.putByPathUnique(path, queryForMap(sql));
+  public SqlSelector incremental(String watermarkKey, String identityKey, String tombstoneKey){
+    pendingIncremental = new IncrementalList(watermarkKey, identityKey, tombstoneKey, MappingPlan.EMPTY, null);
     return this;
   }
 
   /**
-   * Queries for and returns a Map of objects
-   *
-   * <p><b>Details:</b></p>
-   * ...
+   * Brings a list put with {@link #incremental(String, String, String)} up to date, querying only the rows that changed.
    *
-   * @param sql the SQL query to be executed
+   * <p>
+   *   <b>Details:</b>
+   *   {@code deltaSql} is bound, on top of the current parameters, the watermark of the list as {@code :watermark} (for
+   *   example {@code "... where updated_at >= :watermark"}), and is mapped with the mappings of the first query unless new
+   *   ones are given. Each row it returns is merged by its identity key: a row already in the list is updated in place, so
+   *   the rows joined into it by {@link #joinToListByPath(String, String)} stay; a new row is added at the end; a row with
+   *   its tombstone set is removed. The watermark then moves to the largest value seen. Comparing with {@code >=} rather
+   *   than {@code >} also fetches the rows changed at the very time of the watermark, which may have been committed after
+   *   it was read; merging a row twice does no harm. New rows have nothing joined into them, nor do updated rows get the
+   *   changes of their children; see {@link #joinToRefreshedListByPath(String, String, String)}. While the list has no
+   *   watermark (it is empty, or none of its rows has a watermark value), the query that loaded it is run again instead
+   *   of {@code deltaSql}, and its rows merged the same way, since there is nothing to compare changes with.
+   * </p>
+   * @param path the path of the list
+   * @param deltaSql the SQL query for the rows changed since {@code :watermark}
    * @return the instance of SqlSelector (for chaining)
    */
-  public MapTree queryForMap(String sql, boolean ignoreEmptyResult){
-    if(params == null){
-      params = new MapSqlParameterSource();
+  public SqlSelector refreshListByPath(String path, String deltaSql){
+    IncrementalList incremental = incrementalList(path);
+    requireResults();
+    List<MapTree> list = (List)results.getByPath(path);
+    if(list == null){
+      throw new IllegalStateException("There is no list at '" + path + "' to refresh");
     }
-    try {
-      Map<String, Object> row = namedParameterJdbcTemplate.queryForMap(
-        sql,
-        params
-      );
-      MapTree result = getMapFromRow(row);
-      mappings = new ArrayList<>();
-      return result;
-    }catch(EmptyResultDataAccessException e){
-      if(!ignoreEmptyResult){
-        logger.warning("EmptyResultDataAccessException occurred in SqlSelector::queryForMap");
-        logger.warning(ExceptionUtils.getStackTrace(e));
-      }
-      return new MapTree();
+    MapSqlParameterSource deltaParams = snapshotParams();
+    Object watermark = incremental.watermark(list);
+    MappingPlan plan = mappings == null || mappings.isEmpty() ? incremental.plan : plan();
+    mappings = new ArrayList<>();
+    cachePolicy = null;
+    if(watermark == null){
+      incremental.merge(list, queryForList(NamedSql.parse(incremental.sql), deltaParams, incremental.plan));
+      return this;
     }
-  }
-  public MapTree queryForMap(String sql){
-    return queryForMap(sql, true);
+    deltaParams.addValue(WATERMARK_PARAM, watermark);
+    incremental.merge(list, queryForList(NamedSql.parse(deltaSql), deltaParams, plan));
+    return this;
+  }
+
+  /**
+   * Joins data retrieved from the {@code sql} query into the rows added or updated by the last
+   * {@link #refreshListByPath(String, String)} at {@code path}, replacing what was joined into them before.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Works like {@link #joinToListByPath(String, String, String)}, with the parents limited to the rows that changed, so
+   *   its cost is proportional to them as well. The join mappings are set with {@link #on(String, String, String)}
+   *   beforehand, as for any join; the lists they name are emptied on the changed rows before the new children are joined.
+   * </p>
+   * @param path the path of the refreshed list
+   * @param sql the SQL query to be executed, the results of which will be joined with the rows that changed
+   * @param keysParam the name of the parameter to bind the parent keys to
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector joinToRefreshedListByPath(String path, String sql, String keysParam){
+    List<MapTree> parents = incrementalList(path).changed();
+    if(joinMappings == null || joinMappings.isEmpty()){
+      throw new IllegalStateException("on must be called before joinToRefreshedListByPath");
+    }
+    for(MapTree parent : parents){
+      for(JoinMapping mapping : joinMappings){
+        mapping.childList(parent).clear();
+      }
+    }
+    joinByKeys(parents, sql, keysParam);
+    return this;
+  }
+
+  private IncrementalList incrementalList(String path){
+    IncrementalList incremental = incrementalLists == null ? null : incrementalLists.get(path);
+    if(incremental == null){
+      throw new IllegalStateException("The list at '" + path + "' wasn't put by putListQueryByPath after incremental()");
+    }
+    return incremental;
+  }
+
+  private static SqlParameterSource chunkParams(MapSqlParameterSource globals, String keysParam, List<Object> chunk){
+    MapSqlParameterSource chunkParams = copyParams(globals);
+    chunkParams.addValue(keysParam, new ArrayList<>(chunk));
+    return chunkParams;
+  }
+
+  /**
+   * Sets the maximum number of keys bound per query by {@link #joinToListByPath(String, String, String)}.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Databases and drivers limit the number of parameters of a statement (Oracle allows 1000 items in an IN list, SQL
+   *   Server 2100 parameters), so the keys are split into chunks of at most this many. Defaults to 1000.
+   * </p>
+   * @param inChunkSize the maximum number of keys per query
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector inChunkSize(int inChunkSize){
+    this.inChunkSize = inChunkSize;
+    return this;
+  }
+
+  /**
+   * Runs the chunks of {@link #joinToListByPath(String, String, String)} in parallel, on the executor of the
+   * {@link SqlExecutorFactory}, within its concurrency limit and the timeout set by {@link #timeout(long, TimeUnit)}.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Each chunk runs on its own connection, on another thread, so the chunks don't take part in the caller's transaction
+   *   and don't see its uncommitted writes; if the data changes while they run, they can see different states of it.
+   * </p>
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector parallelChunks(){
+    this.parallelChunks = true;
+    return this;
+  }
+
+  /**
+   * Splits the next query into ranges of {@code column}, which are queried concurrently, each on its own connection.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Applies to the next call to {@link #queryForList(String)}, {@link #forEachRow(String, Consumer)} or
+   *   {@link #writeListJson(String, Writer)} (or the {@code put...QueryByPath} function that calls one of them). First the
+   *   smallest and largest values of {@code column} are queried; the values between them are split into
+   *   {@code parallelism} ranges of equal width, and the query is run once for each range (and once for the rows where
+   *   {@code column} is null), on the executor of the {@link SqlExecutorFactory}, no more than {@code parallelism} at a
+   *   time and within its concurrency limit (See {@link SqlExecutorFactory#setMaxConcurrency(int)}); the timeout set by
+   *   {@link #timeout(long, TimeUnit)} applies to each range. Each range is mapped (or written as JSON) on the thread that
+   *   queried it. The rows come back range by range, in the order of {@code column}, unless {@link #unordered()} is
+   *   called; within a range they come in the order of the database. {@code column} is a column of the results of the
+   *   query, numeric or a date, ideally indexed; the query must not have an ORDER BY of its own. Since the ranges run on
+   *   other threads, they don't take part in the caller's transaction, and if the data changes while they run, they can see
+   *   different states of it. Results aren't cached.
+   * </p>
+   * @param column the partition column
+   * @param parallelism the number of ranges to split the values of the column into
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector partitioned(String column, int parallelism){
+    this.partitioning = new Partitioning(column, parallelism, null, true);
+    return this;
+  }
+
+  /**
+   * Splits the next query into ranges of {@code column} at the given boundaries (See {@link #partitioned(String, int)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Skips the query for the smallest and largest values, and lets ranges follow the distribution of the data (quantiles,
+   *   say) rather than split it evenly. The ranges are {@code column < b1}, {@code b1 <= column < b2}, ...,
+   *   {@code column >= bk}, and the nulls.
+   * </p>
+   * @param column the partition column
+   * @param boundaries the boundaries between the ranges, in ascending order
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector partitionedAt(String column, Object... boundaries){
+    this.partitioning = new Partitioning(column, boundaries.length + 2, Arrays.asList(boundaries), true);
+    return this;
+  }
+
+  /**
+   * Takes the ranges of a partitioned query as they finish rather than in order (See {@link #partitioned(String, int)}).
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector unordered(){
+    if(partitioning == null){
+      throw new IllegalStateException("unordered() applies to a partitioned query; call partitioned() first");
+    }
+    this.partitioning = partitioning.unordered();
+    return this;
+  }
+
+  /**
+   * Runs the ranges of the next query concurrently, and hands the result of each to {@code merge} on the calling thread, in
+   * order or as they finish (See {@link #partitioned(String, int)}).
+   */
+  private <T> void queryPartitions(String sql, final BiFunction<NamedSql, SqlParameterSource, T> task, Consumer<T> merge){
+    Partitioning partitioning = this.partitioning;
+    this.partitioning = null;
+    if(factory == null){
+      throw new IllegalStateException("Partitioned queries run on the executor of a SqlExecutorFactory");
+    }
+    List<Object> boundaries = partitioning.boundaries;
+    if(boundaries == null){
+      final Object[] bounds = new Object[2];
+      MapSqlParameterSource boundsParams = snapshotParams();
+      NamedSql boundsSql = NamedSql.parse(partitioning.boundsSql(sql));
+      query(boundsSql.creator(boundsParams, 0), new RowCallbackHandler(){
+        public void processRow(ResultSet rs) throws SQLException {
+          bounds[0] = JdbcUtils.getResultSetValue(rs, 1);
+          bounds[1] = JdbcUtils.getResultSetValue(rs, 2);
+        }
+      }, record("partitionBounds", boundsSql.getSql(), boundsParams));
+      boundaries = Partitioning.split(bounds[0], bounds[1], partitioning.parallelism);
+    }
+    final List<Partitioning.Range> ranges = partitioning.ranges(sql, boundaries);
+    final List<MapSqlParameterSource> rangeParams = new ArrayList<>(ranges.size());
+    final List<CompletableFuture<T>> futures = new ArrayList<>(ranges.size());
+    for(Partitioning.Range range : ranges){
+      rangeParams.add(range.bind(snapshotParams()));
+      futures.add(new CompletableFuture<T>());
+    }
+    final BlockingQueue<CompletableFuture<T>> finished = new LinkedBlockingQueue<>();
+    final AtomicInteger next = new AtomicInteger();
+    // Starts the next range that wasn't cancelled. Each range starts the one after it when it finishes, so no more than
+    // parallelism ranges are in flight at once.
+    final Runnable startNext = new Runnable(){
+      public void run(){
+        int i = next.getAndIncrement();
+        while(i < ranges.size() && futures.get(i).isDone()){
+          i = next.getAndIncrement();
+        }
+        if(i >= ranges.size()){
+          return;
+        }
+        final Partitioning.Range range = ranges.get(i);
+        final MapSqlParameterSource params = rangeParams.get(i);
+        final CompletableFuture<T> future = futures.get(i);
+        final Runnable startNext = this;
+        try {
+          final CompletableFuture<T> running = async(new Supplier<T>(){
+            public T get(){
+              return task.apply(range.sql, params);
+            }
+          });
+          future.whenComplete(new BiConsumer<T, Throwable>(){
+            public void accept(T result, Throwable failure){
+              if(failure instanceof CancellationException){
+                running.cancel(true);
+              }
+            }
+          });
+          running.whenComplete(new BiConsumer<T, Throwable>(){
+            public void accept(T result, Throwable failure){
+              if(failure == null){
+                future.complete(result);
+              }else{
+                future.completeExceptionally(failure);
+              }
+              finished.add(future);
+              startNext.run();
+            }
+          });
+        }catch(RuntimeException e){
+          future.completeExceptionally(e);
+          finished.add(future);
+        }
+      }
+    };
+    for(int i = 0; i < Math.min(Math.max(1, partitioning.parallelism), ranges.size()); i++){
+      startNext.run();
+    }
+    boolean merged = false;
+    try {
+      for(int i = 0; i < futures.size(); i++){
+        merge.accept((partitioning.ordered ? futures.get(i) : finished.take()).join());
+      }
+      merged = true;
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for the ranges of a partitioned query");
+    }catch(CompletionException e){
+      if(e.getCause() instanceof RuntimeException){
+        throw (RuntimeException)e.getCause();
+      }
+      throw e;
+    }finally{
+      if(!merged){
+        for(CompletableFuture<T> future : futures){
+          future.cancel(true);
+        }
+      }
+    }
+  }
+
+  private void requireResults(){
+    if(jsonOutput != null){
+      throw new IllegalStateException("Joins need the results in memory, so they can't be used while writing JSON");
+    }
+    execute();
+  }
+
+  private void joinChildren(List<MapTree> parents, List<MapTree> children, String sql){
+    join(parents, children, joinMappings, mergeJoin, sql);
+    joinMappings = null;
+    mergeJoin = false;
+  }
+
+  private void join(List<MapTree> parents, List<MapTree> children, List<JoinMapping> joinMappings, boolean mergeJoin, String sql){
+    SqlEvent.Recorder recorder = record("join", sql, null);
+    if(recorder == null){
+      JoinEngine.join(parents, children, joinMappings, mergeJoin);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      JoinEngine.join(parents, children, joinMappings, mergeJoin);
+    }catch(RuntimeException e){
+      recorder.finish(e);
+      throw e;
+    }
+    recorder.executeNanos = 0;
+    recorder.joinNanos = System.nanoTime() - start;
+    recorder.rows = children.size();
+    recorder.finish();
+  }
+
+  /**
+   * Returns the results of this SqlSelector, running any deferred queries first (See {@link #deferred()}).
+   *
+   * @return the results
+   */
+  public MapTree getResults(){
+    execute();
+    return results;
+  }
+
+  /**
+   * Defers the queries of this SqlSelector, so that they can run concurrently.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   After this is called, {@link #putListQueryByPath(String, String)}, {@link #putMapQueryByPath(String, String)} and
+   *   {@link #putObjectQueryByPath(String, String)} only record their query, together with a snapshot of the current
+   *   parameters and mappings (so the next section can go on to set its own). The recorded queries run concurrently, each on
+   *   its own connection, on the executor of the {@link SqlExecutorFactory} when {@link #execute()} or
+   *   {@link #getResults()} is called, or before a join, which needs the results. The results are put at their paths in the
+   *   order the queries were recorded. Each query runs within the concurrency limit of the factory (See
+   *   {@link SqlExecutorFactory#setMaxConcurrency(int)}) and the timeout set by {@link #timeout(long, TimeUnit)}. Since they
+   *   run on other threads, deferred queries don't take part in the caller's transaction.
+   * </p>
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector deferred(){
+    if(factory == null){
+      throw new IllegalStateException("A SqlSelector not created by a SqlExecutorFactory needs an executor to defer queries");
+    }
+    return deferred(factory.getExecutor());
+  }
+
+  /**
+   * Defers the queries of this SqlSelector, running them on {@code executor} (See {@link #deferred()}).
+   * @param executor the executor to run the deferred queries on
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector deferred(Executor executor){
+    this.deferredExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Runs the deferred queries concurrently and puts their results at their paths (See {@link #deferred()}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Waits for every query to finish. If any of them fails, the ones still running are cancelled and the first failure is
+   *   thrown; nothing is put in the results in that case.
+   * </p>
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector execute(){
+    if(sections == null || sections.isEmpty()){
+      return this;
+    }
+    List<Section> pending = sections;
+    sections = null;
+    List<CompletableFuture<Object>> futures = new ArrayList<>(pending.size());
+    for(final Section section : pending){
+      Supplier<Object> task = new Supplier<Object>(){
+        public Object get(){
+          return run(section);
+        }
+      };
+      futures.add(factory != null ? async(deferredExecutor, task) : CompletableFuture.supplyAsync(task, deferredExecutor));
+    }
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[]{})).join();
+    }catch(CompletionException e){
+      for(CompletableFuture<Object> future : futures){
+        future.cancel(true);
+      }
+      if(e.getCause() instanceof RuntimeException){
+        throw (RuntimeException)e.getCause();
+      }
+      throw e;
+    }
+    if(results == null){
+      results = new MapTree();
+    }
+    for(int i = 0; i < pending.size(); i++){
+      results.putByPathUnique(pending.get(i).path, futures.get(i).join());
+    }
+    return this;
+  }
+
+  private boolean defer(String path, SectionKind kind, String sql){
+    if(deferredExecutor == null){
+      return false;
+    }
+    if(sections == null){
+      sections = new ArrayList<>();
+    }
+    sections.add(new Section(path, kind, sql, snapshotParams(), plan(), null, takeCachePolicy()));
+    mappings = new ArrayList<>();
+    return true;
+  }
+
+  private Object run(final Section section){
+    switch(section.kind){
+      case LIST:
+        return cached(section.policy, "list", section.sql, section.params, section.plan, new Supplier<List<MapTree>>(){
+          public List<MapTree> get(){
+            return queryForList(section.sql, section.params, section.plan);
+          }
+        });
+      case MAP:
+        return cached(section.policy, "map", section.sql, section.params, section.plan, new Supplier<MapTree>(){
+          public MapTree get(){
+            return queryForMap(section.sql, section.params, section.plan, true);
+          }
+        });
+      case GROUPED:
+        return queryForGroupedList(section.sql, section.params, section.collapse);
+      default:
+        return cached(section.policy, Object.class.getName(), section.sql, section.params, null, new Supplier<Object>(){
+          public Object get(){
+            return queryForObject(section.sql, section.params, Object.class);
+          }
+        });
+    }
+  }
+
+  /**
+   * Writes the results of this SqlSelector to {@code writer} as JSON, instead of building them as a MapTree.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   After this is called, {@link #putListQueryByPath(String, String)}, {@link #putMapQueryByPath(String, String)} and
+   *   {@link #putObjectQueryByPath(String, String)} write their results to {@code writer} as soon as they are queried,
+   *   nested by their paths just like they would be in the MapTree, and {@link #getResults()} returns null. Rows are written
+   *   as they are read from the ResultSet, so a large list is never held in memory. Sections that share a parent path must be
+   *   put one after the other. Call {@link #finishJson()} once the last section is put. Joins need the results in memory and
+   *   can't be used in this mode.
+   * </p>
+   * @param writer the Writer to write the JSON to
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector writeJsonTo(Writer writer){
+    jsonOutput = new JsonOutput(writer);
+    return this;
+  }
+
+  /**
+   * Writes the results of this SqlSelector to {@code out} as UTF-8 encoded JSON (See {@link #writeJsonTo(Writer)}).
+   * @param out the OutputStream to write the JSON to
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector writeJsonTo(OutputStream out){
+    return writeJsonTo(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Finishes the JSON document started by {@link #writeJsonTo(Writer)} and flushes it.
+   */
+  public void finishJson(){
+    try {
+      jsonOutput.finish();
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+    jsonOutput = null;
+  }
+
+  /**
+   * Queries for and writes a List of Maps of objects as a JSON array
+   *
+   * <p><b>Details:</b></p>
+   * Each row is written to {@code writer} as it is read from the ResultSet, shaped by the mappings created by
+   * {@link #map(String, String, Transformer)}, without building a MapTree for it. The writer is flushed, not closed.
+   *
+   * @param sql the SQL query to be executed
+   * @param writer the Writer to write the JSON to
+   */
+  public void writeListJson(String sql, Writer writer){
+    JsonWriter json = new JsonWriter(writer);
+    writeList(sql, json);
+    try {
+      json.flush();
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeList(String sql, final JsonWriter json){
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    cachePolicy = null;
+    if(partitioning != null){
+      final MappingPlan plan = plan();
+      try {
+        json.beginArray();
+        queryPartitions(sql, new BiFunction<NamedSql, SqlParameterSource, String>(){
+          public String apply(NamedSql range, SqlParameterSource rangeParams){
+            StringWriter part = new StringWriter();
+            writeList(range, rangeParams, plan, new JsonWriter(part));
+            return part.toString();
+          }
+        }, new Consumer<String>(){
+          public void accept(String part){
+            try {
+              json.elements(part);
+            }catch(IOException e){
+              throw new UncheckedIOException(e);
+            }
+          }
+        });
+        json.endArray();
+      }catch(IOException e){
+        throw new UncheckedIOException(e);
+      }
+    }else{
+      writeList(NamedSql.parse(sql), params, plan(), json);
+    }
+    mappings = new ArrayList<>();
+  }
+
+  private void writeList(NamedSql sql, SqlParameterSource params, MappingPlan plan, final JsonWriter json){
+    final MappingRowMapper rowMapper = new MappingRowMapper(plan);
+    try {
+      json.beginArray();
+      query(
+        sql.creator(params, fetchSize),
+        new RowCallbackHandler(){
+          private int rowNum;
+          public void processRow(ResultSet rs) throws SQLException {
+            try {
+              rowMapper.writeJson(rs, rowNum++, json);
+            }catch(IOException e){
+              throw new UncheckedIOException(e);
+            }
+          }
+        },
+        record("writeListJson", sql.getSql(), params)
+      );
+      json.endArray();
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private JsonWriter jsonSection(String path){
+    try {
+      return jsonOutput.section(path);
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeJsonValue(String path, Object value){
+    try {
+      jsonSection(path).value(value);
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * TREVOR: fill this in
+   * @param path
+   * @param sql
+   * @return
+   */
+  public SqlSelector putObjectQueryByPath(String path, String sql){
+    if(jsonOutput == null && defer(path, SectionKind.OBJECT, sql)){
+      return this;
+    }
+    if(jsonOutput != null){
+      writeJsonValue(path, queryForObject(sql));
+      return this;
+    }
+    if(results == null){
+      results = new MapTree();
+    }
+    results.putByPathUnique(path, queryForObject(sql));
+    return this;
+  }
+
+  public Object queryForObject(String sql){
+    return queryForObject(sql, Object.class);
+  }
+
+  /**
+   * Queries for and returns a single object
+   *
+   * <p><b>Details:</b></p>
+   * ...
+   *
+   * @param sql the SQL query to be executed
+   * @return the result of the SQL query
+   */
+  public <T> T queryForObject(final String sql, final Class<T> type){
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    T result = cached(takeCachePolicy(), type.getName(), sql, params, null, new Supplier<T>(){
+      public T get(){
+        return queryForObject(sql, params, type);
+      }
+    });
+    mappings = new ArrayList<>();
+    return result;
+  }
+
+  private <T> T queryForObject(String sql, SqlParameterSource params, Class<T> type){
+    final List<T> values = new ArrayList<>(1);
+    final SingleColumnRowMapper<T> rowMapper = new SingleColumnRowMapper<>(type);
+    query(
+      NamedSql.parse(sql).creator(params, fetchSize),
+      new RowCallbackHandler(){
+        public void processRow(ResultSet rs) throws SQLException {
+          values.add(rowMapper.mapRow(rs, values.size()));
+        }
+      },
+      record("queryForObject", sql, params)
+    );
+    if(values.size() != 1){
+      throw values.isEmpty() ? new EmptyResultDataAccessException(1) : new IncorrectResultSizeDataAccessException(1, values.size());
+    }
+    return values.get(0);
+  }
+
+  /**
+   * TREVOR: fill this in
+   * @param path
+   * @param sql
+   * @return
+   */
+  public SqlSelector putMapQueryByPath(String path, String sql){
+    if(jsonOutput == null && defer(path, SectionKind.MAP, sql)){
+      return this;
+    }
+    if(jsonOutput != null){
+      writeJsonValue(path, queryForMap(sql));
+      return this;
+    }
+    if(results == null){
+      results = new MapTree();
+    }
+    results.putByPathUnique(path, queryForMap(sql));
+    return this;
+  }
+
+  /**
+   * Queries for and returns a Map of objects
+   *
+   * <p><b>Details:</b></p>
+   * ...
+   *
+   * @param sql the SQL query to be executed
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public MapTree queryForMap(final String sql, final boolean ignoreEmptyResult){
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    final MappingPlan plan = plan();
+    MapTree result = cached(takeCachePolicy(), "map", sql, params, plan, new Supplier<MapTree>(){
+      public MapTree get(){
+        return queryForMap(sql, params, plan, ignoreEmptyResult);
+      }
+    });
+    mappings = new ArrayList<>();
+    return result;
+  }
+
+  private MapTree queryForMap(String sql, SqlParameterSource params, MappingPlan plan, boolean ignoreEmptyResult){
+    return queryForMap(NamedSql.parse(sql), params, plan, ignoreEmptyResult);
+  }
+
+  private MapTree queryForMap(NamedSql sql, SqlParameterSource params, MappingPlan plan, boolean ignoreEmptyResult){
+    final List<MapTree> rows = new ArrayList<>(1);
+    final MappingRowMapper rowMapper = new MappingRowMapper(plan);
+    try {
+      query(
+        sql.creator(params, fetchSize),
+        new RowCallbackHandler(){
+          public void processRow(ResultSet rs) throws SQLException {
+            rows.add(rowMapper.mapRow(rs, rows.size()));
+          }
+        },
+        record("queryForMap", sql.getSql(), params)
+      );
+      return DataAccessUtils.requiredSingleResult(rows);
+    }catch(EmptyResultDataAccessException e){
+      if(!ignoreEmptyResult){
+        logger.warning("EmptyResultDataAccessException occurred in SqlSelector::queryForMap");
+        logger.warning(ExceptionUtils.getStackTrace(e));
+      }
+      return new MapTree();
+    }
+  }
+  public MapTree queryForMap(String sql){
+    return queryForMap(sql, true);
   }
 
   /**
@@ -271,6 +1382,24 @@ public class SqlSelector extends SqlExecutor {
    * @return
    */
   public SqlSelector putListQueryByPath(String path, String sql){
+    if(pendingIncremental != null){
+      if(jsonOutput != null){
+        throw new IllegalStateException("Incremental lists need the results in memory, so they can't be used while writing JSON");
+      }
+      if(incrementalLists == null){
+        incrementalLists = new HashMap<>();
+      }
+      IncrementalList incremental = pendingIncremental;
+      incrementalLists.put(path, new IncrementalList(incremental.watermarkKey, incremental.identityKey, incremental.tombstoneKey, plan(), sql));
+      pendingIncremental = null;
+    }
+    if(jsonOutput == null && defer(path, SectionKind.LIST, sql)){
+      return this;
+    }
+    if(jsonOutput != null){
+      writeList(sql, jsonSection(path));
+      return this;
+    }
     if(results == null){
       results = new MapTree();
     }
@@ -287,47 +1416,390 @@ public class SqlSelector extends SqlExecutor {
    * @param sql the SQL query to be executed
    * @return the instance of SqlSelector (for chaining)
    */
-  public List<MapTree> queryForList(String sql){
+  public List<MapTree> queryForList(final String sql){
     if(params == null){
       params = new MapSqlParameterSource();
     }
-    List<MapTree> list = new ArrayList<>();
-    List<Map<String, Object>> rows = namedParameterJdbcTemplate.queryForList(
-      sql,
-      params
-    );
-    for(Map<String, Object> row : rows){
-      list.add(getMapFromRow(row));
+    final MappingPlan plan = plan();
+    if(partitioning != null){
+      final List<MapTree> list = new ArrayList<>();
+      cachePolicy = null;
+      queryPartitions(sql, new BiFunction<NamedSql, SqlParameterSource, List<MapTree>>(){
+        public List<MapTree> apply(NamedSql range, SqlParameterSource rangeParams){
+          return queryForList(range, rangeParams, plan);
+        }
+      }, new Consumer<List<MapTree>>(){
+        public void accept(List<MapTree> part){
+          list.addAll(part);
+        }
+      });
+      mappings = new ArrayList<>();
+      return list;
     }
+    List<MapTree> list = cached(takeCachePolicy(), "list", sql, params, plan, new Supplier<List<MapTree>>(){
+      public List<MapTree> get(){
+        return queryForList(sql, params, plan);
+      }
+    });
     mappings = new ArrayList<>();
     return list;
   }
-  private MapTree getMapFromRow(Map row){
-    MapTree map = new MapTree();
-    if(mappings != null){
-      for(Mapping mapping : mappings){
-        Object value = row.get(mapping.key);
-        if(mapping.transformer != null){
-          value = mapping.transformer.transform(value, row);
+
+  private List<MapTree> queryForList(String sql, SqlParameterSource params, MappingPlan plan){
+    return queryForList(NamedSql.parse(sql), params, plan);
+  }
+
+  private List<MapTree> queryForList(NamedSql sql, SqlParameterSource params, MappingPlan plan){
+    final List<MapTree> list = new ArrayList<>();
+    forEachRow("queryForList", sql, params, plan, new Consumer<MapTree>(){
+      public void accept(MapTree row){
+        list.add(row);
+      }
+    });
+    return list;
+  }
+
+  /**
+   * Queries for and passes each row, as a Map of objects, to {@code action}
+   *
+   * <p><b>Details:</b></p>
+   * Each row is mapped (using the mappings created by {@link #map(String, String, Transformer)}) as it is read from the
+   * ResultSet and handed to {@code action} straight away, so no more than one row is held in memory at a time (See
+   * {@link #fetchSize(int)}).
+   *
+   * @param sql the SQL query to be executed
+   * @param action the callback to pass each row to
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector forEachRow(String sql, final Consumer<MapTree> action){
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    cachePolicy = null;
+    if(partitioning != null){
+      final MappingPlan plan = plan();
+      queryPartitions(sql, new BiFunction<NamedSql, SqlParameterSource, List<MapTree>>(){
+        public List<MapTree> apply(NamedSql range, SqlParameterSource rangeParams){
+          return queryForList(range, rangeParams, plan);
+        }
+      }, new Consumer<List<MapTree>>(){
+        public void accept(List<MapTree> part){
+          for(MapTree row : part){
+            action.accept(row);
+          }
+        }
+      });
+    }else{
+      forEachRow("forEachRow", NamedSql.parse(sql), params, plan(), action);
+    }
+    mappings = new ArrayList<>();
+    return this;
+  }
+
+  private void forEachRow(String operation, NamedSql sql, SqlParameterSource params, MappingPlan plan, final Consumer<MapTree> action){
+    final MappingRowMapper rowMapper = new MappingRowMapper(plan);
+    query(
+      sql.creator(params, fetchSize),
+      new RowCallbackHandler(){
+        private int rowNum;
+        public void processRow(ResultSet rs) throws SQLException {
+          action.accept(rowMapper.mapRow(rs, rowNum++));
+        }
+      },
+      record(operation, sql.getSql(), params)
+    );
+  }
+
+  /**
+   * Queries for a List of Maps of objects one page at a time, using keyset pagination (See {@link PageIterator})
+   *
+   * <p><b>Details:</b></p>
+   * Each page holds up to {@code pageSize} rows, ordered by {@code keyColumns} (ascending), mapped with the mappings created
+   * by {@link #map(String, String, Transformer)}. The key columns are columns of the results of {@code sql} that are never
+   * null and, together, unique; an index on them makes every page cheap however far into the results it is. {@code sql}
+   * must not have an ORDER BY of its own. While the caller processes a page, the next one is fetched in the background; it
+   * runs on another thread, so it doesn't take part in the caller's transaction.
+   *
+   * @param sql the SQL query to be executed
+   * @param pageSize the maximum number of rows per page
+   * @param keyColumns the columns that order the rows and identify the last row of a page
+   * @return an iterator over the pages, which should be closed if it isn't read to the end
+   */
+  public PageIterator queryForPages(String sql, int pageSize, String... keyColumns){
+    PageIterator pages = new PageIterator(this, sql, snapshotParams(), plan(), keyColumns, pageSize, factory != null);
+    mappings = new ArrayList<>();
+    cachePolicy = null;
+    return pages;
+  }
+
+  /**
+   * Fetches one page of {@link #queryForPages(String, int, String...)}, reading the keys of its last row as it goes.
+   */
+  PageIterator.Page queryForPage(NamedSql sql, SqlParameterSource params, MappingPlan plan, final String[] keys, int pageSize){
+    final List<MapTree> rows = new ArrayList<>(pageSize);
+    final Object[] lastKeys = new Object[keys.length];
+    final MappingRowMapper rowMapper = new MappingRowMapper(plan);
+    query(
+      sql.creator(params, fetchSize == 0 ? pageSize : fetchSize, pageSize),
+      new RowCallbackHandler(){
+        private int[] keyColumns;
+        public void processRow(ResultSet rs) throws SQLException {
+          if(keyColumns == null){
+            keyColumns = MappingRowMapper.resolveColumns(rs.getMetaData(), keys);
+            for(int k = 0; k < keys.length; k++){
+              if(keyColumns[k] == 0){
+                throw new IllegalArgumentException("The key column '" + keys[k] + "' is not in the results of the query");
+              }
+            }
+          }
+          for(int k = 0; k < keys.length; k++){
+            lastKeys[k] = JdbcUtils.getResultSetValue(rs, keyColumns[k]);
+          }
+          rows.add(rowMapper.mapRow(rs, rows.size()));
+        }
+      },
+      record("queryForPages", sql.getSql(), params)
+    );
+    return new PageIterator.Page(rows, lastKeys);
+  }
+
+  /**
+   * Queries for and returns a Stream of Maps of objects
+   *
+   * <p><b>Details:</b></p>
+   * Rows are read from the ResultSet and mapped lazily, as the stream is consumed, so memory stays flat however many rows
+   * the query returns (See {@link #fetchSize(int)}). The stream holds a connection until it is closed; it must always be
+   * closed, ideally with try-with-resources.
+   *
+   * @param sql the SQL query to be executed
+   * @return a Stream of the mapped rows, which must be closed
+   */
+  public Stream<MapTree> queryForStream(String sql){
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    cachePolicy = null;
+    Replica replica = factory == null ? null : factory.routeRead(callerKey);
+    Stream<MapTree> stream = RowStream.open(
+      (replica == null ? namedParameterJdbcTemplate : replica.template).getJdbcTemplate(),
+      NamedSql.parse(sql).creator(params, fetchSize),
+      new MappingRowMapper(plan()),
+      record("queryForStream", sql, params)
+    );
+    mappings = new ArrayList<>();
+    return stream;
+  }
+
+  /**
+   * Queries for the rows of a large, mostly numeric result, held column by column in primitive arrays (See
+   * {@link ColumnarResult})
+   *
+   * <p><b>Details:</b></p>
+   * Every column of the query is read, by its SQL type, into an array of ints, longs or doubles with a BitSet of its nulls,
+   * or into a dictionary-encoded column of strings, so no value is boxed and no row gets a MapTree of its own; a report of
+   * hundreds of thousands of rows takes a fraction of the memory of {@link #queryForList(String)}. The columns can be
+   * filtered and aggregated as they are, and {@link ColumnarResult#toRows()} maps them (using the mappings created by
+   * {@link #map(String, String, Transformer)}) to the rows queryForList would have returned. Results aren't cached.
+   *
+   * @param sql the SQL query to be executed
+   * @return the columns of the results
+   */
+  public ColumnarResult queryForColumns(String sql){
+    if(params == null){
+      params = new MapSqlParameterSource();
+    }
+    cachePolicy = null;
+    ColumnarResult.Reader reader = new ColumnarResult.Reader(plan());
+    query(NamedSql.parse(sql).creator(params, fetchSize), reader, record("queryForColumns", sql, params));
+    mappings = new ArrayList<>();
+    return reader.result();
+  }
+
+  /**
+   * Sets the timeout of the asynchronous queries of this SqlSelector (See {@link #queryForListAsync(String)}).
+   *
+   * <p><b>Details:</b></p>
+   * Once the timeout expires, the future of the query fails with a TimeoutException and the running statement is cancelled.
+   * The timeout is also set as the query timeout of the statements, rounded up to whole seconds.
+   *
+   * @param timeout the timeout, or 0 for none (the default)
+   * @param unit the unit of {@code timeout}
+   * @return the instance of SqlSelector (for chaining)
+   */
+  public SqlSelector timeout(long timeout, TimeUnit unit){
+    this.timeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
+  /**
+   * Queries for a List of Maps of objects (See {@link #queryForList(String)}) on the executor of the factory, without
+   * blocking the calling thread.
+   *
+   * <p><b>Details:</b></p>
+   * The current parameters and mappings are captured when this is called, so the next query can go on to set its own. The
+   * query runs within the limit of {@link SqlExecutorFactory#setMaxConcurrency(int)} and the timeout set by
+   * {@link #timeout(long, TimeUnit)}; cancelling the future cancels the query. Since it runs on another thread, it doesn't
+   * take part in the caller's transaction.
+   *
+   * @param sql the SQL query to be executed
+   * @return a future of the results
+   */
+  public CompletableFuture<List<MapTree>> queryForListAsync(final String sql){
+    final MapSqlParameterSource params = snapshotParams();
+    final MappingPlan plan = plan();
+    final ResultCache.Policy policy = takeCachePolicy();
+    mappings = new ArrayList<>();
+    return async(new Supplier<List<MapTree>>(){
+      public List<MapTree> get(){
+        return cached(policy, "list", sql, params, plan, new Supplier<List<MapTree>>(){
+          public List<MapTree> get(){
+            return queryForList(sql, params, plan);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Queries for a Map of objects (See {@link #queryForMap(String)}) without blocking the calling thread (See
+   * {@link #queryForListAsync(String)}).
+   *
+   * @param sql the SQL query to be executed
+   * @return a future of the result
+   */
+  public CompletableFuture<MapTree> queryForMapAsync(final String sql){
+    final MapSqlParameterSource params = snapshotParams();
+    final MappingPlan plan = plan();
+    final ResultCache.Policy policy = takeCachePolicy();
+    mappings = new ArrayList<>();
+    return async(new Supplier<MapTree>(){
+      public MapTree get(){
+        return cached(policy, "map", sql, params, plan, new Supplier<MapTree>(){
+          public MapTree get(){
+            return queryForMap(sql, params, plan, true);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Queries for a single object (See {@link #queryForObject(String, Class)}) without blocking the calling thread (See
+   * {@link #queryForListAsync(String)}).
+   *
+   * @param sql the SQL query to be executed
+   * @param type the type of the object
+   * @return a future of the result
+   */
+  public <T> CompletableFuture<T> queryForObjectAsync(final String sql, final Class<T> type){
+    final MapSqlParameterSource params = snapshotParams();
+    final ResultCache.Policy policy = takeCachePolicy();
+    mappings = new ArrayList<>();
+    return async(new Supplier<T>(){
+      public T get(){
+        return cached(policy, type.getName(), sql, params, null, new Supplier<T>(){
+          public T get(){
+            return queryForObject(sql, params, type);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Runs a query on a read replica chosen by the factory (See {@link SqlExecutorFactory#addReadReplica(String, DataSource)}),
+   * or on the primary.
+   */
+  private void query(PreparedStatementCreator creator, RowCallbackHandler handler, SqlEvent.Recorder recorder){
+    Replica replica = factory == null ? null : factory.routeRead(callerKey);
+    if(replica != null){
+      try {
+        replica.query(creator, handler, recorder, factory.getEjectAfterFailures(), factory.getEjectionCooldownNanos());
+        return;
+      }catch(CannotGetJdbcConnectionException e){
+        // Nothing ran on the replica, so the query can safely run on the primary instead. The failed attempt has had its
+        // event, so the one on the primary gets an event of its own.
+        if(recorder != null){
+          recorder = recorder.retry();
         }
-        map.putByPathUnique(mapping.path, value);
       }
     }
-    return map;
+    QueryRunner.query(namedParameterJdbcTemplate.getJdbcOperations(), creator, handler, recorder);
+  }
+
+  /**
+   * Runs a {@link QueryDefinition} for a List, joining the child queries of the definition into it.
+   */
+  List<MapTree> queryForList(final QueryDefinition query, final SqlParameterSource params){
+    fetchSize = query.fetchSize;
+    List<MapTree> list = cached(policy(query), "list", query.sql.getSql(), params, query.plan, new Supplier<List<MapTree>>(){
+      public List<MapTree> get(){
+        return join(query, queryForList(query.sql, params, query.plan), params);
+      }
+    });
+    return list;
+  }
+
+  /**
+   * Runs a {@link QueryDefinition} for a single Map, joining the child queries of the definition into it.
+   */
+  MapTree queryForMap(final QueryDefinition query, final SqlParameterSource params){
+    fetchSize = query.fetchSize;
+    return cached(policy(query), "map", query.sql.getSql(), params, query.plan, new Supplier<MapTree>(){
+      public MapTree get(){
+        MapTree map = queryForMap(query.sql, params, query.plan, true);
+        if(!map.isEmpty()){
+          join(query, Collections.singletonList(map), params);
+        }
+        return map;
+      }
+    });
+  }
+
+  /**
+   * Runs a {@link QueryDefinition} for a single object.
+   */
+  <T> T queryForObject(final QueryDefinition query, final SqlParameterSource params, final Class<T> type){
+    return cached(policy(query), type.getName(), query.sql.getSql(), params, null, new Supplier<T>(){
+      public T get(){
+        return queryForObject(query.sql.getSql(), params, type);
+      }
+    });
   }
 
-  private class JoinMapping {
-    String parentKey;
-    String childKey;
-    String childPath;
-    public JoinMapping(String parentKey, String childKey, String childPath){
-      this.parentKey = parentKey;
-      this.childKey = childKey;
-      this.childPath = childPath;
+  private ResultCache.Policy policy(QueryDefinition query){
+    return factory == null || factory.getResultCache() == null ? null : query.cachePolicy;
+  }
+
+  private List<MapTree> join(QueryDefinition query, List<MapTree> parents, SqlParameterSource params){
+    for(QueryDefinition.Join join : query.joins){
+      List<MapTree> children = queryForList(join.child, params);
+      join(parents, children, join.mappings, join.mergeJoin, join.child.sql.getSql());
     }
+    return parents;
+  }
 
-    public String toString(){
-      return "["+parentKey+", "+childKey+", "+childPath+"]";
+  private enum SectionKind { LIST, MAP, OBJECT, GROUPED }
+
+  /**
+   * A query recorded by a deferred SqlSelector, with everything it needs to run on its own.
+   */
+  private static class Section {
+    final String path;
+    final SectionKind kind;
+    final String sql;
+    final SqlParameterSource params;
+    final MappingPlan plan;
+    final Collapse collapse;
+    final ResultCache.Policy policy;
+    Section(String path, SectionKind kind, String sql, SqlParameterSource params, MappingPlan plan, Collapse collapse, ResultCache.Policy policy){
+      this.path = path;
+      this.kind = kind;
+      this.sql = sql;
+      this.params = params;
+      this.plan = plan;
+      this.collapse = collapse;
+      this.policy = policy;
     }
   }
 }
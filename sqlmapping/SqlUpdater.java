@@ -1,21 +1,43 @@
 package sqlmapping;
 
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 import maptree.MapTree;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 
 public class SqlUpdater extends SqlExecutor {
   List<String> keyNames;
   GeneratedKeyHolder keyHolder;
+  int batchSize = BatchRunner.DEFAULT_BATCH_SIZE;
+  String[] invalidatedTags;
+  SqlDialect dialect;
+  boolean upsertOutcomes;
   protected SqlUpdater(NamedParameterJdbcTemplate namedParameterJdbcTemplate){
     super(namedParameterJdbcTemplate);
   }
+  protected SqlUpdater(NamedParameterJdbcTemplate namedParameterJdbcTemplate, SqlExecutorFactory factory){
+    super(namedParameterJdbcTemplate, factory);
+  }
 
   /**
    * Specify an auto-generating key to be retreived after an INSERT.
@@ -78,6 +100,105 @@ public class SqlUpdater extends SqlExecutor {
     return keyHolder;
   }
 
+  /**
+   * Sets the number of rows sent to the database per JDBC batch by {@link #updateList(String, List)}.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Sets the number of rows sent to the database per JDBC batch by {@link #updateList(String, List)} and
+   *   {@link #batchUpdateList(String, List)}. Defaults to 1000.
+   * </p>
+   *
+   * @param batchSize the number of rows per batch
+   * @return the instance of SqlUpdater (for chaining)
+   */
+  public SqlUpdater batchSize(int batchSize){
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Sets the timeout of the asynchronous statements of this SqlUpdater (See {@link #updateAsync(String)}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Once the timeout expires, the future of the statement fails with a TimeoutException and the running statement is
+   *   cancelled. The timeout is also set as the query timeout of the statements, rounded up to whole seconds.
+   * </p>
+   *
+   * @param timeout the timeout, or 0 for none (the default)
+   * @param unit the unit of {@code timeout}
+   * @return the instance of SqlUpdater (for chaining)
+   */
+  public SqlUpdater timeout(long timeout, TimeUnit unit){
+    this.timeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
+  /**
+   * Specify the tags of the cached query results that the statements of this SqlUpdater make stale.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   After every statement this SqlUpdater executes, the results tagged with one of {@code tags} are dropped from the
+   *   {@link ResultCache} of the factory (See {@link SqlSelector#cache(String...)}). Inside a Spring transaction, they are
+   *   dropped once the transaction completes, whether it commits or rolls back, so that no result is cached from the old
+   *   data in between.
+   * </p>
+   *
+   * @param tags the tags to invalidate
+   * @return the instance of SqlUpdater (for chaining)
+   */
+  public SqlUpdater invalidates(String... tags){
+    this.invalidatedTags = tags.clone();
+    return this;
+  }
+
+  /**
+   * Sets the dialect of the SQL written by {@link #upsertList(String, String[], List)}, instead of the one of the factory
+   * (See {@link SqlExecutorFactory#setSqlDialect(SqlDialect)}).
+   *
+   * @param dialect the dialect
+   * @return the instance of SqlUpdater (for chaining)
+   */
+  public SqlUpdater dialect(SqlDialect dialect){
+    this.dialect = dialect;
+    return this;
+  }
+
+  /**
+   * Makes {@link #upsertList(String, String[], List)} tell which rows it inserts and which it updates.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Before each upsert statement, a query looks up which of its rows are already in the table, so every statement costs
+   *   a second round trip. The keys are compared by the database, so collations and padding apply as they do to the upsert
+   *   itself. Run the upsert in a transaction for the outcomes to be exact while other sessions write to the table.
+   *   Without this, the UpsertResult only counts the rows and statements.
+   * </p>
+   *
+   * @return the instance of SqlUpdater (for chaining)
+   */
+  public SqlUpdater upsertOutcomes(){
+    this.upsertOutcomes = true;
+    return this;
+  }
+
+  /**
+   * Invalidates {@code tags} and sends the reads of the caller to the primary for a while (See
+   * {@link SqlExecutorFactory#setReadYourWritesWindow(long, java.util.concurrent.TimeUnit)}). Runs after every write, even
+   * a failed one, since part of it may have been written.
+   */
+  private void afterWrite(String[] tags){
+    if(factory == null){
+      return;
+    }
+    if(tags != null && factory.getResultCache() != null){
+      factory.getResultCache().invalidateAfterTransaction(tags);
+    }
+    factory.recordWrite(callerKey);
+  }
+
   /**
    * Sets a named parameter for SQL statements.
    *
@@ -108,7 +229,7 @@ public class SqlUpdater extends SqlExecutor {
       params = new MapSqlParameterSource();
     }
     if(transformer != null){
-      val = transformer.transform(val, new HashMap());
+      val = transformer.transform(val, transformer.needsSiblings() ? new HashMap() : Collections.emptyMap());
     }
     params.addValue(key, val);
     return this;
@@ -167,21 +288,40 @@ public class SqlUpdater extends SqlExecutor {
   private int update(String sql, MapSqlParameterSource params){
     if(keyNames != null){
       keyHolder = new GeneratedKeyHolder();
-      int count = namedParameterJdbcTemplate.update(
-        sql,
-        params,
-        keyHolder,
-        keyNames.toArray(new String[]{})
-      );
+      int count = update(NamedSql.parse(sql), params, keyNames.toArray(new String[]{}), keyHolder, invalidatedTags);
       keyNames = null;
       return count;
     }else{
-      int count = namedParameterJdbcTemplate.update(
-        sql,
-        params
-      );
-      return count;
+      return update(NamedSql.parse(sql), params, null, null, invalidatedTags);
+    }
+  }
+
+  /**
+   * Executes a statement, retrieving the generated {@code keys} into {@code keyHolder} if there are any, and invalidating
+   * {@code tags} afterwards.
+   */
+  int update(NamedSql sql, SqlParameterSource params, String[] keys, GeneratedKeyHolder keyHolder, String[] tags){
+    SqlEvent.Recorder recorder = record("update", sql.getSql(), params);
+    int count;
+    try {
+      if(keys != null){
+        count = namedParameterJdbcTemplate.getJdbcOperations().update(sql.creator(params, 0, keys), keyHolder);
+      }else{
+        count = namedParameterJdbcTemplate.getJdbcOperations().update(sql.creator(params, 0));
+      }
+    }catch(RuntimeException e){
+      if(recorder != null){
+        recorder.finish(e);
+      }
+      throw e;
+    }finally{
+      afterWrite(tags);
     }
+    if(recorder != null){
+      recorder.rows = count;
+      recorder.finish();
+    }
+    return count;
   }
 
   /**
@@ -225,29 +365,337 @@ public class SqlUpdater extends SqlExecutor {
    * @return True if successful, otherwise False
    */
   public boolean updateList(String sql, List<Map> dataList){
-    boolean success = true;
-    for(Map data : dataList){
-      if(!(data instanceof MapTree)){
-        data = new MapTree(data);
+    return batchUpdateList(sql, dataList, false).isSuccess(1);
+  }
+
+  /**
+   * Executes a SQL statement once for every item in a list, in JDBC batches.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The named parameters of each item are taken from the item using the mappings created by
+   *   {@link #map(String, String, Transformer)}, plus the parameters set by {@link #param(String, Object)} (which win over
+   *   mapped values of the same name). The items are sent in batches of {@link #batchSize(int)} rows. If keys were specified
+   *   with {@link #key(String)}, the generated keys of each item are put back into the item under the key's name, and are
+   *   also available from {@link #getKeyHolder()}.
+   * </p>
+   *
+   * @param sql the SQL statement to be executed
+   * @param dataList the items to execute the SQL statement for
+   * @return the update count of every item, and a report of the items that failed
+   */
+  public BatchResult batchUpdateList(String sql, List<Map> dataList){
+    return batchUpdateList(sql, dataList, true);
+  }
+
+  /**
+   * Executes a SQL statement once for every item in a list, in JDBC batches; a failed batch is reported in the BatchResult
+   * if {@code reportFailures}, otherwise thrown.
+   */
+  private BatchResult batchUpdateList(String sql, List<Map> dataList, boolean reportFailures){
+    String[] keys = keyNames == null ? null : keyNames.toArray(new String[]{});
+    List<Map<String, Object>> keyList = keys == null ? null : new ArrayList<Map<String, Object>>();
+    BatchResult result = batchUpdateList(NamedSql.parse(sql), dataList, plan(), params, keys, keyList, batchSize, invalidatedTags, reportFailures);
+    if(keys != null){
+      keyHolder = new GeneratedKeyHolder(keyList);
+      keyNames = null;
+    }
+    return result;
+  }
+
+  /**
+   * Inserts every item of a list into a table, or updates the row already there with the same key, a few hundred rows per
+   * statement.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The columns are the keys of the mappings created by {@link #map(String, String, Transformer)}, whose values are taken
+   *   from each item as in {@link #batchUpdateList(String, List)}, plus the parameters set by {@link #param(String, Object)},
+   *   whose values are the same for every item. The statement is written by the dialect of the factory (or the one set by
+   *   {@link #dialect(SqlDialect)}): {@code MERGE}, {@code INSERT ... ON CONFLICT} or {@code INSERT ... ON DUPLICATE KEY UPDATE},
+   *   with as many rows as fit in {@link #batchSize(int)} and the parameter limit of the database. To tell which rows are
+   *   inserted and which are updated, call {@link #upsertOutcomes()} first. Items with the same key go to separate
+   *   statements, in order, so the last one wins. If a statement fails, its exception is thrown, and the rows of
+   *   earlier statements stay written unless the transaction is rolled back.
+   * </p>
+   *
+   * @param table the table
+   * @param keyColumns the columns that identify a row (a primary key or unique constraint of the table), which must be
+   *                   mapped columns
+   * @param dataList the items to insert or update
+   * @return the number of rows and statements, and whether each item was inserted or updated if
+   *         {@link #upsertOutcomes()} was called
+   */
+  public UpsertResult upsertList(String table, String[] keyColumns, List<Map> dataList){
+    SqlDialect sqlDialect = dialect != null ? dialect : factory != null ? factory.getSqlDialect() : SqlDialect.ansi();
+    return upsertList(sqlDialect, table, keyColumns, dataList, plan(), params, batchSize, upsertOutcomes, invalidatedTags);
+  }
+
+  /**
+   * Executes a SQL statement (See {@link #update(String)}) on the executor of the factory, without blocking the calling
+   * thread.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The current parameters are captured when this is called. The statement runs within the limit of
+   *   {@link SqlExecutorFactory#setMaxConcurrency(int)} and the timeout set by {@link #timeout(long, TimeUnit)}; cancelling
+   *   the future cancels the statement. Since it runs on another thread, it doesn't take part in the caller's transaction.
+   *   If keys were specified with {@link #key(String)}, they are available from {@link #getKeyHolder()} once the future
+   *   completes.
+   * </p>
+   *
+   * @param sql the SQL statement to be executed
+   * @return a future of the number of rows affected
+   */
+  public CompletableFuture<Integer> updateAsync(String sql){
+    final NamedSql namedSql = NamedSql.parse(sql);
+    final MapSqlParameterSource params = snapshotParams();
+    final String[] keys = keyNames == null ? null : keyNames.toArray(new String[]{});
+    final String[] tags = invalidatedTags;
+    final GeneratedKeyHolder holder = keys == null ? null : new GeneratedKeyHolder();
+    keyNames = null;
+    return async(new Supplier<Integer>(){
+      public Integer get(){
+        int count = update(namedSql, params, keys, holder, tags);
+        if(holder != null){
+          keyHolder = holder;
+        }
+        return count;
+      }
+    });
+  }
+
+  /**
+   * Executes a SQL statement once for every item in a list (See {@link #updateList(String, List)}) without blocking the
+   * calling thread (See {@link #updateAsync(String)}).
+   *
+   * @param sql the SQL statement to be executed
+   * @param dataList the items to execute the SQL statement for
+   * @return a future of true if every item affected exactly one row, otherwise false
+   */
+  public CompletableFuture<Boolean> updateListAsync(String sql, List<Map> dataList){
+    return batchUpdateListAsync(sql, dataList, false).thenApply(new Function<BatchResult, Boolean>(){
+      public Boolean apply(BatchResult result){
+        return result.isSuccess(1);
+      }
+    });
+  }
+
+  /**
+   * Executes a SQL statement once for every item in a list, in JDBC batches (See {@link #batchUpdateList(String, List)}),
+   * without blocking the calling thread (See {@link #updateAsync(String)}).
+   *
+   * @param sql the SQL statement to be executed
+   * @param dataList the items to execute the SQL statement for
+   * @return a future of the update count of every item, and a report of the items that failed
+   */
+  public CompletableFuture<BatchResult> batchUpdateListAsync(String sql, final List<Map> dataList){
+    return batchUpdateListAsync(sql, dataList, true);
+  }
+
+  private CompletableFuture<BatchResult> batchUpdateListAsync(String sql, final List<Map> dataList, final boolean reportFailures){
+    final NamedSql namedSql = NamedSql.parse(sql);
+    final MappingPlan plan = plan();
+    final MapSqlParameterSource globals = snapshotParams();
+    final String[] keys = keyNames == null ? null : keyNames.toArray(new String[]{});
+    final String[] tags = invalidatedTags;
+    final int size = batchSize;
+    keyNames = null;
+    return async(new Supplier<BatchResult>(){
+      public BatchResult get(){
+        List<Map<String, Object>> keyList = keys == null ? null : new ArrayList<Map<String, Object>>();
+        BatchResult result = batchUpdateList(namedSql, dataList, plan, globals, keys, keyList, size, tags, reportFailures);
+        if(keys != null){
+          keyHolder = new GeneratedKeyHolder(keyList);
+        }
+        return result;
+      }
+    });
+  }
+
+  /**
+   * Executes a statement once for every item in a list, in JDBC batches (See {@link #batchUpdateList(String, List)}), and
+   * invalidates {@code tags} afterwards. A failed batch is reported in the BatchResult if {@code reportFailures}, otherwise
+   * thrown as a DataAccessException.
+   */
+  BatchResult batchUpdateList(NamedSql sql, final List<Map> dataList, final MappingPlan plan, final MapSqlParameterSource globals, String[] keys, List<Map<String, Object>> keyList, int batchSize, String[] tags, boolean reportFailures){
+    final Map<String, Integer> indexes = RowParameterSource.index(plan);
+    SqlEvent.Recorder recorder = record("batchUpdateList", sql.getSql(), globals);
+    BatchResult result;
+    try {
+      result = BatchRunner.run(
+        namedParameterJdbcTemplate.getJdbcOperations(),
+        sql,
+        dataList,
+        new IntFunction<SqlParameterSource>(){
+          public SqlParameterSource apply(int index){
+            return new RowParameterSource(indexes, mappedValues(dataList.get(index), plan), globals);
+          }
+        },
+        batchSize,
+        keys,
+        keyList,
+        reportFailures
+      );
+    }catch(RuntimeException e){
+      if(recorder != null){
+        recorder.finish(e);
       }
-      MapSqlParameterSource vParams = new MapSqlParameterSource();
-      for(Mapping mapping : mappings){
-        Object value = data.get(mapping.path);
-        if(mapping.transformer != null){
-          value = mapping.transformer.transform(value, data);
+      throw e;
+    }finally{
+      afterWrite(tags);
+    }
+    if(recorder != null){
+      for(int count : result.getUpdateCounts()){
+        recorder.rows += Math.max(0, count);
+      }
+      recorder.finish(result.getFailures().isEmpty() ? null : result.getFailures().get(0).getCause());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the values of an item for each mapping of {@code plan}, transformed.
+   */
+  static Object[] mappedValues(Map data, MappingPlan plan){
+    if(!(data instanceof MapTree)){
+      data = new MapTree(data);
+    }
+    Object[] values = new Object[plan.size()];
+    for(int i = 0; i < values.length; i++){
+      Object value = data.get(plan.paths[i]);
+      if(plan.transformers[i] != null){
+        value = plan.transformers[i].transform(value, data);
+      }
+      values[i] = value;
+    }
+    return values;
+  }
+
+  /**
+   * Upserts every item of a list, in multi-row statements (See {@link #upsertList(String, String[], List)}), looking up
+   * the outcome of each row if {@code lookUpOutcomes}, and invalidates {@code tags} afterwards.
+   */
+  UpsertResult upsertList(SqlDialect dialect, String table, String[] keyColumns, List<Map> dataList, MappingPlan plan, MapSqlParameterSource globals, int batchSize, boolean lookUpOutcomes, String[] tags){
+    Map<String, Integer> indexes = RowParameterSource.index(plan);
+    List<String> columnList = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(plan.keys)));
+    Map<String, Object> globalValues = globals == null || globals.getValues() == null ? Collections.<String, Object>emptyMap() : globals.getValues();
+    for(String name : globalValues.keySet()){
+      if(!indexes.containsKey(name)){
+        columnList.add(name);
+      }
+    }
+    String[] columns = columnList.toArray(new String[]{});
+    int[] keyIndexes = new int[keyColumns.length];
+    for(int k = 0; k < keyColumns.length; k++){
+      keyIndexes[k] = -1;
+      for(int c = 0; c < columns.length; c++){
+        if(columns[c].equalsIgnoreCase(keyColumns[k])){
+          keyIndexes[k] = c;
         }
-        vParams.addValue(mapping.key, value);
       }
-      if(params != null){
-        Iterator<Map.Entry<String, Object>> globalParams = params.getValues().entrySet().iterator();
-        while(globalParams.hasNext()){
-          Map.Entry<String, Object> entry = globalParams.next();
-          vParams.addValue(entry.getKey(), entry.getValue());
+      if(keyIndexes[k] < 0){
+        throw new IllegalArgumentException("The key column '" + keyColumns[k] + "' isn't mapped");
+      }
+    }
+    int rowsPerStatement = Math.max(1, Math.min(batchSize, dialect.getMaxParameters() / Math.max(1, columns.length)));
+    List<UpsertResult.Outcome> outcomes = lookUpOutcomes ? new ArrayList<UpsertResult.Outcome>(dataList.size()) : null;
+    int statements = 0;
+    try {
+      List<Object[]> chunk = new ArrayList<>();
+      Set<List<Object>> chunkKeys = new HashSet<>();
+      for(Map data : dataList){
+        Object[] mapped = mappedValues(data, plan);
+        Object[] values = new Object[columns.length];
+        for(int c = 0; c < columns.length; c++){
+          Integer index = indexes.get(columns[c]);
+          values[c] = globalValues.containsKey(columns[c]) ? globalValues.get(columns[c]) : mapped[index];
+        }
+        List<Object> key = upsertKey(values, keyIndexes);
+        if(chunk.size() == rowsPerStatement || chunkKeys.contains(key)){
+          upsertChunk(dialect, table, columns, keyColumns, keyIndexes, chunk, outcomes);
+          statements++;
+          chunk.clear();
+          chunkKeys.clear();
         }
+        chunk.add(values);
+        chunkKeys.add(key);
+      }
+      if(!chunk.isEmpty()){
+        upsertChunk(dialect, table, columns, keyColumns, keyIndexes, chunk, outcomes);
+        statements++;
+      }
+    }finally{
+      afterWrite(tags);
+    }
+    return new UpsertResult(dataList.size(), outcomes, statements);
+  }
+
+  /**
+   * Upserts a chunk in one statement, looking up which of its rows already exist first if {@code outcomes} isn't null.
+   */
+  private void upsertChunk(SqlDialect dialect, String table, String[] columns, String[] keyColumns, int[] keyIndexes, List<Object[]> chunk, List<UpsertResult.Outcome> outcomes){
+    MapSqlParameterSource chunkParams = new MapSqlParameterSource();
+    for(int row = 0; row < chunk.size(); row++){
+      for(int c = 0; c < columns.length; c++){
+        chunkParams.addValue(SqlDialect.param(row, c), chunk.get(row)[c]);
       }
-      int count = update(sql, vParams);
-      success = success && count == 1;
     }
-    return success;
+    if(outcomes == null){
+      update(NamedSql.parse(dialect.upsert(table, columns, keyColumns, chunk.size())), chunkParams, null, null, null);
+      return;
+    }
+    // One select per row, so that the database compares the keys (with its collation and padding) and each row that
+    // exists comes back as its own position.
+    StringBuilder select = new StringBuilder();
+    for(int row = 0; row < chunk.size(); row++){
+      select.append(row > 0 ? " union all select " : "select ").append(row).append(" from ").append(table).append(" where ");
+      for(int k = 0; k < keyColumns.length; k++){
+        select.append(k > 0 ? " and " : "").append(keyColumns[k]).append(" = :").append(SqlDialect.param(row, keyIndexes[k]));
+      }
+    }
+    final boolean[] existing = new boolean[chunk.size()];
+    QueryRunner.query(
+      namedParameterJdbcTemplate.getJdbcOperations(),
+      NamedSql.parse(select.toString()).creator(chunkParams, 0),
+      new RowCallbackHandler(){
+        public void processRow(ResultSet rs) throws SQLException {
+          existing[rs.getInt(1)] = true;
+        }
+      },
+      record("upsertList", select.toString(), chunkParams)
+    );
+    update(NamedSql.parse(dialect.upsert(table, columns, keyColumns, chunk.size())), chunkParams, null, null, null);
+    for(boolean exists : existing){
+      outcomes.add(exists ? UpsertResult.Outcome.UPDATED : UpsertResult.Outcome.INSERTED);
+    }
+  }
+
+  private static List<Object> upsertKey(Object[] values, int[] keyIndexes){
+    List<Object> key = new ArrayList<>(keyIndexes.length);
+    for(int index : keyIndexes){
+      key.add(upsertKeyValue(values[index]));
+    }
+    return key;
+  }
+
+  /**
+   * Normalizes a key value, so that items with the same key in different Java types (an Integer and a Long or a
+   * BigDecimal, a Date and a Timestamp...) go to separate statements.
+   */
+  private static Object upsertKeyValue(Object value){
+    if(value instanceof BigDecimal){
+      return ((BigDecimal)value).stripTrailingZeros();
+    }
+    if(value instanceof Double || value instanceof Float){
+      return BigDecimal.valueOf(((Number)value).doubleValue()).stripTrailingZeros();
+    }
+    if(value instanceof Number){
+      return new BigDecimal(value.toString()).stripTrailingZeros();
+    }
+    if(value instanceof Date){
+      return ((Date)value).getTime();
+    }
+    return value;
   }
 }
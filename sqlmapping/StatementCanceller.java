@@ -0,0 +1,109 @@
+package sqlmapping;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * Lets an asynchronous operation be cancelled while its statements run (See {@link SqlExecutor#async(Supplier)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   While the operation runs, its thread is bound to the canceller, and every statement the operation creates (through
+ *   {@link NamedSql} or {@link BatchRunner}) registers itself with it, getting the query timeout on the way. Cancelling calls
+ *   {@link Statement#cancel()} on the statement that is running, if any, and makes any later statement of the operation fail
+ *   as soon as it is created. A statement is unregistered as soon as it is done, so a cancellation never reaches a statement
+ *   that belongs to another operation on the same (pooled) connection.
+ * </p>
+ */
+final class StatementCanceller {
+  private static final ThreadLocal<StatementCanceller> CURRENT = new ThreadLocal<>();
+
+  private final long timeoutMillis;
+  private Statement statement;
+  private boolean cancelled;
+
+  /**
+   * @param timeoutMillis the query timeout, or 0 for none
+   */
+  StatementCanceller(long timeoutMillis){
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Runs {@code task} on the current thread, bound to this canceller.
+   */
+  <T> T run(Supplier<T> task){
+    StatementCanceller outer = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return task.get();
+    }finally{
+      if(outer == null){
+        CURRENT.remove();
+      }else{
+        CURRENT.set(outer);
+      }
+    }
+  }
+
+  /**
+   * Registers a statement just created on the current thread, if the thread is bound to a canceller.
+   */
+  static void register(Statement statement) throws SQLException {
+    StatementCanceller canceller = CURRENT.get();
+    if(canceller != null){
+      canceller.attach(statement);
+    }
+  }
+
+  /**
+   * Unregisters a statement of the current thread once it is done.
+   */
+  static void unregister(){
+    StatementCanceller canceller = CURRENT.get();
+    if(canceller != null){
+      canceller.detach();
+    }
+  }
+
+  synchronized boolean isCancelled(){
+    return cancelled;
+  }
+
+  /**
+   * Cancels the running statement, if any, and every later one.
+   */
+  void cancel(){
+    Statement running;
+    synchronized(this){
+      cancelled = true;
+      running = statement;
+      statement = null;
+    }
+    if(running != null){
+      try {
+        running.cancel();
+      }catch(SQLException e){
+        // The statement finished or was closed in the meantime.
+      }
+    }
+  }
+
+  private void attach(Statement statement) throws SQLException {
+    if(timeoutMillis > 0){
+      statement.setQueryTimeout((int)Math.max(1, (timeoutMillis + 999) / 1000));
+    }
+    synchronized(this){
+      if(cancelled){
+        throw new SQLTimeoutException("The operation was cancelled or timed out");
+      }
+      this.statement = statement;
+    }
+  }
+
+  private synchronized void detach(){
+    statement = null;
+  }
+}
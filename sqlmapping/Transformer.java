@@ -1,11 +1,28 @@
 package sqlmapping;
 
+import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.IntUnaryOperator;
 import java.util.logging.Logger;
 import maptree.Mapifier;
 
@@ -22,9 +39,48 @@ abstract public class Transformer {
 
   abstract public Object transform(Object obj, Map siblings);
 
+  /**
+   * Returns whether {@link #transform(Object, Map)} looks at its {@code siblings} argument.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   When a row is mapped straight from a ResultSet, the row is only materialized as a Map of siblings for transformers
+   *   that need it; the others are passed an empty Map. Defaults to true, so that existing transformers keep working;
+   *   transformers that only look at their value should override this to return false.
+   * </p>
+   *
+   * @return True if the transformer reads the sibling values, otherwise False
+   */
+  public boolean needsSiblings(){
+    return true;
+  }
+
+  /**
+   * Returns a transformer that transforms the value with this transformer, then the result with {@code next}.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Chains are flattened as they are built, so {@code a.andThen(b).andThen(c)} is a single transformer that runs a, b and
+   *   c in a loop rather than three transformers nested in one another. The chain needs the sibling values if any of its
+   *   transformers does; each is passed the same siblings.
+   * </p>
+   *
+   * @param next the transformer to run on the result
+   * @return the chain
+   */
+  public Transformer andThen(Transformer next){
+    return Chain.of(this, next);
+  }
+
   private static final String DEFAULT_DATE_FORMAT       = "dd MMM yyyy";
+  private static final String ISO_DATE_TIME_FORMAT      = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+  private static final String INT_DATE_FORMAT           = "yyyyMMdd";
   private static final String YEAR_DATE_FORMAT          = "yyyy";
   private static final Integer JAVA_MONTH_OFFSET        = 1;
+  // The first year wholly in the Gregorian calendar, from which java.time and the Calendar of SimpleDateFormat agree.
+  private static final int FIRST_GREGORIAN_YEAR         = 1583;
+  private static final DateTimeFormatter INT_DATE_FORMATTER  = DateTimeFormatter.ofPattern(INT_DATE_FORMAT);
+  private static final DateTimeFormatter YEAR_DATE_FORMATTER = DateTimeFormatter.ofPattern(YEAR_DATE_FORMAT);
 
   public static String toYn(Object obj){
     return Transformer.toBool(obj) ? "Y" : "N";
@@ -33,6 +89,11 @@ abstract public class Transformer {
     if(obj == null || obj.equals(Mapifier.UNDEFINED)){
       return false;
     }
+    if(obj instanceof Boolean){
+      return (Boolean)obj;
+    }else if(isIntegral(obj)){
+      return ((Number)obj).longValue() != 0;
+    }
     String s = obj.toString().toLowerCase();
     return !(
       s.equals("false") ||
@@ -54,6 +115,12 @@ abstract public class Transformer {
     if(obj == null){
       return null;
     }
+    if(obj instanceof Integer){
+      return (Integer)obj;
+    }else if(isIntegral(obj)){
+      long value = ((Number)obj).longValue();
+      return value == (int)value ? Integer.valueOf((int)value) : null;
+    }
     try{
       return Integer.parseInt(obj.toString());
     }catch(NumberFormatException e){
@@ -61,36 +128,64 @@ abstract public class Transformer {
     }
   }
 
-  // Todo - make this more effectively ensure 8 digits
-  public static Object toYearOrNull(Object obj) {
-    if (obj == null) {
+  /**
+   * Converts a whole number or a string of one to a Long, or returns null for anything else.
+   */
+  public static Long toLong(Object obj){
+    if(obj == null){
       return null;
     }
-
+    if(isIntegral(obj)){
+      return ((Number)obj).longValue();
+    }
     try {
-      int year = Integer.parseInt(obj.toString());
-
-      if (year <= 9999) {
-        return year * 10000;
-      }
-
-      return year;
-
-    } catch(NumberFormatException e) {
+      return Long.parseLong(obj.toString());
+    }catch(NumberFormatException e){
       return null;
     }
   }
 
-  public static int toIntOrDefault(Object obj, int iDefault){
+  /**
+   * Converts a number or a string of one to a Double, or returns null for anything else.
+   */
+  public static Double toDouble(Object obj){
     if(obj == null){
-      return iDefault;
+      return null;
+    }
+    if(obj instanceof Number){
+      return ((Number)obj).doubleValue();
     }
     try {
-      return Integer.parseInt(obj.toString());
+      return Double.parseDouble(obj.toString());
     }catch(NumberFormatException e){
-      return iDefault;
+      return null;
     }
   }
+
+  // Todo - make this more effectively ensure 8 digits
+  public static Object toYearOrNull(Object obj) {
+    Integer year = toInt(obj);
+    if (year == null) {
+      return null;
+    }
+    if (year <= 9999) {
+      return year * 10000;
+    }
+    return year;
+  }
+
+  public static int toIntOrDefault(Object obj, int iDefault){
+    Integer value = toInt(obj);
+    return value == null ? iDefault : value;
+  }
+
+  /**
+   * Returns whether a value is a whole number of a type whose string is just its digits (so converting it directly gives
+   * what parsing its string would).
+   */
+  private static boolean isIntegral(Object obj){
+    return obj instanceof Integer || obj instanceof Long || obj instanceof Short || obj instanceof Byte;
+  }
   public static String formatDate(Object obj){
     return formatDate(obj, DEFAULT_DATE_FORMAT);
   }
@@ -98,17 +193,18 @@ abstract public class Transformer {
     if(obj == null){
       return "";
     }
-    SimpleDateFormat formatter = new SimpleDateFormat(format);
+    if(obj instanceof Temporal){
+      Date date = legacyDate((Temporal)obj);
+      return date == null ? "" : formatDate(date, format);
+    }
+    DateTimeFormatter formatter = fixedFormatter(format);
     if(obj instanceof Date){
-      return formatter.format(obj);
-    }else if(obj.toString().length() == 8){
-      String vDate = obj.toString();
-      Integer year = Integer.parseInt(vDate.substring(0, 4));
-      Integer month = Integer.parseInt(vDate.substring(4, 6)) - JAVA_MONTH_OFFSET;
-      Integer day = Integer.parseInt(vDate.substring(6, 8));
-      Calendar cal = Calendar.getInstance();
-      cal.set(year, month, day);
-      return formatter.format(cal.getTime());
+      LocalDate date = formatter == null ? null : gregorianDate(((Date)obj).getTime());
+      return date != null ? formatter.format(date) : new SimpleDateFormat(format).format(obj);
+    }else if(isIntDate(obj)){
+      int value = intDateValue(obj);
+      LocalDate date = formatter == null || value < 0 ? null : gregorianDate(value);
+      return date != null ? formatter.format(date) : new SimpleDateFormat(format).format(intDate(obj).getTime());
     }
     return "";
   }
@@ -116,52 +212,252 @@ abstract public class Transformer {
     if(obj == null){
       return null;
     }
-    if(obj instanceof Integer && obj.toString().length() == 8){
-      String vDate = obj.toString();
-      Integer year = Integer.parseInt(vDate.substring(0, 4));
-      Integer month = Integer.parseInt(vDate.substring(4, 6)) - JAVA_MONTH_OFFSET;;
-      Integer day = Integer.parseInt(vDate.substring(6, 8));
-      Calendar cal = Calendar.getInstance();
-      cal.set(year, month, day);
-      return cal.getTime();
-    }
-    String format = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
-    if(obj.toString().length() == DEFAULT_DATE_FORMAT.length()){
-      format = DEFAULT_DATE_FORMAT;
-    }
-    SimpleDateFormat parser = new SimpleDateFormat(format);
+    if(obj instanceof Integer && isIntDate(obj)){
+      return intDate(obj).getTime();
+    }
+    return parseDate(obj.toString());
+  }
+  public static Integer toIntDate(Object obj){
+    if(obj == null){
+      return null;
+    }
+    Date date;
+    if(obj instanceof Date){
+      date = (Date)obj;
+    }else if(obj instanceof Temporal){
+      date = legacyDate((Temporal)obj);
+    }else{
+      date = parseDate(obj.toString());
+    }
+    if(date == null){
+      return null;
+    }
+    LocalDate localDate = isGregorianLocale() ? gregorianDate(date.getTime()) : null;
+    if(localDate != null){
+      return localDate.getYear() * 10000 + localDate.getMonthValue() * 100 + localDate.getDayOfMonth();
+    }
     try {
-      return parser.parse(obj.toString());
-    }catch(ParseException e){
+      return Integer.parseInt(new SimpleDateFormat(INT_DATE_FORMAT).format(date));
+    }catch(NumberFormatException e){
       return null;
     }
   }
-  public static Integer toIntDate(Object obj){
+
+  /**
+   * Converts a date, an integer date (e.g. 20070531) or a date string to a LocalDate.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Accepts the same values as {@link #toDate(Object)}, as well as java.time dates and times. The LocalDate has the year,
+   *   month and day that {@link #formatDate(Object, String)} shows for the value, in the default time zone. Returns null
+   *   for anything else.
+   * </p>
+   */
+  public static LocalDate toLocalDate(Object obj){
     if(obj == null){
       return null;
     }
-    SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd");
+    if(obj instanceof LocalDate){
+      return (LocalDate)obj;
+    }
+    Date date;
     if(obj instanceof Date){
-      try {
-        return Integer.parseInt(formatter.format(obj));
-      }catch(NumberFormatException e){
-        return null;
-      }
-    }else {
-      String format = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
-      if(obj.toString().length() == DEFAULT_DATE_FORMAT.length()){
-        format = DEFAULT_DATE_FORMAT;
+      date = (Date)obj;
+    }else if(obj instanceof Temporal){
+      date = legacyDate((Temporal)obj);
+    }else{
+      date = toDate(obj);
+    }
+    return date == null ? null : new java.sql.Date(date.getTime()).toLocalDate();
+  }
+
+  /**
+   * Converts a date, an integer date (e.g. 20070531) or a date string to an Instant.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Accepts the same values as {@link #toLocalDate(Object)}. Unlike {@link #toDate(Object)}, an integer date is taken as
+   *   the start of that day (in the default time zone) rather than the current time of that day.
+   * </p>
+   */
+  public static Instant toInstant(Object obj){
+    if(obj == null){
+      return null;
+    }
+    if(obj instanceof Instant){
+      return (Instant)obj;
+    }
+    Date date;
+    if(obj instanceof Date){
+      date = (Date)obj;
+    }else if(obj instanceof Temporal){
+      date = legacyDate((Temporal)obj);
+    }else if(obj instanceof Integer && isIntDate(obj)){
+      Calendar cal = intDate(obj);
+      cal.set(Calendar.HOUR_OF_DAY, 0);
+      cal.set(Calendar.MINUTE, 0);
+      cal.set(Calendar.SECOND, 0);
+      cal.set(Calendar.MILLISECOND, 0);
+      date = cal.getTime();
+    }else{
+      date = parseDate(obj.toString());
+    }
+    return date == null ? null : Instant.ofEpochMilli(date.getTime());
+  }
+
+  /**
+   * Returns the shared DateTimeFormatter for the fixed numeric patterns "yyyyMMdd" and "yyyy", or null for any other
+   * pattern, or if the default locale would give SimpleDateFormat a calendar other than the Gregorian one.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   For the dates of {@link #gregorianDate(long)}, these patterns give exactly what SimpleDateFormat gives, without
+   *   creating a SimpleDateFormat and its Calendar on every call. Patterns supplied by callers always go through
+   *   SimpleDateFormat, whose pattern letters don't all mean the same as those of DateTimeFormatter.
+   * </p>
+   */
+  private static DateTimeFormatter fixedFormatter(String format){
+    if(!isGregorianLocale()){
+      return null;
+    }
+    if(INT_DATE_FORMAT.equals(format)){
+      return INT_DATE_FORMATTER;
+    }else if(YEAR_DATE_FORMAT.equals(format)){
+      return YEAR_DATE_FORMATTER;
+    }
+    return null;
+  }
+
+  /**
+   * Returns whether SimpleDateFormat and Calendar use the Gregorian calendar and ASCII digits in the default locale, as
+   * they do unless the locale asks for another calendar or numbering system (th_TH and ja_JP_JP do implicitly).
+   */
+  private static boolean isGregorianLocale(){
+    Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+    if(locale.getUnicodeLocaleType("ca") != null || locale.getUnicodeLocaleType("nu") != null){
+      return false;
+    }
+    String language = locale.getLanguage();
+    return !("th".equals(language) && "TH".equals(locale.getCountry()))
+      && !("ja".equals(language) && "JP".equals(locale.getCountry()) && "JP".equals(locale.getVariant()));
+  }
+
+  /**
+   * Returns the date of an instant in the default time zone, or null if it is before {@link #FIRST_GREGORIAN_YEAR} or
+   * after 9999, where java.time and SimpleDateFormat disagree.
+   */
+  private static LocalDate gregorianDate(long millis){
+    LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    return date.getYear() >= FIRST_GREGORIAN_YEAR && date.getYear() <= 9999 ? date : null;
+  }
+
+  /**
+   * Returns the date of an integer date of 8 digits, with out-of-range months and days rolling over as they do in a lenient
+   * Calendar, or null if it falls before {@link #FIRST_GREGORIAN_YEAR} or after 9999.
+   */
+  private static LocalDate gregorianDate(int value){
+    int year = value / 10000;
+    int month = value / 100 % 100;
+    int day = value % 100;
+    LocalDate date;
+    if(month >= 1 && month <= 12 && day >= 1 && day <= Month.of(month).length(Year.isLeap(year))){
+      date = LocalDate.of(year, month, day);
+    }else{
+      date = LocalDate.of(year, 1, 1).plusMonths(month - 1).plusDays(day - 1);
+    }
+    return date.getYear() >= FIRST_GREGORIAN_YEAR && date.getYear() <= 9999 ? date : null;
+  }
+
+  /**
+   * Returns whether a value is read as an integer date (e.g. 20070531): whether its string is 8 characters long.
+   */
+  private static boolean isIntDate(Object obj){
+    if(obj instanceof Integer){
+      int value = (Integer)obj;
+      if(value >= 10000000 && value <= 99999999){
+        return true;
       }
-      SimpleDateFormat parser = new SimpleDateFormat(format);
-      try {
-        Date vDate = parser.parse(obj.toString());
-        return Integer.parseInt(formatter.format(vDate));
-      }catch(ParseException e){
-        return null;
+    }
+    return obj.toString().length() == 8;
+  }
+
+  /**
+   * Returns the value of an integer date if it is made of 8 digits, otherwise -1.
+   */
+  private static int intDateValue(Object obj){
+    if(obj instanceof Integer){
+      int value = (Integer)obj;
+      return value >= 10000000 && value <= 99999999 ? value : -1;
+    }
+    String s = obj.toString();
+    int value = 0;
+    for(int i = 0; i < s.length(); i++){
+      char c = s.charAt(i);
+      if(c < '0' || c > '9'){
+        return -1;
       }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Parses a string in the format "dd MMM yyyy" (if it is as long as that format) or "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
+   * returning null if it can't be parsed.
+   */
+  private static Date parseDate(String s){
+    String format = s.length() == DEFAULT_DATE_FORMAT.length() ? DEFAULT_DATE_FORMAT : ISO_DATE_TIME_FORMAT;
+    try {
+      return new SimpleDateFormat(format).parse(s);
+    }catch(ParseException e){
+      return null;
+    }
+  }
+
+  /**
+   * Returns a lenient Calendar set to an integer date (e.g. 20070531) at the current time of day; throws
+   * NumberFormatException if it isn't made of numbers. Dates of 8 digits are split with arithmetic.
+   */
+  private static Calendar intDate(Object obj){
+    int value = intDateValue(obj);
+    int year, month, day;
+    if(value >= 0){
+      year = value / 10000;
+      month = value / 100 % 100;
+      day = value % 100;
+    }else{
+      String vDate = obj.toString();
+      year = Integer.parseInt(vDate.substring(0, 4));
+      month = Integer.parseInt(vDate.substring(4, 6));
+      day = Integer.parseInt(vDate.substring(6, 8));
     }
+    Calendar cal = Calendar.getInstance();
+    cal.set(year, month - JAVA_MONTH_OFFSET, day);
+    return cal;
+  }
+
+  /**
+   * Converts a java.time date or time to a Date, or returns null for other temporals. Local dates and times keep their
+   * fields (as {@link java.sql.Date#valueOf(LocalDate)} does), so that they format as they read.
+   */
+  private static Date legacyDate(Temporal temporal){
+    if(temporal instanceof LocalDate){
+      return java.sql.Date.valueOf((LocalDate)temporal);
+    }else if(temporal instanceof LocalDateTime){
+      return Timestamp.valueOf((LocalDateTime)temporal);
+    }else if(temporal instanceof Instant){
+      return Date.from((Instant)temporal);
+    }else if(temporal instanceof ZonedDateTime){
+      return Date.from(((ZonedDateTime)temporal).toInstant());
+    }else if(temporal instanceof OffsetDateTime){
+      return Date.from(((OffsetDateTime)temporal).toInstant());
+    }
+    return null;
   }
   public static Integer yearToIntDate(Object obj){
+    if(obj instanceof Integer && (Integer)obj >= 1000 && (Integer)obj <= 9999){
+      return (Integer)obj * 10000 + 101;
+    }
     if(obj == null || obj.toString().length() != 4){
       return null;
     }
@@ -180,26 +476,241 @@ abstract public class Transformer {
    */
   public static final Transformer FORMAT_DATE           = new FormatDate();
   public static final Transformer TO_DATE               = new ToDate();
-  public static final Transformer TO_INTDATE            = new ToIntDate();
-  public static final Transformer YEAR_TO_INTDATE       = new YearToIntDate();
+  public static final Transformer TO_INTDATE            = Typed.TO_INTDATE;
+  public static final Transformer TO_LOCAL_DATE         = new ToLocalDate();
+  public static final Transformer TO_INSTANT            = new ToInstant();
+  public static final Transformer YEAR_TO_INTDATE       = Typed.YEAR_TO_INTDATE;
   public static final Transformer TO_STR_OR_EMPTY       = new ToStrOrEmpty();
   public static final Transformer TO_YN                 = new ToYn();
-  public static final Transformer TO_BOOL               = new ToBoolean();
-  public static final Transformer STR_TO_BOOL           = new StrToBoolean();
+  public static final Transformer TO_BOOL               = Typed.TO_BOOL;
+  public static final Transformer STR_TO_BOOL           = Typed.STR_TO_BOOL;
+  public static final IntTransformer TO_INT             = new ToInt();
+  public static final LongTransformer TO_LONG           = new ToLong();
+  public static final DoubleTransformer TO_DOUBLE       = new ToDouble();
+
+  /**
+   * The typed views of the built-in transformers that are declared as plain {@link Transformer}s (the same instances).
+   */
+  public static final class Typed {
+    public static final IntTransformer TO_INTDATE         = new ToIntDate();
+    public static final IntTransformer YEAR_TO_INTDATE    = new YearToIntDate();
+    public static final BooleanTransformer TO_BOOL        = new ToBoolean();
+    public static final BooleanTransformer STR_TO_BOOL    = new StrToBoolean();
+
+    private Typed(){
+    }
+  }
+
+  /**
+   * A transformer to int, which can be run without boxing its result.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Subclasses implement {@link #transformToLong(Object)}, which returns the int of the value widened to a long, or
+   *   {@link #NO_VALUE} (outside the int range) when the value has no int, so a single call tells both apart. Typed
+   *   transformers only look at their value.
+   * </p>
+   */
+  public static abstract class IntTransformer extends Transformer {
+    /**
+     * The result of {@link #transformToLong(Object)} for a value that has no int.
+     */
+    protected static final long NO_VALUE = Long.MIN_VALUE;
+
+    /**
+     * @param obj the value
+     * @return the int of the value, or {@link #NO_VALUE} if it has none
+     */
+    protected abstract long transformToLong(Object obj);
+
+    /**
+     * @param obj the value
+     * @param defaultValue the result if the value has no int
+     * @return the int of the value, or {@code defaultValue}
+     */
+    public final int transformInt(Object obj, int defaultValue){
+      long value = transformToLong(obj);
+      return value == NO_VALUE ? defaultValue : (int)value;
+    }
+
+    @Override
+    public Object transform(Object obj, Map siblings){
+      long value = transformToLong(obj);
+      return value == NO_VALUE ? null : Integer.valueOf((int)value);
+    }
+
+    @Override
+    public boolean needsSiblings(){
+      return false;
+    }
+
+    /**
+     * Returns a transformer that applies {@code operator} to the int of the value, and leaves a value without one alone.
+     * Operators added to the result are run in the same loop (See {@link Transformer#andThen(Transformer)}).
+     */
+    public IntTransformer andThenInt(IntUnaryOperator operator){
+      return new IntChain(this, new IntUnaryOperator[]{operator});
+    }
+  }
+
+  /**
+   * A transformer to long, which can be run without boxing its result (See {@link IntTransformer}).
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   Every long can be the long of a value, so no default tells a value without one apart; subclasses implement
+   *   {@link #transform(Object, Map)} as well, returning null for such a value.
+   * </p>
+   */
+  public static abstract class LongTransformer extends Transformer {
+    /**
+     * @param obj the value
+     * @param defaultValue the result if the value has no long
+     * @return the long of the value, or {@code defaultValue}
+     */
+    public abstract long transformLong(Object obj, long defaultValue);
+
+    @Override
+    public boolean needsSiblings(){
+      return false;
+    }
+  }
+
+  /**
+   * A transformer to double, which can be run without boxing its result (See {@link LongTransformer}).
+   */
+  public static abstract class DoubleTransformer extends Transformer {
+    /**
+     * @param obj the value
+     * @param defaultValue the result if the value has no double
+     * @return the double of the value, or {@code defaultValue}
+     */
+    public abstract double transformDouble(Object obj, double defaultValue);
+
+    @Override
+    public boolean needsSiblings(){
+      return false;
+    }
+  }
+
+  /**
+   * A transformer to boolean, which can be run without boxing its result. Every value has a boolean.
+   */
+  public static abstract class BooleanTransformer extends Transformer {
+    /**
+     * @param obj the value
+     * @return the boolean of the value
+     */
+    public abstract boolean transformBoolean(Object obj);
+
+    @Override
+    public Object transform(Object obj, Map siblings){
+      return transformBoolean(obj);
+    }
+
+    @Override
+    public boolean needsSiblings(){
+      return false;
+    }
+  }
+
+  /**
+   * Transformers run one after another (See {@link #andThen(Transformer)}).
+   */
+  private static class Chain extends Transformer {
+    private final Transformer[] transformers;
+    private final boolean needsSiblings;
+
+    private Chain(Transformer[] transformers){
+      this.transformers = transformers;
+      boolean needsSiblings = false;
+      for(Transformer transformer : transformers){
+        needsSiblings = needsSiblings || transformer.needsSiblings();
+      }
+      this.needsSiblings = needsSiblings;
+    }
+
+    static Chain of(Transformer first, Transformer next){
+      List<Transformer> transformers = new ArrayList<>();
+      for(Transformer transformer : new Transformer[]{first, next}){
+        if(transformer instanceof Chain){
+          Collections.addAll(transformers, ((Chain)transformer).transformers);
+        }else{
+          transformers.add(transformer);
+        }
+      }
+      return new Chain(transformers.toArray(new Transformer[]{}));
+    }
+
+    @Override
+    public Object transform(Object obj, Map siblings){
+      for(Transformer transformer : transformers){
+        obj = transformer.transform(obj, siblings);
+      }
+      return obj;
+    }
+
+    @Override
+    public boolean needsSiblings(){
+      return needsSiblings;
+    }
+  }
+
+  /**
+   * An IntTransformer followed by int operators (See {@link IntTransformer#andThenInt(IntUnaryOperator)}).
+   */
+  private static class IntChain extends IntTransformer {
+    private final IntTransformer source;
+    private final IntUnaryOperator[] operators;
+
+    IntChain(IntTransformer source, IntUnaryOperator[] operators){
+      this.source = source;
+      this.operators = operators;
+    }
+
+    @Override
+    protected long transformToLong(Object obj){
+      long source = this.source.transformToLong(obj);
+      if(source == NO_VALUE){
+        return NO_VALUE;
+      }
+      int value = (int)source;
+      for(IntUnaryOperator operator : operators){
+        value = operator.applyAsInt(value);
+      }
+      return value;
+    }
+
+    @Override
+    public IntTransformer andThenInt(IntUnaryOperator operator){
+      IntUnaryOperator[] fused = Arrays.copyOf(operators, operators.length + 1);
+      fused[operators.length] = operator;
+      return new IntChain(source, fused);
+    }
+  }
 
-  private static class DateToYear extends Transformer {
+  /**
+   * A transformer that only looks at its value.
+   */
+  private static abstract class ValueTransformer extends Transformer {
+    @Override
+    public boolean needsSiblings(){
+      return false;
+    }
+  }
+  private static class DateToYear extends ValueTransformer {
     public Object transform(Object obj, Map siblings){
       return formatDate(obj, YEAR_DATE_FORMAT);
     }
   }
-  private static class YearToDate extends Transformer {
+  private static class YearToDate extends ValueTransformer {
     public Object transform(Object obj, Map siblings){
       if(obj == null || obj.toString().isEmpty()){
         return null;
       }
       try {
         Calendar calendar = GregorianCalendar.getInstance();
-        int year = Integer.parseInt(obj.toString());
+        int year = obj instanceof Integer ? (Integer)obj : Integer.parseInt(obj.toString());
         calendar.set(year, Calendar.JANUARY, 1);
         return calendar.getTime();
       } catch(NumberFormatException e){
@@ -207,31 +718,53 @@ abstract public class Transformer {
       }
     }
   }
-  private static class FormatDate extends Transformer {
+  private static class ToLocalDate extends ValueTransformer {
+    @Override
+    public Object transform(Object obj, Map siblings) {
+      return toLocalDate(obj);
+    }
+  }
+  private static class ToInstant extends ValueTransformer {
+    @Override
+    public Object transform(Object obj, Map siblings) {
+      return toInstant(obj);
+    }
+  }
+  private static class FormatDate extends ValueTransformer {
     @Override
     public Object transform(Object obj, Map siblings) {
       return formatDate(obj);
     }
   }
-  private static class ToDate extends Transformer {
+  private static class ToDate extends ValueTransformer {
     @Override
     public Object transform(Object obj, Map siblings) {
       return toDate(obj);
     }
   }
-  private static class ToIntDate extends Transformer {
+  private static class ToIntDate extends IntTransformer {
     @Override
     public Object transform(Object obj, Map siblings) {
       return toIntDate(obj);
     }
+    @Override
+    protected long transformToLong(Object obj){
+      Integer value = toIntDate(obj);
+      return value == null ? NO_VALUE : value;
+    }
   }
-  private static class YearToIntDate extends Transformer {
+  private static class YearToIntDate extends IntTransformer {
     @Override
     public Object transform(Object obj, Map siblings) {
       return yearToIntDate(obj);
     }
+    @Override
+    protected long transformToLong(Object obj){
+      Integer value = yearToIntDate(obj);
+      return value == null ? NO_VALUE : value;
+    }
   }
-  private static class ToStrOrEmpty extends Transformer {
+  private static class ToStrOrEmpty extends ValueTransformer {
     public Object transform(Object obj, Map siblings){
       if(obj == null){
         return "";
@@ -239,21 +772,60 @@ abstract public class Transformer {
       return obj.toString();
     }
   }
-  private static class ToYn extends Transformer {
+  private static class ToYn extends ValueTransformer {
     public Object transform(Object obj, Map siblings){
       return toYn(obj);
     }
   }
-  private static class ToBoolean extends Transformer {
+  private static class ToBoolean extends BooleanTransformer {
     @Override
-    public Object transform(Object obj, Map siblings) {
+    public boolean transformBoolean(Object obj) {
       return toBool(obj);
     }
   }
-  private static class StrToBoolean extends Transformer {
+  private static class StrToBoolean extends BooleanTransformer {
     @Override
-    public Object transform(Object obj, Map siblings){
+    public boolean transformBoolean(Object obj){
       return strToBool(obj);
     }
   }
+  private static class ToInt extends IntTransformer {
+    @Override
+    public Object transform(Object obj, Map siblings){
+      return toInt(obj);
+    }
+    @Override
+    protected long transformToLong(Object obj){
+      Integer value = toInt(obj);
+      return value == null ? NO_VALUE : value;
+    }
+  }
+  private static class ToLong extends LongTransformer {
+    @Override
+    public Object transform(Object obj, Map siblings){
+      return toLong(obj);
+    }
+    @Override
+    public long transformLong(Object obj, long defaultValue){
+      if(obj instanceof Long || obj instanceof Integer){
+        return ((Number)obj).longValue();
+      }
+      Long value = toLong(obj);
+      return value == null ? defaultValue : value;
+    }
+  }
+  private static class ToDouble extends DoubleTransformer {
+    @Override
+    public Object transform(Object obj, Map siblings){
+      return toDouble(obj);
+    }
+    @Override
+    public double transformDouble(Object obj, double defaultValue){
+      if(obj instanceof Number){
+        return ((Number)obj).doubleValue();
+      }
+      Double value = toDouble(obj);
+      return value == null ? defaultValue : value;
+    }
+  }
 }
@@ -0,0 +1,504 @@
+package sqlmapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import maptree.MapTree;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * A sequence of updates and queries run one after another on a single connection, in one transaction (See
+ * {@link SqlExecutorFactory#createUnitOfWork()}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   The steps are declared first and run by {@link #run()}, which checks out one connection for all of them instead of
+ *   one per SqlUpdater or SqlSelector. A generated key read by {@link #updateAndGetKey(String, Map, String, String)}
+ *   (or by {@link #update(UpdateDefinition, Map)}) and a value read by {@link #queryForObject(String, String, Map)}
+ *   become named parameters of every step after it. Consecutive updates with the same SQL that read nothing back
+ *   (single updates and the rows of {@link #updateList(String, List)} alike) are sent as one JDBC batch. The steps
+ *   still run in the order they were declared, so a statement can rely on the rows written by the statements before it.
+ *   Each SQL statement is parsed once per unit of work.
+ * </p>
+ * <p>
+ *   If no Spring transaction is active and the connection is in auto-commit mode, the unit of work commits when every step
+ *   has succeeded and rolls back when one fails. Within a Spring transaction it leaves both to the transaction.
+ * </p>
+ */
+public class UnitOfWork {
+  private enum Kind {
+    UPDATE,
+    KEY,
+    OBJECT,
+    LIST
+  }
+
+  private final SqlExecutorFactory factory;
+  private final JdbcOperations jdbc;
+  private final List<Step> steps = new ArrayList<>();
+  private final Map<String, NamedSql> parsed = new HashMap<>();
+  private final Set<String> invalidatedTags = new LinkedHashSet<>();
+  private boolean ran;
+  private int roundTrips;
+
+  UnitOfWork(SqlExecutorFactory factory, JdbcOperations jdbc){
+    this.factory = factory;
+    this.jdbc = jdbc;
+  }
+
+  /**
+   * Adds an update.
+   *
+   * @param sql the SQL statement, with named parameters
+   * @param params the values of its named parameters (which win over the values read by earlier steps)
+   * @return the instance of UnitOfWork (for chaining)
+   */
+  public UnitOfWork update(String sql, Map<String, ?> params){
+    steps.add(new Step(Kind.UPDATE, parse(sql), Collections.<Map<String, ?>>singletonList(params), null, null, null));
+    return this;
+  }
+
+  /**
+   * Adds an {@link UpdateDefinition}, invalidating its tags when the unit of work has run.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The auto-generated keys of the definition become named parameters of the steps after it, each named after its
+   *   column. Mappings take the parameters of the items of a list, so a definition with mappings is added with
+   *   {@link #updateList(UpdateDefinition, List)} instead.
+   * </p>
+   *
+   * @param update the statement
+   * @param params the values of its named parameters
+   * @return the instance of UnitOfWork (for chaining)
+   * @throws IllegalArgumentException if the definition has mappings
+   */
+  public UnitOfWork update(UpdateDefinition update, Map<String, ?> params){
+    if(update.plan.size() > 0){
+      throw new IllegalArgumentException("The mappings of an UpdateDefinition apply to the items of a list; add it with updateList(UpdateDefinition, List)");
+    }
+    Kind kind = update.keyNames == null ? Kind.UPDATE : Kind.KEY;
+    steps.add(new Step(kind, update.namedSql, Collections.<Map<String, ?>>singletonList(params), update.keyNames, null, null));
+    if(update.invalidatedTags != null){
+      Collections.addAll(invalidatedTags, update.invalidatedTags);
+    }
+    return this;
+  }
+
+  /**
+   * Adds an {@link UpdateDefinition} run once for every item in a list, invalidating its tags when the unit of work has
+   * run.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The named parameters of each item are the values of the mappings of the definition, taken from the item as in
+   *   {@link SqlUpdater#batchUpdateList(String, List)}, or the item itself if the definition has no mappings. Generated
+   *   keys are read one row at a time, so a definition with keys is added with {@link #update(UpdateDefinition, Map)}
+   *   instead.
+   * </p>
+   *
+   * @param update the statement
+   * @param dataList the items to run the statement for
+   * @return the instance of UnitOfWork (for chaining)
+   * @throws IllegalArgumentException if the definition has generated keys
+   */
+  @SuppressWarnings("unchecked")
+  public UnitOfWork updateList(UpdateDefinition update, List<? extends Map> dataList){
+    if(update.keyNames != null){
+      throw new IllegalArgumentException("The generated keys of an UpdateDefinition are read one row at a time; add it with update(UpdateDefinition, Map)");
+    }
+    if(!dataList.isEmpty()){
+      List<Map<String, ?>> rows = new ArrayList<>(dataList.size());
+      for(Map data : dataList){
+        rows.add(update.plan.size() == 0 ? data : mappedParams(update.plan, data));
+      }
+      steps.add(new Step(Kind.UPDATE, update.namedSql, rows, null, null, null));
+    }
+    if(update.invalidatedTags != null){
+      Collections.addAll(invalidatedTags, update.invalidatedTags);
+    }
+    return this;
+  }
+
+  /**
+   * Adds an update run once for every item in a list.
+   *
+   * @param sql the SQL statement, with named parameters
+   * @param dataList the values of its named parameters for each item
+   * @return the instance of UnitOfWork (for chaining)
+   */
+  @SuppressWarnings("unchecked")
+  public UnitOfWork updateList(String sql, List<? extends Map> dataList){
+    if(!dataList.isEmpty()){
+      steps.add(new Step(Kind.UPDATE, parse(sql), new ArrayList<Map<String, ?>>((List)dataList), null, null, null));
+    }
+    return this;
+  }
+
+  /**
+   * Adds an insert whose auto-generated key becomes the named parameter {@code asParam} of the steps after it.
+   *
+   * @param sql the SQL statement, with named parameters
+   * @param params the values of its named parameters
+   * @param keyColumn the name of the auto-generated key column
+   * @param asParam the name of the parameter the key is bound to
+   * @return the instance of UnitOfWork (for chaining)
+   */
+  public UnitOfWork updateAndGetKey(String sql, Map<String, ?> params, String keyColumn, String asParam){
+    steps.add(new Step(Kind.KEY, parse(sql), Collections.<Map<String, ?>>singletonList(params), new String[]{keyColumn}, asParam, null));
+    return this;
+  }
+
+  /**
+   * Adds a query for a single value, which becomes the named parameter {@code asParam} of the steps after it.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   The query must return exactly one row, or the unit of work fails with an
+   *   {@link IncorrectResultSizeDataAccessException}.
+   * </p>
+   *
+   * @param asParam the name of the parameter the value is bound to
+   * @param sql the SQL query, with named parameters
+   * @param params the values of its named parameters
+   * @return the instance of UnitOfWork (for chaining)
+   */
+  public UnitOfWork queryForObject(String asParam, String sql, Map<String, ?> params){
+    steps.add(new Step(Kind.OBJECT, parse(sql), Collections.<Map<String, ?>>singletonList(params), null, asParam, null));
+    return this;
+  }
+
+  /**
+   * Adds a query whose rows, with the rows of its child queries joined into them, are put in the result of {@link #run()}
+   * under {@code resultName}.
+   *
+   * @param resultName the key of the rows in the result
+   * @param query the query
+   * @param params the values of its named parameters
+   * @return the instance of UnitOfWork (for chaining)
+   */
+  public UnitOfWork queryForList(String resultName, QueryDefinition query, Map<String, ?> params){
+    steps.add(new Step(Kind.LIST, query.sql, Collections.<Map<String, ?>>singletonList(params), null, resultName, query));
+    return this;
+  }
+
+  /**
+   * Invalidates the cached results with any of the given tags when the unit of work has run (See
+   * {@link SqlUpdater#invalidates(String...)}).
+   * @return the instance of UnitOfWork (for chaining)
+   */
+  public UnitOfWork invalidates(String... tags){
+    Collections.addAll(invalidatedTags, tags);
+    return this;
+  }
+
+  /**
+   * Runs the steps on one connection.
+   *
+   * @return the keys and values read by the steps (by the names given to them) and the rows of the queries (by their result
+   *         names)
+   * @throws IllegalStateException if the unit of work has already run
+   */
+  public MapTree run(){
+    if(ran){
+      throw new IllegalStateException("A unit of work can only be run once");
+    }
+    ran = true;
+    final MapTree results = new MapTree();
+    try {
+      jdbc.execute(new ConnectionCallback<Void>(){
+        public Void doInConnection(Connection con) throws SQLException {
+          boolean commit = con.getAutoCommit() && !TransactionSynchronizationManager.isActualTransactionActive();
+          if(commit){
+            con.setAutoCommit(false);
+          }
+          try {
+            runSteps(con, results);
+            if(commit){
+              con.commit();
+            }
+          }catch(SQLException | RuntimeException e){
+            if(commit){
+              rollback(con, e);
+            }
+            throw e;
+          }finally{
+            if(commit){
+              con.setAutoCommit(true);
+            }
+          }
+          return null;
+        }
+      });
+    }finally{
+      if(!invalidatedTags.isEmpty() && factory.getResultCache() != null){
+        factory.getResultCache().invalidateAfterTransaction(invalidatedTags.toArray(new String[]{}));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return the number of statements sent to the database by {@link #run()}, counting each batch once
+   */
+  public int getRoundTrips(){
+    return roundTrips;
+  }
+
+  private void runSteps(Connection con, MapTree results) throws SQLException {
+    int i = 0;
+    while(i < steps.size()){
+      Step step = steps.get(i++);
+      switch(step.kind){
+        case UPDATE:
+          List<Map<String, ?>> rows = new ArrayList<>(step.rows);
+          while(i < steps.size() && steps.get(i).kind == Kind.UPDATE && steps.get(i).sql == step.sql){
+            rows.addAll(steps.get(i++).rows);
+          }
+          update(con, step.sql, rows, results);
+          break;
+        case KEY:
+          Object[] keys = updateAndGetKeys(con, step, results);
+          if(step.name != null){
+            results.put(step.name, keys[0]);
+          }else{
+            for(int k = 0; k < keys.length; k++){
+              results.put(step.keyColumns[k], keys[k]);
+            }
+          }
+          break;
+        case OBJECT:
+          results.put(step.name, queryForObject(con, step, results));
+          break;
+        case LIST:
+          results.put(step.name, queryForList(con, step.query, params(results, step.rows.get(0))));
+          break;
+      }
+    }
+  }
+
+  private void update(Connection con, NamedSql sql, List<Map<String, ?>> rows, MapTree results) throws SQLException {
+    SqlEvent.Recorder recorder = factory.record("unitOfWork", sql.getSql(), null);
+    MapSqlParameterSource first = params(results, rows.get(0));
+    NamedSql.Binder binder = sql.binder(first);
+    PreparedStatement ps = con.prepareStatement(binder.getSql());
+    try {
+      StatementCanceller.register(ps);
+      if(rows.size() == 1){
+        binder.bind(ps, first);
+        long count = ps.executeUpdate();
+        roundTrips++;
+        if(recorder != null){
+          recorder.rows = count;
+        }
+      }else{
+        for(int start = 0; start < rows.size(); start += BatchRunner.DEFAULT_BATCH_SIZE){
+          int end = Math.min(rows.size(), start + BatchRunner.DEFAULT_BATCH_SIZE);
+          for(int r = start; r < end; r++){
+            binder.bind(ps, r == 0 ? first : params(results, rows.get(r)));
+            ps.addBatch();
+          }
+          int[] counts = ps.executeBatch();
+          roundTrips++;
+          if(recorder != null){
+            for(int count : counts){
+              recorder.rows += Math.max(0, count);
+            }
+          }
+        }
+      }
+    }catch(SQLException | RuntimeException e){
+      if(recorder != null){
+        recorder.finish(e);
+      }
+      throw e;
+    }finally{
+      StatementCanceller.unregister();
+      JdbcUtils.closeStatement(ps);
+    }
+    if(recorder != null){
+      recorder.finish();
+    }
+  }
+
+  private Object[] updateAndGetKeys(Connection con, Step step, MapTree results) throws SQLException {
+    SqlEvent.Recorder recorder = factory.record("unitOfWork", step.sql.getSql(), null);
+    MapSqlParameterSource params = params(results, step.rows.get(0));
+    NamedSql.Binder binder = step.sql.binder(params);
+    PreparedStatement ps = con.prepareStatement(binder.getSql(), step.keyColumns);
+    ResultSet rs = null;
+    try {
+      StatementCanceller.register(ps);
+      binder.bind(ps, params);
+      int count = ps.executeUpdate();
+      roundTrips++;
+      rs = ps.getGeneratedKeys();
+      if(rs == null || !rs.next()){
+        throw new EmptyResultDataAccessException(1);
+      }
+      Object[] keys = new Object[step.keyColumns.length];
+      for(int k = 0; k < keys.length; k++){
+        keys[k] = JdbcUtils.getResultSetValue(rs, k + 1);
+      }
+      if(recorder != null){
+        recorder.rows = count;
+        recorder.finish();
+      }
+      return keys;
+    }catch(SQLException | RuntimeException e){
+      if(recorder != null){
+        recorder.finish(e);
+      }
+      throw e;
+    }finally{
+      JdbcUtils.closeResultSet(rs);
+      StatementCanceller.unregister();
+      JdbcUtils.closeStatement(ps);
+    }
+  }
+
+  private Object queryForObject(Connection con, Step step, MapTree results) throws SQLException {
+    SqlEvent.Recorder recorder = factory.record("unitOfWork", step.sql.getSql(), null);
+    MapSqlParameterSource params = params(results, step.rows.get(0));
+    NamedSql.Binder binder = step.sql.binder(params);
+    PreparedStatement ps = con.prepareStatement(binder.getSql());
+    ResultSet rs = null;
+    try {
+      StatementCanceller.register(ps);
+      binder.bind(ps, params);
+      rs = ps.executeQuery();
+      roundTrips++;
+      List<Object> values = new ArrayList<>(1);
+      while(rs.next() && values.size() < 2){
+        values.add(JdbcUtils.getResultSetValue(rs, 1));
+      }
+      if(values.size() != 1){
+        throw values.isEmpty() ? new EmptyResultDataAccessException(1) : new IncorrectResultSizeDataAccessException(1, values.size());
+      }
+      if(recorder != null){
+        recorder.rows = 1;
+        recorder.finish();
+      }
+      return values.get(0);
+    }catch(SQLException | RuntimeException e){
+      if(recorder != null){
+        recorder.finish(e);
+      }
+      throw e;
+    }finally{
+      JdbcUtils.closeResultSet(rs);
+      StatementCanceller.unregister();
+      JdbcUtils.closeStatement(ps);
+    }
+  }
+
+  private List<MapTree> queryForList(Connection con, QueryDefinition query, MapSqlParameterSource params) throws SQLException {
+    SqlEvent.Recorder recorder = factory.record("unitOfWork", query.getSql(), null);
+    NamedSql.Binder binder = query.sql.binder(params);
+    PreparedStatement ps = con.prepareStatement(binder.getSql());
+    ResultSet rs = null;
+    List<MapTree> list = new ArrayList<>();
+    try {
+      StatementCanceller.register(ps);
+      if(query.fetchSize != 0){
+        ps.setFetchSize(query.fetchSize);
+      }
+      binder.bind(ps, params);
+      rs = ps.executeQuery();
+      roundTrips++;
+      MappingRowMapper mapper = new MappingRowMapper(query.plan);
+      while(rs.next()){
+        list.add(mapper.mapRow(rs, list.size()));
+      }
+    }catch(SQLException | RuntimeException e){
+      if(recorder != null){
+        recorder.finish(e);
+      }
+      throw e;
+    }finally{
+      JdbcUtils.closeResultSet(rs);
+      StatementCanceller.unregister();
+      JdbcUtils.closeStatement(ps);
+    }
+    if(recorder != null){
+      recorder.rows = list.size();
+      recorder.finish();
+    }
+    for(QueryDefinition.Join join : query.joins){
+      JoinEngine.join(list, queryForList(con, join.child, params), join.mappings, join.mergeJoin);
+    }
+    return list;
+  }
+
+  /**
+   * Returns the values read by the earlier steps, overridden by the parameters of the step.
+   */
+  private static MapSqlParameterSource params(MapTree results, Map<String, ?> stepParams){
+    MapSqlParameterSource params = new MapSqlParameterSource(results);
+    if(stepParams != null){
+      params.addValues(stepParams);
+    }
+    return params;
+  }
+
+  /**
+   * Returns the values of the mappings of a plan, taken from an item, by parameter name.
+   */
+  private static Map<String, Object> mappedParams(MappingPlan plan, Map data){
+    Object[] values = SqlUpdater.mappedValues(data, plan);
+    Map<String, Object> params = new HashMap<>();
+    for(int i = 0; i < values.length; i++){
+      params.put(plan.keys[i], values[i]);
+    }
+    return params;
+  }
+
+  private NamedSql parse(String sql){
+    NamedSql namedSql = parsed.get(sql);
+    if(namedSql == null){
+      namedSql = NamedSql.parse(sql);
+      parsed.put(sql, namedSql);
+    }
+    return namedSql;
+  }
+
+  private static void rollback(Connection con, Exception failure){
+    try {
+      con.rollback();
+    }catch(SQLException e){
+      failure.addSuppressed(e);
+    }
+  }
+
+  private static class Step {
+    final Kind kind;
+    final NamedSql sql;
+    final List<Map<String, ?>> rows;
+    final String[] keyColumns;
+    final String name;
+    final QueryDefinition query;
+
+    Step(Kind kind, NamedSql sql, List<Map<String, ?>> rows, String[] keyColumns, String name, QueryDefinition query){
+      this.kind = kind;
+      this.sql = sql;
+      this.rows = rows;
+      this.keyColumns = keyColumns;
+      this.name = name;
+      this.query = query;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import sqlmapping.SqlExecutor.Mapping;
+
+/**
+ * An immutable update: its SQL, mappings, transformers and generated keys, prepared once and run any number of times,
+ * concurrently, with different parameters (See {@link SqlExecutorFactory#update(UpdateDefinition, java.util.Map)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   The counterpart of {@link QueryDefinition} for SqlUpdater. Building it parses the named SQL and compiles the mappings
+ *   (used to take the parameters of each item of a batch, See {@link SqlUpdater#batchUpdateList(String, List)}), so running
+ *   it does neither.
+ * </p>
+ */
+public final class UpdateDefinition {
+  final String sql;
+  final NamedSql namedSql;
+  final MappingPlan plan;
+  final String[] keyNames;
+  final int batchSize;
+  final String[] invalidatedTags;
+
+  private UpdateDefinition(Builder builder){
+    this.sql = builder.sql;
+    this.namedSql = NamedSql.parse(builder.sql);
+    this.plan = builder.mappings.isEmpty() ? MappingPlan.EMPTY : MappingPlan.compile(new ArrayList<>(builder.mappings));
+    this.keyNames = builder.keyNames.isEmpty() ? null : builder.keyNames.toArray(new String[]{});
+    this.batchSize = builder.batchSize;
+    this.invalidatedTags = builder.invalidatedTags;
+  }
+
+  /**
+   * Starts building an UpdateDefinition.
+   *
+   * @param sql the SQL statement, with named parameters
+   * @return the builder
+   */
+  public static Builder builder(String sql){
+    return new Builder(sql);
+  }
+
+  /**
+   * @return the SQL statement
+   */
+  public String getSql(){
+    return sql;
+  }
+
+  public String toString(){
+    return "[" + sql + ", mappings=" + plan.size() + "]";
+  }
+
+  /**
+   * Builds an {@link UpdateDefinition}. Its functions mirror those of SqlUpdater.
+   */
+  public static class Builder {
+    private final String sql;
+    private final List<Mapping> mappings = new ArrayList<>();
+    private final List<String> keyNames = new ArrayList<>();
+    private int batchSize = BatchRunner.DEFAULT_BATCH_SIZE;
+    private String[] invalidatedTags;
+
+    private Builder(String sql){
+      this.sql = sql;
+    }
+
+    /**
+     * See {@link SqlUpdater#key(String)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder key(String key){
+      keyNames.add(key);
+      return this;
+    }
+
+    /**
+     * See {@link SqlUpdater#map(String)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String key){
+      return map(key, key, null);
+    }
+
+    /**
+     * See {@link SqlUpdater#map(String, String)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String path, String key){
+      return map(path, key, null);
+    }
+
+    /**
+     * See {@link SqlUpdater#map(String, Transformer)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String key, Transformer transformer){
+      return map(key, key, transformer);
+    }
+
+    /**
+     * See {@link SqlUpdater#map(String, String, Transformer)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder map(String path, String key, Transformer transformer){
+      mappings.add(new Mapping(path, key, transformer));
+      return this;
+    }
+
+    /**
+     * See {@link SqlUpdater#batchSize(int)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder batchSize(int batchSize){
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * See {@link SqlUpdater#invalidates(String...)}.
+     * @return the instance of Builder (for chaining)
+     */
+    public Builder invalidates(String... tags){
+      this.invalidatedTags = tags.clone();
+      return this;
+    }
+
+    /**
+     * Parses the SQL, compiles the mappings and returns the UpdateDefinition.
+     * @return the UpdateDefinition
+     */
+    public UpdateDefinition build(){
+      return new UpdateDefinition(this);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a bulk upsert (See {@link SqlUpdater#upsertList(String, String[], List)}): the number of rows and
+ * statements and, if {@link SqlUpdater#upsertOutcomes()} was called, whether each row was inserted or updated, in the order
+ * the rows were given.
+ */
+public class UpsertResult {
+  public enum Outcome {
+    INSERTED,
+    UPDATED
+  }
+
+  private final int rows;
+  private final List<Outcome> outcomes;
+  private final int statements;
+
+  UpsertResult(int rows, List<Outcome> outcomes, int statements){
+    this.rows = rows;
+    this.outcomes = outcomes == null ? null : Collections.unmodifiableList(new ArrayList<>(outcomes));
+    this.statements = statements;
+  }
+
+  /**
+   * @return the number of rows upserted
+   */
+  public int getRowCount(){
+    return rows;
+  }
+
+  /**
+   * @return whether the outcome of every row was looked up (See {@link SqlUpdater#upsertOutcomes()})
+   */
+  public boolean hasOutcomes(){
+    return outcomes != null;
+  }
+
+  /**
+   * @return the outcome of every row, in row order
+   * @throws IllegalStateException if the outcomes weren't looked up
+   */
+  public List<Outcome> getOutcomes(){
+    return requireOutcomes();
+  }
+
+  /**
+   * @param index the position of the row in the list passed to the upsert
+   * @return the outcome of the row
+   * @throws IllegalStateException if the outcomes weren't looked up
+   */
+  public Outcome getOutcome(int index){
+    return requireOutcomes().get(index);
+  }
+
+  public int getInsertedCount(){
+    return count(Outcome.INSERTED);
+  }
+
+  public int getUpdatedCount(){
+    return count(Outcome.UPDATED);
+  }
+
+  /**
+   * @return the number of upsert statements executed (each for many rows)
+   */
+  public int getStatementCount(){
+    return statements;
+  }
+
+  private List<Outcome> requireOutcomes(){
+    if(outcomes == null){
+      throw new IllegalStateException("The outcomes of the rows weren't looked up; call upsertOutcomes() before upsertList()");
+    }
+    return outcomes;
+  }
+
+  private int count(Outcome outcome){
+    int count = 0;
+    for(Outcome o : requireOutcomes()){
+      if(o == outcome){
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public String toString(){
+    if(outcomes == null){
+      return "[rows=" + rows + ", statements=" + statements + "]";
+    }
+    return "[rows=" + rows + ", inserted=" + getInsertedCount() + ", updated=" + getUpdatedCount() + ", statements=" + statements + "]";
+  }
+}
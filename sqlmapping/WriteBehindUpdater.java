@@ -0,0 +1,401 @@
+package sqlmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Queues updates nobody waits on (view counters, last-seen stamps, audit rows...) and writes them in the background, in
+ * JDBC batches (See {@link SqlExecutorFactory#createWriteBehindUpdater(int, int, long, TimeUnit)}).
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   {@link #update(String, Map)} only queues the statement and its parameters, and returns at once. The queue is flushed
+ *   on the executor of the factory once it holds {@code flushSize} updates, and every {@code flushInterval} in any case;
+ *   each flush sends the queued updates of each SQL statement as one batch. Updates of a statement marked with
+ *   {@link #coalesce(String, String...)} replace the queued update with the same key parameters instead of queuing another,
+ *   so a row updated a thousand times between two flushes is written once. When the queue is full, {@code update} starts a
+ *   flush and waits for room, up to {@link #maxWait(long, TimeUnit)}, then fails with a RejectedExecutionException.
+ *   Updates run outside any transaction of the caller, and their order is only kept among the updates of the same SQL
+ *   statement. An update that fails is logged and counted, not retried. {@link #close()} (or
+ *   {@link SqlExecutorFactory#shutdown()}) flushes what is left.
+ * </p>
+ */
+public class WriteBehindUpdater implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger("mcore-debug");
+
+  private final SqlExecutorFactory factory;
+  private final JdbcOperations jdbc;
+  private final int capacity;
+  private final int flushSize;
+  private volatile long maxWaitNanos = TimeUnit.SECONDS.toNanos(10);
+  private final Map<String, Coalescing> coalescing = new ConcurrentHashMap<>();
+  private final Map<String, NamedSql> parsed = new ConcurrentHashMap<>();
+  // Guards the queue; updaters wait on it for room.
+  private final Object lock = new Object();
+  private LinkedHashMap<Object, Pending> queue = new LinkedHashMap<>();
+  private long sequence;
+  private boolean flushRequested;
+  private volatile boolean closed;
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final ScheduledFuture<?> timerTask;
+  private final LongAdder queued = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final HistogramMetricsListener.Histogram flushLatency = new HistogramMetricsListener.Histogram();
+  private volatile long lastFlushNanos;
+
+  WriteBehindUpdater(SqlExecutorFactory factory, JdbcOperations jdbc, int capacity, int flushSize, long flushInterval, TimeUnit unit){
+    if(capacity <= 0 || flushSize <= 0){
+      throw new IllegalArgumentException("The capacity and the flush size must be positive");
+    }
+    this.factory = factory;
+    this.jdbc = jdbc;
+    this.capacity = capacity;
+    this.flushSize = Math.min(flushSize, capacity);
+    this.timerTask = flushInterval <= 0 ? null : factory.getTimer().scheduleWithFixedDelay(new Runnable(){
+      public void run(){
+        try {
+          requestFlush();
+        }catch(RejectedExecutionException e){
+          // The executor was shut down; close() writes what is left.
+        }
+      }
+    }, flushInterval, flushInterval, unit);
+  }
+
+  /**
+   * Coalesces the queued updates of {@code sql} that have the same values for {@code keyParams}: the last one replaces the
+   * others (See {@link #coalesce(String, BinaryOperator, String...)}).
+   *
+   * @param sql the SQL statement
+   * @param keyParams the parameters that identify what the statement updates
+   * @return the instance of WriteBehindUpdater (for chaining)
+   */
+  public WriteBehindUpdater coalesce(String sql, String... keyParams){
+    return coalesce(sql, null, keyParams);
+  }
+
+  /**
+   * Coalesces the queued updates of {@code sql} that have the same values for {@code keyParams}, merging their parameters
+   * with {@code merge}.
+   *
+   * <p>
+   *   <b>Details:</b>
+   *   {@code merge} is given the parameters of the queued update and of the new one, and returns the parameters to queue in
+   *   their place; for a counter, {@code "update page set views = views + :n where id = :id"}, it would add up the
+   *   {@code n}s. It runs while the queue is locked, so it must be quick.
+   * </p>
+   *
+   * @param sql the SQL statement
+   * @param merge merges the parameters of two updates, or null to keep the last
+   * @param keyParams the parameters that identify what the statement updates
+   * @return the instance of WriteBehindUpdater (for chaining)
+   */
+  public WriteBehindUpdater coalesce(String sql, BinaryOperator<Map<String, Object>> merge, String... keyParams){
+    coalescing.put(sql, new Coalescing(keyParams.clone(), merge));
+    return this;
+  }
+
+  /**
+   * Sets how long {@link #update(String, Map)} waits for room in a full queue before it fails. Defaults to 10 seconds.
+   *
+   * @param maxWait the longest wait, or 0 to fail at once
+   * @param unit the unit of {@code maxWait}
+   * @return the instance of WriteBehindUpdater (for chaining)
+   */
+  public WriteBehindUpdater maxWait(long maxWait, TimeUnit unit){
+    this.maxWaitNanos = unit.toNanos(maxWait);
+    return this;
+  }
+
+  /**
+   * Queues a SQL statement, to be executed with {@code params} in the background.
+   *
+   * @param sql the SQL statement, with named parameters
+   * @param params the values of the named parameters (copied)
+   * @throws RejectedExecutionException if the queue stays full for longer than {@link #maxWait(long, TimeUnit)}
+   * @throws IllegalStateException if the updater is closed
+   */
+  public void update(String sql, Map<String, ?> params){
+    Map<String, Object> values = new HashMap<>(params);
+    Coalescing rule = coalescing.get(sql);
+    Object key = rule == null ? null : rule.key(sql, values);
+    long deadline = System.nanoTime() + maxWaitNanos;
+    boolean flush = false;
+    while(true){
+      if(flush){
+        // Outside the lock: requesting a flush takes the factory's monitor (in getExecutor()), and the factory takes the
+        // lock when it closes its updaters.
+        requestFlush();
+      }
+      synchronized(lock){
+        if(closed){
+          throw new IllegalStateException("The write-behind updater is closed");
+        }
+        Pending existing = key == null ? null : queue.get(key);
+        if(existing != null){
+          existing.params = rule.merge == null ? values : rule.merge.apply(existing.params, values);
+          coalesced.increment();
+          return;
+        }
+        if(queue.size() < capacity){
+          queue.put(key != null ? key : Long.valueOf(sequence++), new Pending(sql, values));
+          queued.increment();
+          flush = queue.size() >= flushSize;
+          break;
+        }
+        if(flush){
+          long remaining = deadline - System.nanoTime();
+          if(remaining <= 0){
+            throw new RejectedExecutionException("The write-behind queue is full (" + capacity + " updates)");
+          }
+          try {
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+          }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for room in the write-behind queue", e);
+          }
+        }
+        // The queue is full: request a flush, then look again.
+        flush = true;
+      }
+    }
+    if(flush){
+      requestFlush();
+    }
+  }
+
+  /**
+   * Writes every queued update now, on the calling thread.
+   */
+  public void flush(){
+    flushLock.lock();
+    try {
+      List<Pending> pending;
+      synchronized(lock){
+        flushRequested = false;
+        if(queue.isEmpty()){
+          return;
+        }
+        pending = new ArrayList<>(queue.values());
+        queue = new LinkedHashMap<>();
+        lock.notifyAll();
+      }
+      long start = System.nanoTime();
+      Map<String, List<Map<String, Object>>> bySql = new LinkedHashMap<>();
+      for(Pending update : pending){
+        List<Map<String, Object>> rows = bySql.get(update.sql);
+        if(rows == null){
+          rows = new ArrayList<>();
+          bySql.put(update.sql, rows);
+        }
+        rows.add(update.params);
+      }
+      for(Map.Entry<String, List<Map<String, Object>>> e : bySql.entrySet()){
+        write(e.getKey(), e.getValue());
+      }
+      long elapsed = System.nanoTime() - start;
+      flushLatency.record(elapsed);
+      lastFlushNanos = elapsed;
+      flushes.increment();
+    }finally{
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * Stops the periodic flush and writes every queued update; later updates fail.
+   */
+  @Override
+  public void close(){
+    synchronized(lock){
+      if(closed){
+        return;
+      }
+      closed = true;
+      lock.notifyAll();
+    }
+    if(timerTask != null){
+      timerTask.cancel(false);
+    }
+    factory.removeWriteBehindUpdater(this);
+    flush();
+  }
+
+  /**
+   * @return the number of updates waiting in the queue
+   */
+  public int getQueueDepth(){
+    synchronized(lock){
+      return queue.size();
+    }
+  }
+
+  /**
+   * @return the number of updates queued so far (not counting coalesced ones)
+   */
+  public long getQueuedCount(){
+    return queued.sum();
+  }
+
+  /**
+   * @return the number of updates merged into a queued update instead of being queued
+   */
+  public long getCoalescedCount(){
+    return coalesced.sum();
+  }
+
+  /**
+   * @return the number of queued updates written successfully
+   */
+  public long getWrittenCount(){
+    return written.sum();
+  }
+
+  /**
+   * @return the number of queued updates that failed
+   */
+  public long getFailedCount(){
+    return failed.sum();
+  }
+
+  public long getFlushCount(){
+    return flushes.sum();
+  }
+
+  /**
+   * @return how long the last flush took, in nanoseconds
+   */
+  public long getLastFlushNanos(){
+    return lastFlushNanos;
+  }
+
+  /**
+   * @param percentile the percentile, from 0 to 100
+   * @return the upper bound of the flush latency at {@code percentile}, in nanoseconds (to a power of two)
+   */
+  public long getFlushPercentileNanos(double percentile){
+    return flushLatency.percentile(percentile);
+  }
+
+  public String toString(){
+    return "[queued=" + getQueueDepth() + ", coalesced=" + getCoalescedCount() + ", written=" + getWrittenCount() + ", failed="
+      + getFailedCount() + ", flushes=" + getFlushCount() + "]";
+  }
+
+  /**
+   * Flushes on the executor of the factory, unless a flush is requested already.
+   */
+  private void requestFlush(){
+    synchronized(lock){
+      if(flushRequested || queue.isEmpty()){
+        return;
+      }
+      flushRequested = true;
+    }
+    try {
+      factory.getExecutor().execute(new Runnable(){
+        public void run(){
+          try {
+            flush();
+          }catch(RuntimeException e){
+            logger.warning("A write-behind flush failed");
+            logger.warning(ExceptionUtils.getStackTrace(e));
+          }
+        }
+      });
+    }catch(RejectedExecutionException e){
+      synchronized(lock){
+        flushRequested = false;
+      }
+      throw e;
+    }
+  }
+
+  private void write(String sql, final List<Map<String, Object>> rows){
+    NamedSql namedSql = parsed.get(sql);
+    if(namedSql == null){
+      namedSql = NamedSql.parse(sql);
+      parsed.put(sql, namedSql);
+    }
+    SqlEvent.Recorder recorder = factory.record("writeBehind", sql, null);
+    BatchResult result;
+    try {
+      result = BatchRunner.run(jdbc, namedSql, rows, new IntFunction<SqlParameterSource>(){
+        public SqlParameterSource apply(int index){
+          return new MapSqlParameterSource(rows.get(index));
+        }
+      }, BatchRunner.DEFAULT_BATCH_SIZE, null, null, true);
+    }catch(RuntimeException e){
+      failed.add(rows.size());
+      if(recorder != null){
+        recorder.finish(e);
+      }
+      logger.warning("A write-behind batch of " + rows.size() + " updates failed: " + sql);
+      logger.warning(ExceptionUtils.getStackTrace(e));
+      return;
+    }
+    int failures = result.getFailures().size();
+    written.add(rows.size() - failures);
+    failed.add(failures);
+    if(recorder != null){
+      recorder.rows = rows.size() - failures;
+      recorder.finish(failures == 0 ? null : result.getFailures().get(0).getCause());
+    }
+    if(failures > 0){
+      logger.warning(failures + " of a write-behind batch of " + rows.size() + " updates failed: " + sql);
+      logger.warning(ExceptionUtils.getStackTrace(result.getFailures().get(0).getCause()));
+    }
+  }
+
+  private static class Pending {
+    final String sql;
+    Map<String, Object> params;
+
+    Pending(String sql, Map<String, Object> params){
+      this.sql = sql;
+      this.params = params;
+    }
+  }
+
+  private static class Coalescing {
+    final String[] keyParams;
+    final BinaryOperator<Map<String, Object>> merge;
+
+    Coalescing(String[] keyParams, BinaryOperator<Map<String, Object>> merge){
+      this.keyParams = keyParams;
+      this.merge = merge;
+    }
+
+    /**
+     * Returns what identifies the updates of {@code sql} that coalesce with one another.
+     */
+    Object key(String sql, Map<String, Object> params){
+      Object[] key = new Object[keyParams.length + 1];
+      key[0] = sql;
+      for(int i = 0; i < keyParams.length; i++){
+        key[i + 1] = params.get(keyParams[i]);
+      }
+      return Arrays.asList(key);
+    }
+  }
+}
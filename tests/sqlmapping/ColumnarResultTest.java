@@ -0,0 +1,85 @@
+package sqlmapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Tests the string columns of {@link ColumnarResult}, dictionary-encoded and not.
+ */
+class ColumnarResultTest {
+  private TestDatabase database;
+
+  @BeforeEach
+  void setUp(){
+    database = new TestDatabase();
+    int rows = ColumnarResult.StringColumn.DICTIONARY_LIMIT * 2;
+    database.jdbc.execute(
+      "create table item as select x id, case when mod(x, 10) = 0 then null else 'status ' || mod(x, 3) end status, "
+      + "case when mod(x, 10) = 0 then null else 'name ' || x end name from system_range(1, " + rows + ")"
+    );
+  }
+
+  @AfterEach
+  void tearDown(){
+    database.close();
+  }
+
+  @Test
+  void encodesFewDistinctStrings(){
+    ColumnarResult result = database.factory.createSqlSelector().queryForColumns("select id, status from item order by id");
+    ColumnarResult.StringColumn status = result.getStringColumn("status");
+
+    assertTrue(status.isDictionaryEncoded());
+    assertEquals(3, status.getDictionary().size());
+    assertEquals("status 1", status.getString(0));
+    assertNull(status.getString(9));
+    assertEquals(-1, status.getCode(9));
+    assertEquals(rows(status, "status 1"), status.whereEquals("status 1").cardinality());
+    assertEquals(0, status.whereEquals("missing").cardinality());
+  }
+
+  @Test
+  void holdsManyDistinctStringsPlain(){
+    ColumnarResult result = database.factory.createSqlSelector().queryForColumns("select id, name from item order by id");
+    final ColumnarResult.StringColumn name = result.getStringColumn("name");
+
+    assertFalse(name.isDictionaryEncoded());
+    assertEquals(ColumnarResult.StringColumn.DICTIONARY_LIMIT * 2, name.size());
+    assertEquals("name 1", name.getString(0));
+    assertNull(name.getString(9));
+    assertEquals("name 7999", name.getString(7998));
+    assertEquals(ColumnarResult.StringColumn.DICTIONARY_LIMIT * 2 / 10, name.getNullCount());
+    BitSet matches = name.whereEquals("name 8001");
+    assertEquals(1, matches.cardinality());
+    assertEquals(8000, matches.nextSetBit(0));
+    assertEquals(1, name.countByValue(matches).get("name 8001").intValue());
+    assertThrows(IllegalStateException.class, new Executable(){
+      public void execute(){
+        name.getCodes();
+      }
+    });
+
+    ColumnarResult.StringColumn filtered = result.filter(matches).getStringColumn("name");
+    assertEquals(1, filtered.size());
+    assertEquals("name 8001", filtered.getString(0));
+  }
+
+  private static int rows(ColumnarResult.StringColumn column, String value){
+    int rows = 0;
+    for(int row = 0; row < column.size(); row++){
+      if(value.equals(column.getString(row))){
+        rows++;
+      }
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,116 @@
+package sqlmapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests routing queries to read replicas: each database says which one it is, so a query tells where it ran.
+ */
+class ReadReplicaTest {
+  private TestDatabase primary;
+  private TestDatabase replica;
+  private final AtomicBoolean replicaDown = new AtomicBoolean();
+
+  @BeforeEach
+  void setUp(){
+    primary = new TestDatabase();
+    replica = new TestDatabase();
+    primary.jdbc.execute("create table source (name varchar(20))");
+    primary.jdbc.execute("insert into source values ('primary')");
+    replica.jdbc.execute("create table source (name varchar(20))");
+    replica.jdbc.execute("insert into source values ('replica')");
+    primary.factory.addReadReplica("replica", new DelegatingDataSource(new DriverManagerDataSource(replica.url, "sa", "")){
+      @Override
+      public Connection getConnection() throws SQLException {
+        if(replicaDown.get()){
+          throw new SQLException("The replica is down");
+        }
+        return super.getConnection();
+      }
+    });
+  }
+
+  @AfterEach
+  void tearDown(){
+    primary.close();
+    replica.close();
+  }
+
+  @Test
+  void readsFromTheReplicaAndWritesToThePrimary(){
+    assertEquals("replica", source(null));
+
+    primary.factory.createSqlUpdater().update("update source set name = 'written'");
+
+    assertEquals("written", primary.jdbc.queryForObject("select name from source", String.class));
+    assertEquals("replica", source(null));
+  }
+
+  @Test
+  void retriesOnThePrimaryAndEjectsAFailingReplica(){
+    primary.factory.setReplicaEjection(2, 1, TimeUnit.HOURS);
+    replicaDown.set(true);
+
+    assertEquals("primary", source(null));
+    assertFalse(primary.factory.getReadReplicas().get(0).isEjected());
+    assertEquals("primary", source(null));
+    assertTrue(primary.factory.getReadReplicas().get(0).isEjected());
+
+    // Ejected, the replica gets no queries even once it is back, until the cooldown has passed.
+    replicaDown.set(false);
+    assertEquals("primary", source(null));
+  }
+
+  @Test
+  void takesBackAReplicaAfterTheCooldown() throws InterruptedException {
+    primary.factory.setReplicaEjection(1, 50, TimeUnit.MILLISECONDS);
+    replicaDown.set(true);
+    assertEquals("primary", source(null));
+    assertTrue(primary.factory.getReadReplicas().get(0).isEjected());
+
+    replicaDown.set(false);
+    Thread.sleep(100);
+
+    assertEquals("replica", source(null));
+    assertFalse(primary.factory.getReadReplicas().get(0).isEjected());
+  }
+
+  @Test
+  void pinsTheReadsOfACallerThatWroteToThePrimary(){
+    primary.factory.setReadYourWritesWindow(1, TimeUnit.MINUTES);
+    assertEquals("replica", source("ann"));
+
+    primary.factory.createSqlUpdater("ann").update("update source set name = 'ann'");
+
+    assertEquals("ann", source("ann"));
+    assertEquals("replica", source("bob"));
+    assertEquals("replica", source(null));
+  }
+
+  @Test
+  void releasesACallerOnceTheWindowHasPassed() throws InterruptedException {
+    primary.factory.setReadYourWritesWindow(50, TimeUnit.MILLISECONDS);
+    primary.factory.createSqlUpdater("ann").update("update source set name = 'ann'");
+    assertEquals("ann", source("ann"));
+
+    Thread.sleep(100);
+
+    assertEquals("replica", source("ann"));
+  }
+
+  private String source(String callerKey){
+    SqlSelector selector = callerKey == null ? primary.factory.createSqlSelector() : primary.factory.createSqlSelector(callerKey);
+    return selector.queryForObject("select name from source", String.class);
+  }
+}
@@ -0,0 +1,107 @@
+package sqlmapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests caching query results in a {@link ResultCache} and dropping them by tag.
+ */
+class ResultCacheTest {
+  private TestDatabase database;
+  private ResultCache cache;
+
+  @BeforeEach
+  void setUp(){
+    database = new TestDatabase();
+    database.jdbc.execute("create table product (id int primary key, name varchar(20))");
+    database.jdbc.execute("create table customer (id int primary key, name varchar(20))");
+    database.jdbc.execute("insert into product values (1, 'apple')");
+    database.jdbc.execute("insert into customer values (1, 'ann')");
+    cache = new ResultCache(100, 0, TimeUnit.SECONDS);
+    database.factory.setResultCache(cache);
+  }
+
+  @AfterEach
+  void tearDown(){
+    database.close();
+  }
+
+  @Test
+  void servesCachedResultsUntilTheirTagIsInvalidated(){
+    assertEquals("apple", productName());
+    // Written behind the cache's back, so the cached result is still served.
+    database.jdbc.execute("update product set name = 'pear' where id = 1");
+    assertEquals("apple", productName());
+    assertEquals(1, cache.getHits());
+
+    database.factory.createSqlUpdater().invalidates("product").update("update product set name = 'plum' where id = 1");
+
+    assertEquals(0, cache.size());
+    assertEquals("plum", productName());
+  }
+
+  @Test
+  void keepsResultsWithOtherTags(){
+    assertEquals("apple", productName());
+    assertEquals("ann", customerName());
+    database.jdbc.execute("update customer set name = 'bob' where id = 1");
+
+    database.factory.createSqlUpdater().invalidates("product").update("update product set name = 'pear' where id = 1");
+
+    assertEquals(1, cache.size());
+    assertEquals("pear", productName());
+    assertEquals("ann", customerName());
+  }
+
+  @Test
+  void invalidatesOnceTheTransactionHasCompleted(){
+    assertEquals("apple", productName());
+    TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(database.jdbc.getDataSource()));
+
+    transaction.execute(new TransactionCallbackWithoutResult(){
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status){
+        database.factory.createSqlUpdater().invalidates("product").update("update product set name = 'pear' where id = 1");
+        // The query sees the uncommitted write, and the result cached before it is kept until the commit.
+        assertEquals("pear", productName());
+        assertEquals(1, cache.size());
+      }
+    });
+
+    assertEquals(0, cache.size());
+    assertEquals("pear", productName());
+  }
+
+  @Test
+  void invalidatesOnceTheTransactionHasRolledBack(){
+    assertEquals("apple", productName());
+    TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(database.jdbc.getDataSource()));
+
+    transaction.execute(new TransactionCallbackWithoutResult(){
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status){
+        database.factory.createSqlUpdater().invalidates("product").update("update product set name = 'pear' where id = 1");
+        status.setRollbackOnly();
+      }
+    });
+
+    assertEquals(0, cache.size());
+    assertEquals("apple", productName());
+  }
+
+  private String productName(){
+    return database.factory.createSqlSelector().cache("product").queryForObject("select name from product where id = 1", String.class);
+  }
+
+  private String customerName(){
+    return database.factory.createSqlSelector().cache("customer").queryForObject("select name from customer where id = 1", String.class);
+  }
+}
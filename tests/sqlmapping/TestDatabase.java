@@ -0,0 +1,46 @@
+package sqlmapping;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * An in-memory H2 database for the tests, with a SqlExecutorFactory on it.
+ *
+ * <p>
+ *   <b>Details:</b>
+ *   Every instance is a database of its own, so tests don't see each other's tables. {@code mode} is an H2 compatibility
+ *   mode (such as "MySQL"), or null for none.
+ * </p>
+ */
+class TestDatabase {
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  final String url;
+  final NamedParameterJdbcTemplate template;
+  final JdbcTemplate jdbc;
+  final SqlExecutorFactory factory;
+
+  TestDatabase(){
+    this(null);
+  }
+
+  TestDatabase(String mode){
+    url = "jdbc:h2:mem:test" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1" + (mode == null ? "" : ";MODE=" + mode);
+    template = template(url);
+    jdbc = template.getJdbcTemplate();
+    factory = new SqlExecutorFactory();
+    ReflectionTestUtils.setField(factory, "namedParameterJdbcTemplate", template);
+  }
+
+  static NamedParameterJdbcTemplate template(String url){
+    return new NamedParameterJdbcTemplate(new DriverManagerDataSource(url, "sa", ""));
+  }
+
+  void close(){
+    factory.shutdown();
+    jdbc.execute("shutdown");
+  }
+}
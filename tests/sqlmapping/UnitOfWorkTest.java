@@ -0,0 +1,81 @@
+package sqlmapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import maptree.MapTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Tests running {@link UpdateDefinition}s in a {@link UnitOfWork}.
+ */
+class UnitOfWorkTest {
+  private TestDatabase database;
+
+  @BeforeEach
+  void setUp(){
+    database = new TestDatabase();
+    database.jdbc.execute("create table orders (id int auto_increment primary key, customer varchar(20))");
+    database.jdbc.execute("create table line (order_id int, product varchar(20), qty int)");
+  }
+
+  @AfterEach
+  void tearDown(){
+    database.close();
+  }
+
+  @Test
+  void passesGeneratedKeysAndMapsItems(){
+    UpdateDefinition insertOrder = UpdateDefinition.builder("insert into orders (customer) values (:customer)").key("id").build();
+    UpdateDefinition insertLine = UpdateDefinition.builder("insert into line (order_id, product, qty) values (:id, :product, :qty)")
+      .map("name", "product")
+      .map("quantity", "qty", Transformer.TO_INT)
+      .build();
+    List<Map> lines = new ArrayList<>();
+    lines.add(line("apple", "3"));
+    lines.add(line("pear", "5"));
+
+    MapTree results = database.factory.createUnitOfWork()
+      .update(insertOrder, Collections.singletonMap("customer", "ann"))
+      .updateList(insertLine, lines)
+      .run();
+
+    Object id = results.get("id");
+    assertEquals(1, ((Number)id).intValue());
+    assertEquals(2, database.jdbc.queryForObject("select count(*) from line where order_id = ?", Integer.class, id).intValue());
+    assertEquals(8, database.jdbc.queryForObject("select sum(qty) from line", Integer.class).intValue());
+    assertEquals("pear", database.jdbc.queryForObject("select product from line where qty = 5", String.class));
+  }
+
+  @Test
+  void rejectsDefinitionsItCantApply(){
+    final UpdateDefinition mapped = UpdateDefinition.builder("insert into line (product) values (:product)").map("product").build();
+    final UpdateDefinition keyed = UpdateDefinition.builder("insert into orders (customer) values (:customer)").key("id").build();
+
+    assertThrows(IllegalArgumentException.class, new Executable(){
+      public void execute(){
+        database.factory.createUnitOfWork().update(mapped, Collections.singletonMap("product", "apple"));
+      }
+    });
+    assertThrows(IllegalArgumentException.class, new Executable(){
+      public void execute(){
+        database.factory.createUnitOfWork().updateList(keyed, Collections.singletonList(Collections.singletonMap("customer", "ann")));
+      }
+    });
+  }
+
+  private static Map<String, Object> line(String product, String quantity){
+    Map<String, Object> line = new HashMap<>();
+    line.put("name", product);
+    line.put("quantity", quantity);
+    return line;
+  }
+}
@@ -0,0 +1,117 @@
+package sqlmapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link SqlUpdater#upsertList(String, String[], List)} with every dialect H2 can run, natively or in a
+ * compatibility mode: all but PostgreSQL, whose {@code ON CONFLICT (...)} H2 doesn't run.
+ */
+class UpsertListTest {
+  private TestDatabase database;
+
+  static Stream<Arguments> dialects(){
+    return Stream.of(
+      Arguments.of(SqlDialect.h2(), null),
+      Arguments.of(SqlDialect.ansi(), null),
+      Arguments.of(SqlDialect.sqlServer(), "MSSQLServer"),
+      Arguments.of(SqlDialect.mysql(), "MySQL")
+    );
+  }
+
+  @AfterEach
+  void tearDown(){
+    if(database != null){
+      database.close();
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("dialects")
+  void reportsInsertedAndUpdatedRows(SqlDialect dialect, String mode){
+    createItems(mode);
+    UpsertResult result = updater(dialect).upsertOutcomes().upsertList("item", new String[]{"code"}, items("a", "b", "c"));
+
+    assertEquals(Arrays.asList(UpsertResult.Outcome.UPDATED, UpsertResult.Outcome.INSERTED, UpsertResult.Outcome.INSERTED), result.getOutcomes());
+    assertEquals(1, result.getUpdatedCount());
+    assertEquals(2, result.getInsertedCount());
+    assertEquals("name a", database.jdbc.queryForObject("select name from item where code = 'a'", String.class));
+    assertEquals(3, database.jdbc.queryForObject("select count(*) from item", Integer.class).intValue());
+  }
+
+  @ParameterizedTest
+  @MethodSource("dialects")
+  void skipsTheLookupUnlessAsked(SqlDialect dialect, String mode){
+    createItems(mode);
+    final UpsertResult result = updater(dialect).upsertList("item", new String[]{"code"}, items("a", "b"));
+
+    assertFalse(result.hasOutcomes());
+    assertEquals(2, result.getRowCount());
+    assertEquals(1, result.getStatementCount());
+    assertThrows(IllegalStateException.class, new Executable(){
+      public void execute(){
+        result.getOutcomes();
+      }
+    });
+    assertEquals(2, database.jdbc.queryForObject("select count(*) from item", Integer.class).intValue());
+  }
+
+  @ParameterizedTest
+  @MethodSource("dialects")
+  void sendsRepeatedKeysToSeparateStatements(SqlDialect dialect, String mode){
+    createItems(mode);
+    List<Map> items = items("b", "b");
+    items.get(1).put("name", "last b");
+    UpsertResult result = updater(dialect).upsertOutcomes().upsertList("item", new String[]{"code"}, items);
+
+    assertEquals(Arrays.asList(UpsertResult.Outcome.INSERTED, UpsertResult.Outcome.UPDATED), result.getOutcomes());
+    assertEquals(2, result.getStatementCount());
+    assertEquals("last b", database.jdbc.queryForObject("select name from item where code = 'b'", String.class));
+  }
+
+  @Test
+  void comparesKeysAsTheDatabaseDoes(){
+    createItems(null);
+    // The CHAR column pads 'a' to 'a   ', which the database still finds equal to 'a'.
+    UpsertResult result = updater(SqlDialect.h2()).batchSize(1).upsertOutcomes().upsertList("item", new String[]{"code"}, items("a"));
+
+    assertEquals(Arrays.asList(UpsertResult.Outcome.UPDATED), result.getOutcomes());
+    assertEquals(1, database.jdbc.queryForObject("select count(*) from item", Integer.class).intValue());
+  }
+
+  private void createItems(String mode){
+    database = new TestDatabase(mode);
+    database.jdbc.execute("create table item (code char(4) primary key, name varchar(20))");
+    database.jdbc.execute("insert into item values ('a', 'old a')");
+  }
+
+  private SqlUpdater updater(SqlDialect dialect){
+    return database.factory.createSqlUpdater().dialect(dialect).map("code").map("name");
+  }
+
+  private static List<Map> items(String... codes){
+    List<Map> items = new ArrayList<>();
+    for(String code : codes){
+      Map<String, Object> item = new HashMap<>();
+      item.put("code", code);
+      item.put("name", "name " + code);
+      items.add(item);
+    }
+    return items;
+  }
+}
@@ -0,0 +1,171 @@
+package sqlmapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Tests queuing updates in a {@link WriteBehindUpdater}: coalescing, background flushes and the flush on shutdown.
+ */
+class WriteBehindUpdaterTest {
+  private static final String RENAME = "update page set name = :name where id = :id";
+  private static final String VIEW = "update page set views = views + :n where id = :id";
+  private static final String LOG = "insert into log (page_id) values (:id)";
+
+  private TestDatabase database;
+
+  @BeforeEach
+  void setUp(){
+    database = new TestDatabase();
+    database.jdbc.execute("create table page (id int primary key, name varchar(20), views int)");
+    database.jdbc.execute("create table log (page_id int)");
+    database.jdbc.execute("insert into page select x, 'page ' || x, 0 from system_range(1, 10)");
+  }
+
+  @AfterEach
+  void tearDown(){
+    database.close();
+  }
+
+  @Test
+  void keepsTheLastOfTheUpdatesOfARow(){
+    WriteBehindUpdater updater = database.factory.createWriteBehindUpdater(100, 100, 0, TimeUnit.SECONDS).coalesce(RENAME, "id");
+
+    updater.update(RENAME, params(1, "name", "a"));
+    updater.update(RENAME, params(1, "name", "b"));
+    updater.update(RENAME, params(2, "name", "x"));
+    updater.update(RENAME, params(1, "name", "c"));
+    updater.update(LOG, params(1, null, null));
+    updater.update(LOG, params(1, null, null));
+
+    // The updates of LOG aren't coalesced.
+    assertEquals(4, updater.getQueueDepth());
+    assertEquals(2, updater.getCoalescedCount());
+    assertEquals("page 1", name(1));
+
+    updater.flush();
+
+    assertEquals(0, updater.getQueueDepth());
+    assertEquals(4, updater.getWrittenCount());
+    assertEquals(1, updater.getFlushCount());
+    assertEquals("c", name(1));
+    assertEquals("x", name(2));
+    assertEquals(2, database.jdbc.queryForObject("select count(*) from log", Integer.class).intValue());
+  }
+
+  @Test
+  void mergesTheUpdatesOfARow(){
+    WriteBehindUpdater updater = database.factory.createWriteBehindUpdater(100, 100, 0, TimeUnit.SECONDS)
+      .coalesce(VIEW, new BinaryOperator<Map<String, Object>>(){
+        public Map<String, Object> apply(Map<String, Object> queued, Map<String, Object> next){
+          Map<String, Object> merged = new HashMap<>(next);
+          merged.put("n", (Integer)queued.get("n") + (Integer)next.get("n"));
+          return merged;
+        }
+      }, "id");
+
+    for(int i = 0; i < 10; i++){
+      updater.update(VIEW, params(1, "n", 1));
+    }
+    updater.update(VIEW, params(2, "n", 5));
+    updater.flush();
+
+    assertEquals(9, updater.getCoalescedCount());
+    assertEquals(2, updater.getWrittenCount());
+    assertEquals(10, views(1));
+    assertEquals(5, views(2));
+  }
+
+  @Test
+  void flushesInTheBackgroundOnceTheQueueReachesTheFlushSize() throws InterruptedException {
+    WriteBehindUpdater updater = database.factory.createWriteBehindUpdater(100, 3, 0, TimeUnit.SECONDS);
+
+    updater.update(VIEW, params(1, "n", 1));
+    updater.update(VIEW, params(2, "n", 1));
+    assertEquals(2, updater.getQueueDepth());
+    updater.update(VIEW, params(3, "n", 1));
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while(updater.getWrittenCount() < 3 && System.nanoTime() < deadline){
+      Thread.sleep(10);
+    }
+    assertEquals(3, updater.getWrittenCount());
+    assertEquals(1, views(3));
+  }
+
+  @Test
+  void waitsForRoomInAFullQueue() throws InterruptedException {
+    final WriteBehindUpdater updater = database.factory.createWriteBehindUpdater(10, 10, 0, TimeUnit.SECONDS);
+    List<Thread> threads = new ArrayList<>();
+    for(int t = 0; t < 4; t++){
+      final int id = t + 1;
+      threads.add(new Thread(new Runnable(){
+        public void run(){
+          for(int i = 0; i < 200; i++){
+            updater.update(VIEW, params(id, "n", 1));
+          }
+        }
+      }));
+    }
+    for(Thread thread : threads){
+      thread.start();
+    }
+    for(Thread thread : threads){
+      thread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+    updater.close();
+
+    assertEquals(800, updater.getWrittenCount());
+    assertEquals(0, updater.getFailedCount());
+    for(int id = 1; id <= 4; id++){
+      assertEquals(200, views(id));
+    }
+  }
+
+  @Test
+  void writesWhatIsLeftOnShutdown(){
+    final WriteBehindUpdater updater = database.factory.createWriteBehindUpdater(100, 100, 1, TimeUnit.HOURS).coalesce(RENAME, "id");
+    updater.update(RENAME, params(1, "name", "a"));
+    updater.update(RENAME, params(1, "name", "b"));
+    updater.update(VIEW, params(2, "n", 3));
+
+    database.factory.shutdown();
+
+    assertEquals(0, updater.getQueueDepth());
+    assertEquals(2, updater.getWrittenCount());
+    assertEquals("b", name(1));
+    assertEquals(3, views(2));
+    assertThrows(IllegalStateException.class, new Executable(){
+      public void execute(){
+        updater.update(VIEW, params(2, "n", 1));
+      }
+    });
+  }
+
+  private static Map<String, Object> params(int id, String key, Object value){
+    Map<String, Object> params = new HashMap<>();
+    params.put("id", id);
+    if(key != null){
+      params.put(key, value);
+    }
+    return params;
+  }
+
+  private String name(int id){
+    return database.jdbc.queryForObject("select name from page where id = ?", String.class, id);
+  }
+
+  private int views(int id){
+    return database.jdbc.queryForObject("select views from page where id = ?", Integer.class, id);
+  }
+}